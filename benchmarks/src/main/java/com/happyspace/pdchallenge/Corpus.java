@@ -0,0 +1,160 @@
+package com.happyspace.pdchallenge;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Generates synthetic corpora for the benchmarks.
+ *
+ * Words are drawn from a fixed vocabulary with Zipfian frequencies, which is
+ * close to natural language and log text: a few words are very common and most
+ * words are rare. Generation is seeded so every run measures the same input.
+ */
+public final class Corpus {
+
+    /**
+     * The layouts of input that stress different parts of the pipeline.
+     */
+    public enum Shape {
+        /**
+         * Sixteen files of ordinary 80 column lines.
+         */
+        ZIPF,
+        /**
+         * One file whose lines are a megabyte long.
+         */
+        LONG_LINES,
+        /**
+         * Many files of about 200 bytes, a hundred per directory.
+         */
+        TINY_FILES,
+        /**
+         * One file holding the whole corpus.
+         */
+        HUGE_FILE
+    }
+
+    private static final int VOCABULARY = 100000;
+    private static final double EXPONENT = 1.0;
+    private static final long SEED = 42;
+
+    private final byte[][] words;
+    private final double[] cumulative;
+    private final Random random = new Random(SEED);
+
+    public Corpus() {
+        Random letters = new Random(SEED);
+        words = new byte[VOCABULARY][];
+        for (int i = 0; i < VOCABULARY; i++) {
+            int length = 2 + letters.nextInt(9);
+            byte[] word = new byte[length];
+            for (int j = 0; j < length; j++) {
+                word[j] = (byte) ('a' + letters.nextInt(26));
+            }
+            words[i] = word;
+        }
+        cumulative = new double[VOCABULARY];
+        double sum = 0;
+        for (int rank = 0; rank < VOCABULARY; rank++) {
+            sum += 1.0 / Math.pow(rank + 1, EXPONENT);
+            cumulative[rank] = sum;
+        }
+        for (int rank = 0; rank < VOCABULARY; rank++) {
+            cumulative[rank] /= sum;
+        }
+    }
+
+    /**
+     * @return a word drawn with Zipfian probability.
+     */
+    public byte[] nextWord() {
+        int rank = Arrays.binarySearch(cumulative, random.nextDouble());
+        if (rank < 0) {
+            rank = Math.min(-rank - 1, VOCABULARY - 1);
+        }
+        return words[rank];
+    }
+
+    /**
+     * Write a corpus of roughly 'totalBytes' under 'directory'.
+     *
+     * @return the directory, or the single file for one-file shapes.
+     */
+    public Path generate(Shape shape, Path directory, long totalBytes) throws IOException {
+        Files.createDirectories(directory);
+        switch (shape) {
+            case ZIPF:
+                for (int i = 0; i < 16; i++) {
+                    writeFile(directory.resolve("zipf_" + i + ".txt"), totalBytes / 16, 80);
+                }
+                return directory;
+            case LONG_LINES:
+                return writeFile(directory.resolve("long_lines.txt"), totalBytes, 1024 * 1024);
+            case TINY_FILES:
+                long files = Math.max(1, totalBytes / 200);
+                for (long i = 0; i < files; i++) {
+                    Path sub = directory.resolve("d" + (i / 100));
+                    if (i % 100 == 0) {
+                        Files.createDirectories(sub);
+                    }
+                    writeFile(sub.resolve("f" + i + ".txt"), 200, 80);
+                }
+                return directory;
+            case HUGE_FILE:
+            default:
+                return writeFile(directory.resolve("huge.txt"), totalBytes, 80);
+        }
+    }
+
+    private Path writeFile(Path file, long bytes, int lineLength) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)) {
+            long written = 0;
+            int column = 0;
+            while (written < bytes) {
+                byte[] word = nextWord();
+                out.write(word);
+                column += word.length;
+                if (column >= lineLength) {
+                    out.write('\n');
+                    column = 0;
+                }
+                else {
+                    out.write(' ');
+                    column++;
+                }
+                written += word.length + 1;
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Remove a generated corpus.
+     */
+    public static void delete(Path directory) throws IOException {
+        if (directory == null || !Files.exists(directory)) {
+            return;
+        }
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
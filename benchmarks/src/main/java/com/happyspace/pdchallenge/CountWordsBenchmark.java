@@ -0,0 +1,57 @@
+package com.happyspace.pdchallenge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single threaded tokenizing and counting of one file, as done by each WordCountTask.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CountWordsBenchmark {
+
+    @Param({"HUGE_FILE", "LONG_LINES"})
+    public Corpus.Shape shape;
+
+    @Param({"32"})
+    public int megabytes;
+
+    private Path directory;
+    private Path file;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pdchallenge-count");
+        file = new Corpus().generate(shape, directory, megabytes * 1024L * 1024L);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Corpus.delete(directory);
+    }
+
+    @Benchmark
+    public WordCountMap countWords() throws IOException {
+        return WordCountTask.countWords(file, null);
+    }
+}
@@ -0,0 +1,64 @@
+package com.happyspace.pdchallenge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The reduce step: merging per-file count tables into an aggregator and selecting the top N.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"EXACT", "APPROXIMATE"})
+    public AggregationMode engine;
+
+    @Param({"64"})
+    public int files;
+
+    @Param({"20000"})
+    public int tokensPerFile;
+
+    private WordCountMap[] tables;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Corpus corpus = new Corpus();
+        tables = new WordCountMap[files];
+        for (int i = 0; i < files; i++) {
+            WordCountMap table = new WordCountMap();
+            for (int t = 0; t < tokensPerFile; t++) {
+                byte[] word = corpus.nextWord();
+                table.token(word, 0, word.length);
+            }
+            tables[i] = table;
+        }
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Long>> merge() {
+        Aggregator aggregator = engine.newAggregator(App.SKETCH_CAPACITY_DEFAULT);
+        for (WordCountMap table : tables) {
+            aggregator.accept(table);
+        }
+        return aggregator.top(App.MAX_WORDS_MAX);
+    }
+}
@@ -0,0 +1,77 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCreateFileList;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The whole pipeline as App runs it: walk, count, reduce and select, at varying worker counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+
+    @Param({"ZIPF", "TINY_FILES", "HUGE_FILE"})
+    public Corpus.Shape shape;
+
+    @Param({"1", "2", "4", "8"})
+    public int workers;
+
+    @Param({"EXACT", "APPROXIMATE"})
+    public AggregationMode engine;
+
+    @Param({"64"})
+    public int megabytes;
+
+    private Path directory;
+    private ArrayList<Path> start;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        directory = Files.createTempDirectory("pdchallenge-pipeline");
+        // tiny files are costly to create, keep that corpus smaller
+        long bytes = megabytes * 1024L * 1024L;
+        if (shape == Corpus.Shape.TINY_FILES) {
+            bytes /= 16;
+        }
+        start = new ArrayList<>();
+        start.add(new Corpus().generate(shape, directory, bytes));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Corpus.delete(directory);
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Long>> processFiles()
+            throws InterruptedException, ExecutionException, FailedToCreateFileList {
+        FileProcessor processor = new FileProcessor(workers, start, 10, App.MAX_FILE_WALK,
+                engine.newAggregator(App.SKETCH_CAPACITY_DEFAULT), App.CHUNK_THRESHOLD_DEFAULT);
+        return processor.processFiles();
+    }
+}
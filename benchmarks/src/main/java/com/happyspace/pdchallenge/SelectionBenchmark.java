@@ -0,0 +1,71 @@
+package com.happyspace.pdchallenge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Picking the top N entries: a full sort with EntryComparator against the bounded heap in TopN.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SelectionBenchmark {
+
+    @Param({"10", "100"})
+    public int topN;
+
+    @Param({"100000"})
+    public int tokens;
+
+    private List<Map.Entry<String, Long>> entries;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Corpus corpus = new Corpus();
+        WordCountMap table = new WordCountMap();
+        for (int t = 0; t < tokens * 10; t++) {
+            byte[] word = corpus.nextWord();
+            table.token(word, 0, word.length);
+        }
+        entries = new ArrayList<>(table.size());
+        for (int id = 0; id < table.size(); id++) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<>(table.word(id), table.count(id)));
+        }
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Long>> sort() {
+        List<Map.Entry<String, Long>> results = new ArrayList<>(entries);
+        Collections.sort(results, new EntryComparator());
+        return results.subList(0, Math.min(topN, results.size()));
+    }
+
+    @Benchmark
+    public List<Map.Entry<String, Long>> heap() {
+        TopN selector = new TopN(topN);
+        for (Map.Entry<String, Long> entry : entries) {
+            selector.offer(entry.getKey(), entry.getValue());
+        }
+        return selector.result();
+    }
+}
@@ -0,0 +1,73 @@
+package com.happyspace.pdchallenge;
+
+/**
+ * Selects how per-file counts are reduced into the global result.
+ */
+public enum AggregationMode {
+    /**
+     * Every word is counted exactly in one shared table.
+     */
+    EXACT {
+        @Override
+        public Aggregator newAggregator(int capacity, long memoryBudget, int workers) {
+            return new ExactAggregator();
+        }
+    },
+    /**
+     * Exact counting with the shared table kept off the Java heap, for vocabularies
+     * that do not fit in it.
+     */
+    OFF_HEAP {
+        @Override
+        public Aggregator newAggregator(int capacity, long memoryBudget, int workers) {
+            return new ExactAggregator(new OffHeapMemory(memoryBudget));
+        }
+    },
+    /**
+     * Exact counting in bounded memory: worker tables spill sorted runs to disk and the
+     * runs are merged when the result is requested.
+     */
+    SPILL {
+        @Override
+        public Aggregator newAggregator(int capacity, long memoryBudget, int workers) {
+            return new SpillingAggregator(memoryBudget);
+        }
+    },
+    /**
+     * Each worker keeps a bounded Space-Saving sketch; sketches are merged at the end.
+     */
+    APPROXIMATE {
+        @Override
+        public Aggregator newAggregator(int capacity, long memoryBudget, int workers) {
+            return new SketchAggregator(capacity);
+        }
+    };
+
+    /**
+     *
+     * @param capacity number of counters each sketch may hold. Ignored by exact mode.
+     * @return a new, empty aggregator for this mode, with the default off-heap budget.
+     */
+    public Aggregator newAggregator(int capacity) {
+        return newAggregator(capacity, App.MEMORY_BUDGET_DEFAULT);
+    }
+
+    /**
+     *
+     * @param capacity number of counters each sketch may hold. Ignored by exact mode.
+     * @param memoryBudget bytes the off-heap and spill modes may hold in memory before spilling to disk.
+     * @return a new, empty aggregator for this mode, shared by one worker per core.
+     */
+    public Aggregator newAggregator(int capacity, long memoryBudget) {
+        return newAggregator(capacity, memoryBudget, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     *
+     * @param capacity number of counters each sketch may hold. Ignored by exact mode.
+     * @param memoryBudget bytes the off-heap and spill modes may hold in memory before spilling to disk.
+     * @param workers threads that merge into the aggregator, among which the spill mode divides its budget.
+     * @return a new, empty aggregator for this mode.
+     */
+    public abstract Aggregator newAggregator(int capacity, long memoryBudget, int workers);
+}
@@ -0,0 +1,42 @@
+package com.happyspace.pdchallenge;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the word counts produced by tasks into a global top N.
+ *
+ * Implementations must accept counts from several worker threads at once.
+ * Closing an aggregator frees what it holds off the heap or on disk; close it once
+ * the result has been read.
+ */
+public interface Aggregator extends Closeable {
+
+    /**
+     * Merge the complete counts of one unit of work.
+     * Called from worker threads.
+     *
+     * @param counts word counts for a single file.
+     */
+    void accept(WordCountMap counts);
+
+    /**
+     * Called once all work has been accepted.
+     *
+     * @param topN how many words to return.
+     * @return a list of words in descending order limited to 'topN' values.
+     */
+    List<Map.Entry<String, Long>> top(int topN);
+
+    /**
+     * @return the number of distinct words held, or -1 if unknown.
+     */
+    long distinctWords();
+
+    /**
+     * @return the largest amount by which a reported count may exceed the true count,
+     * and the largest count a word missing from the result may have. Zero when exact.
+     */
+    long errorBound();
+}
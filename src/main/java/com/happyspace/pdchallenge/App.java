@@ -1,13 +1,18 @@
 package com.happyspace.pdchallenge;
 
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
 import com.happyspace.pdchallenge.exceptions.FailedToCreateFileList;
 
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 
@@ -20,6 +25,9 @@ import java.util.concurrent.ExecutionException;
  *      A list of paths. If the path is a directory the directory is scanned.
  * Program invocation example:
  *      > max-words 5 /tmp /home/user/file.txt
+ *
+ * Count files written with -Dpdchallenge.output are combined by the merge command:
+ *      > max-words merge 5 /tmp/all.pdc /tmp/monday.pdc /tmp/tuesday.pdc
  */
 public class App 
 {
@@ -28,11 +36,95 @@ public class App
     protected static final int MAX_WORDS_MAX = 100;
     // prevent unbounded file walk
     protected static final int MAX_FILE_WALK = 99;
-    // regex
-    protected static final String WHITE_SPACE_REGEX = "\\s+";
+    // system property selecting the aggregation engine, exact, off_heap, spill or approximate
+    protected static final String ENGINE_PROPERTY = "pdchallenge.engine";
+    // system property for the number of counters in each approximate sketch
+    protected static final String SKETCH_CAPACITY_PROPERTY = "pdchallenge.sketch.capacity";
+    protected static final int SKETCH_CAPACITY_DEFAULT = 10000;
+    // system property for the bytes the off_heap and spill engines hold in memory before spilling to disk
+    protected static final String MEMORY_BUDGET_PROPERTY = "pdchallenge.memory.budget";
+    protected static final long MEMORY_BUDGET_DEFAULT = 256L * 1024 * 1024;
+    // system property for the file size in bytes above which files are memory mapped and counted in chunks
+    protected static final String CHUNK_THRESHOLD_PROPERTY = "pdchallenge.chunk.threshold";
+    protected static final long CHUNK_THRESHOLD_DEFAULT = 64L * 1024 * 1024;
+    // system property for the number of threads that read small files, or the reader threads of the pipeline, zero reads on the workers
+    protected static final String IO_THREADS_PROPERTY = "pdchallenge.io.threads";
+    // system property, seconds between progress lines on stderr, zero for none
+    protected static final String PROGRESS_PROPERTY = "pdchallenge.progress";
+    // system property naming a directory that keeps per-file counts between runs
+    protected static final String INDEX_PROPERTY = "pdchallenge.index";
+    // system property, seconds of history reported in tail mode, zero counts the paths once
+    protected static final String TAIL_WINDOW_PROPERTY = "pdchallenge.tail.window";
+    // system property, seconds between tail mode reports, defaults to the window so that windows tumble
+    protected static final String TAIL_SLIDE_PROPERTY = "pdchallenge.tail.slide";
+    // system property, serve counting requests from coordinators on this port instead of counting paths
+    protected static final String WORKER_PORT_PROPERTY = "pdchallenge.worker.port";
+    // system property, the address a worker listens on, loopback by default
+    protected static final String WORKER_BIND_PROPERTY = "pdchallenge.worker.bind";
+    // system property, comma separated host:port of workers to count the paths on
+    protected static final String WORKERS_PROPERTY = "pdchallenge.workers";
+    // system property for the number of files sent to a worker at a time
+    protected static final String WORKERS_BATCH_PROPERTY = "pdchallenge.workers.batch";
+    protected static final int WORKERS_BATCH_DEFAULT = 64;
+    // system property, when true changed files are only recounted if their content hash changed
+    protected static final String INDEX_HASH_PROPERTY = "pdchallenge.index.hash";
+    // system property, comma separated normalization stages: case, words, stop and stem, or all
+    protected static final String NORMALIZE_PROPERTY = "pdchallenge.normalize";
+    // system property, the number of consecutive words counted together as a phrase, from 1 to 4
+    protected static final String NGRAMS_PROPERTY = "pdchallenge.ngrams";
+    // system property, when true a phrase may continue on the next line
+    protected static final String NGRAMS_CROSS_LINES_PROPERTY = "pdchallenge.ngrams.cross.lines";
+    // system property, when true every path is walked before counting so files are scheduled by size
+    protected static final String SCHEDULE_PROPERTY = "pdchallenge.schedule";
+    // system properties, comma separated globs of files to count and of files and directories to skip
+    protected static final String INCLUDE_PROPERTY = "pdchallenge.include";
+    protected static final String EXCLUDE_PROPERTY = "pdchallenge.exclude";
+    // system properties, the smallest and largest file counted in bytes
+    protected static final String MIN_SIZE_PROPERTY = "pdchallenge.min.size";
+    protected static final String MAX_SIZE_PROPERTY = "pdchallenge.max.size";
+    // system property, only files modified within this many seconds are counted
+    protected static final String MAX_AGE_PROPERTY = "pdchallenge.max.age";
+    // system property, when true symbolic links are followed
+    protected static final String FOLLOW_LINKS_PROPERTY = "pdchallenge.follow.links";
+    // system property for the number of threads listing directories when every path is walked before counting
+    protected static final String WALK_THREADS_PROPERTY = "pdchallenge.walk.threads";
+    // system property for the number of 1 MB blocks in flight between reader threads and workers, zero to read on the workers
+    protected static final String PIPELINE_BUFFERS_PROPERTY = "pdchallenge.pipeline.buffers";
+    // system property naming a count file that receives the full counts, for the merge command
+    protected static final String OUTPUT_PROPERTY = "pdchallenge.output";
+    // system property, when false count files store every word in full
+    protected static final String OUTPUT_PREFIX_PROPERTY = "pdchallenge.output.prefix";
+    // first argument selecting the merge command
+    protected static final String MERGE_COMMAND = "merge";
     
     public static void main( String[] args )
     {
+        // a worker takes its files from a coordinator, and only reads under the paths given, or the working directory
+        Integer workerPort = Integer.getInteger(WORKER_PORT_PROPERTY);
+        if (workerPort != null) {
+            List<Path> roots = new ArrayList<>();
+            for (String root : args.length > 0 ? args : new String[] {""}) {
+                roots.add(Paths.get(root));
+            }
+            String bind = System.getProperty(WORKER_BIND_PROPERTY);
+            try (CountWorker worker = new CountWorker(
+                    bind != null ? InetAddress.getByName(bind) : InetAddress.getLoopbackAddress(), workerPort,
+                    Runtime.getRuntime().availableProcessors(),
+                    Long.getLong(CHUNK_THRESHOLD_PROPERTY, CHUNK_THRESHOLD_DEFAULT), roots)) {
+                System.out.format(Messages.WORKER_LISTENING_FORMAT, worker.port());
+                worker.serve();
+            } catch (IOException e) {
+                System.out.println(Messages.EXECUTION_FAILED);
+                System.exit(-1);
+            }
+            return;
+        }
+
+        if (args.length > 0 && MERGE_COMMAND.equals(args[0])) {
+            merge(Arrays.copyOfRange(args, 1, args.length));
+            return;
+        }
+
         // for simplicity there must be at least two arguments
         if(args.length == 0 || args.length < 2) {
             System.out.println(Messages.INVALID_ARGUMENTS);
@@ -87,18 +179,119 @@ public class App
             System.exit(-1);
         }
 
+        // select the aggregation engine
+        AggregationMode mode = null;
+        try {
+            mode = AggregationMode.valueOf(
+                    System.getProperty(ENGINE_PROPERTY, AggregationMode.EXACT.name()).toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            System.out.println(Messages.INVALID_ENGINE);
+            System.exit(-1);
+        }
+        // workers to count on, if any
+        List<InetSocketAddress> workers = null;
+        if (System.getProperty(WORKERS_PROPERTY) != null) {
+            try {
+                workers = workerAddresses(System.getProperty(WORKERS_PROPERTY));
+            } catch (IllegalArgumentException e) {
+                System.out.println(Messages.INVALID_WORKERS);
+                System.exit(-1);
+            }
+        }
+        // how tokens are normalized, none by default
+        Normalizer normalizer = Normalizer.NONE;
+        if (System.getProperty(NORMALIZE_PROPERTY) != null) {
+            try {
+                normalizer = normalizer(System.getProperty(NORMALIZE_PROPERTY));
+            } catch (IllegalArgumentException e) {
+                System.out.println(Messages.INVALID_NORMALIZE);
+                System.exit(-1);
+            }
+        }
+        // how many words are counted together, single words by default
+        TokenizerConfig tokenizer = TokenizerConfig.DEFAULT;
+        try {
+            tokenizer = new TokenizerConfig("", normalizer, Integer.parseInt(System.getProperty(NGRAMS_PROPERTY, "1")),
+                    Boolean.getBoolean(NGRAMS_CROSS_LINES_PROPERTY));
+        } catch (IllegalArgumentException e) {
+            System.out.println(Messages.INVALID_NGRAMS);
+            System.exit(-1);
+        }
+        // which files are counted
+        WalkOptions walk = null;
+        try {
+            walk = walkOptions();
+        } catch (IllegalArgumentException e) {
+            System.out.println(Messages.INVALID_WALK);
+            System.exit(-1);
+        }
+        int capacity = Math.max(maxWords, Integer.getInteger(SKETCH_CAPACITY_PROPERTY, SKETCH_CAPACITY_DEFAULT));
+
+        String output = System.getProperty(OUTPUT_PROPERTY);
+        if (output != null && mode == AggregationMode.APPROXIMATE) {
+            System.out.println(Messages.OUTPUT_NOT_EXACT);
+            System.exit(-1);
+        }
+
         // find out how many cores are available
         int cores = Runtime.getRuntime().availableProcessors();
         // used to create threads. If there is one core there use main execution tread.
         if(cores != 1) {
             cores--;
         }
+        // follow the paths instead of counting them once
+        long tailWindow = Long.getLong(TAIL_WINDOW_PROPERTY, 0L);
+        if (tailWindow > 0) {
+            Metrics.register();
+            try {
+                new TailProcessor(cores, paths, maxWords, MAX_FILE_WALK, tailWindow * 1000,
+                        Long.getLong(TAIL_SLIDE_PROPERTY, tailWindow) * 1000, System.out, tokenizer).run();
+            } catch (IOException e) {
+                System.out.println(Messages.EXECUTION_FAILED);
+                System.exit(-1);
+            } catch (InterruptedException e) {
+                System.exit(0);
+            }
+            return;
+        }
+
         // create a file processor
-        FileProcessor processor = new FileProcessor(cores, paths, maxWords, MAX_FILE_WALK);
+        Aggregator aggregator = mode.newAggregator(capacity,
+                Long.getLong(MEMORY_BUDGET_PROPERTY, MEMORY_BUDGET_DEFAULT), cores);
+        FileProcessor processor = new FileProcessor(cores, paths, maxWords, MAX_FILE_WALK,
+                new FileProcessor.Options().aggregator(aggregator)
+                        .chunkThreshold(Long.getLong(CHUNK_THRESHOLD_PROPERTY, CHUNK_THRESHOLD_DEFAULT))
+                        .ioThreads(Integer.getInteger(IO_THREADS_PROPERTY, 0)).tokenizer(tokenizer).walk(walk)
+                        .pipelineBuffers(Math.max(0, Integer.getInteger(PIPELINE_BUFFERS_PROPERTY, 0))));
+
+        // counters are always collected and published over JMX
+        Metrics.register();
+        ProgressReporter progress = null;
+        long progressSeconds = Long.getLong(PROGRESS_PROPERTY, 0L);
+        if (progressSeconds > 0) {
+            progress = new ProgressReporter(Metrics.INSTANCE, System.err);
+            progress.start(progressSeconds);
+        }
 
+        boolean failed = false;
         try {
             // process files
-            List<Map.Entry<String, Integer>> entries = processor.processFiles();
+            List<Map.Entry<String, Long>> entries;
+            String index = System.getProperty(INDEX_PROPERTY);
+            if (workers != null) {
+                entries = processor.processDistributed(new Coordinator(workers,
+                        Integer.getInteger(WORKERS_BATCH_PROPERTY, WORKERS_BATCH_DEFAULT), tokenizer));
+            }
+            else if (index != null) {
+                entries = processor.processIncremental(
+                        new IncrementalIndex(Paths.get(index), Boolean.getBoolean(INDEX_HASH_PROPERTY), tokenizer));
+            }
+            else if (Boolean.getBoolean(SCHEDULE_PROPERTY)) {
+                entries = processor.processScheduled();
+            }
+            else {
+                entries = processor.processFiles();
+            }
             // print results
             int mw = maxWords;
             if(entries.size() < mw) {
@@ -106,18 +299,193 @@ public class App
             }
 
             System.out.format(Messages.WORDS_HEADER_FORMAT, mw);
-            for (Map.Entry<String, Integer> entry: entries){
+            for (Map.Entry<String, Long> entry: entries){
                 System.out.format(Messages.WORDS_ITEM_FORMAT,entry.getKey(), entry.getValue());
             }
+            System.out.format(Messages.ERROR_BOUND_FORMAT, processor.errorBound());
+            if (output != null) {
+                processor.export(Paths.get(output), outputPrefix());
+            }
+            for (FailedToCountFile failure : processor.failures()) {
+                System.err.format(Messages.FILE_FAILED_FORMAT, failure.getPath(), failure.getCause());
+            }
+            if (progress != null) {
+                progress.stop();
+                progress.report();
+            }
         } catch (FailedToCreateFileList e) {
-            System.out.println(Messages.EXECUTION_FAILED);
-            System.exit(-1);
+            failed = true;
         } catch (ExecutionException e) {
+            failed = true;
+        } catch (InterruptedException e) {
+            failed = true;
+        } catch (IOException e) {
+            failed = true;
+        } finally {
+            // exiting skips finally blocks, so spill files and off-heap tables are freed first
+            try {
+                aggregator.close();
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+        if (failed) {
             System.out.println(Messages.EXECUTION_FAILED);
             System.exit(-1);
-        } catch (InterruptedException e) {
+        }
+    }
+
+    /**
+     * Merge count files and print the most frequent words of the result.
+     *
+     * @param args top N, the merged file and the files to merge.
+     */
+    protected static void merge(String[] args) {
+        if (args.length < 3) {
+            System.out.println(Messages.INVALID_MERGE);
+            System.exit(-1);
+        }
+        int maxWords = 0;
+        try {
+            maxWords = Integer.parseInt(args[0]);
+        } catch (NumberFormatException e) {
+            System.out.println(Messages.NON_INTEGER);
+            System.exit(-1);
+        }
+        if (maxWords > App.MAX_WORDS_MAX) {
+            System.out.println(Messages.EXCEEDS_MAX_TOP_N);
+            System.exit(-1);
+        }
+        Path output = Paths.get(args[1]);
+        List<Path> inputs = new ArrayList<>();
+        boolean shouldExit = false;
+        for (int i = 2; i < args.length; i++) {
+            Path input = Paths.get(args[i]);
+            // the output is only replaced once the inputs are merged, so it may be one of them
+            if (!Files.isRegularFile(input)) {
+                shouldExit = true;
+                break;
+            }
+            inputs.add(input);
+        }
+        if (shouldExit) {
+            System.out.println(Messages.INVALID_MERGE);
+            System.exit(-1);
+        }
+        try {
+            List<Map.Entry<String, Long>> entries = CountFile.merge(inputs, output, outputPrefix(), maxWords);
+            System.out.format(Messages.WORDS_HEADER_FORMAT, entries.size());
+            for (Map.Entry<String, Long> entry : entries) {
+                System.out.format(Messages.WORDS_ITEM_FORMAT, entry.getKey(), entry.getValue());
+            }
+        } catch (IOException e) {
             System.out.println(Messages.EXECUTION_FAILED);
             System.exit(-1);
         }
     }
+
+    /**
+     * @return whether count files are written prefix compressed, true unless turned off.
+     */
+    protected static boolean outputPrefix() {
+        return Boolean.parseBoolean(System.getProperty(OUTPUT_PREFIX_PROPERTY, "true"));
+    }
+
+    /**
+     * @param workers comma separated host:port pairs.
+     * @return the address of every worker.
+     */
+    protected static List<InetSocketAddress> workerAddresses(String workers) {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (String worker : workers.split(",")) {
+            String address = worker.trim();
+            int colon = address.lastIndexOf(':');
+            if (colon < 0) {
+                throw new IllegalArgumentException(address);
+            }
+            addresses.add(new InetSocketAddress(address.substring(0, colon),
+                    Integer.parseInt(address.substring(colon + 1))));
+        }
+        return addresses;
+    }
+
+    /**
+     * @param stages comma separated stages: case, words, stop and stem, or all of them.
+     * @return a normalizer running the stages.
+     */
+    protected static Normalizer normalizer(String stages) {
+        Normalizer.Builder builder = new Normalizer.Builder();
+        for (String stage : stages.split(",")) {
+            switch (stage.trim().toLowerCase(Locale.ROOT)) {
+                case "all":
+                    builder.foldCase(true).words(true).stopWords(Normalizer.ENGLISH_STOP_WORDS).stem(true);
+                    break;
+                case "case":
+                    builder.foldCase(true);
+                    break;
+                case "words":
+                    builder.words(true);
+                    break;
+                case "stop":
+                    builder.stopWords(Normalizer.ENGLISH_STOP_WORDS);
+                    break;
+                case "stem":
+                    builder.stem(true);
+                    break;
+                default:
+                    throw new IllegalArgumentException(stage);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * @return the walk options given by system properties.
+     * @throws IllegalArgumentException if a glob or a number is invalid.
+     */
+    protected static WalkOptions walkOptions() {
+        WalkOptions.Builder builder = new WalkOptions.Builder()
+                .minSize(Long.getLong(MIN_SIZE_PROPERTY, 0L))
+                .maxSize(Long.getLong(MAX_SIZE_PROPERTY, Long.MAX_VALUE))
+                .followLinks(Boolean.getBoolean(FOLLOW_LINKS_PROPERTY))
+                .threads(Integer.getInteger(WALK_THREADS_PROPERTY, WalkOptions.THREADS_DEFAULT));
+        long maxAge = Long.getLong(MAX_AGE_PROPERTY, 0L);
+        if (maxAge > 0) {
+            builder.modifiedAfter(System.currentTimeMillis() - maxAge * 1000);
+        }
+        for (String glob : globs(System.getProperty(INCLUDE_PROPERTY, ""))) {
+            builder.include(glob);
+        }
+        for (String glob : globs(System.getProperty(EXCLUDE_PROPERTY, ""))) {
+            builder.exclude(glob);
+        }
+        return builder.build();
+    }
+
+    /**
+     * @param globs comma separated globs. Commas inside braces belong to the glob.
+     * @return every glob.
+     */
+    protected static List<String> globs(String globs) {
+        List<String> list = new ArrayList<>();
+        int depth = 0;
+        int start = 0;
+        for (int i = 0; i <= globs.length(); i++) {
+            char c = i < globs.length() ? globs.charAt(i) : ',';
+            if (c == '{') {
+                depth++;
+            }
+            else if (c == '}') {
+                depth--;
+            }
+            else if (c == ',' && depth <= 0) {
+                String glob = globs.substring(start, i).trim();
+                if (!glob.isEmpty()) {
+                    list.add(glob);
+                }
+                start = i + 1;
+            }
+        }
+        return list;
+    }
 }
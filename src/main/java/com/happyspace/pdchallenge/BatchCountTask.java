@@ -0,0 +1,89 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * A task for counting word occurrences in a batch of small files.
+ *
+ * Every file in the batch is counted into a map of its own, reused from file to file, and
+ * added to the map of the batch once it has been read to the end. The batch map is handed
+ * to the {@link Aggregator} once, so a batch pays for one task and one merge.
+ */
+public class BatchCountTask extends RecursiveAction {
+
+    private final List<Path> paths;
+    private final Aggregator aggregator;
+    private final TokenizerConfig tokenizer;
+    private final Queue<FailedToCountFile> failures;
+
+    /**
+     *
+     * @param paths the files to count.
+     * @param aggregator Receives the counts for the batch.
+     * @param tokenizer How words are separated.
+     * @param failures receives the files that cannot be read.
+     */
+    public BatchCountTask(List<Path> paths, Aggregator aggregator, TokenizerConfig tokenizer,
+                          Queue<FailedToCountFile> failures) {
+        this.paths = paths;
+        this.aggregator = aggregator;
+        this.tokenizer = tokenizer;
+        this.failures = failures;
+    }
+
+    /**
+     * Count every file and pass the counts to the aggregator. A file that cannot be read
+     * is reported and the batch goes on without any of its words.
+     */
+    @Override
+    protected void compute() {
+        long started = System.nanoTime();
+        WordCountMap counts = new WordCountMap();
+        WordCountMap file = new WordCountMap();
+        Tokenizer tokenizer = this.tokenizer.newTokenizer(file);
+        int failed = 0;
+        long flushed = 0;
+        for (Path path : paths) {
+            IOException failure = null;
+            try (InputStream in = Files.newInputStream(path)) {
+                WordCountTask.tokenize(in, tokenizer);
+            } catch (IOException ex) {
+                failure = ex;
+            } catch (WordCountMap.FullException ex) {
+                failure = new IOException(ex.getMessage(), ex);
+            }
+            if (failure == null) {
+                if (!counts.fits(file)) {
+                    // the batch has too many words for one map, pass on what it has
+                    aggregator.accept(counts);
+                    flushed += counts.tokens();
+                    counts = new WordCountMap();
+                }
+                counts.addAll(file);
+                counts.addTokens(file.tokens());
+            }
+            else {
+                Metrics.INSTANCE.filesFailed.increment();
+                failures.add(new FailedToCountFile(path, failure));
+                failed++;
+                // drop the token cut by the failure and end the file, so no n-gram runs into the next
+                tokenizer.remainder();
+                tokenizer.finish();
+            }
+            file.clear();
+        }
+        Metrics.INSTANCE.bytesRead.add(tokenizer.bytes());
+        long merging = System.nanoTime();
+        aggregator.accept(counts);
+        Metrics.INSTANCE.merged(flushed + counts.tokens(), started, merging);
+        Metrics.INSTANCE.filesDone.add(paths.size() - failed);
+    }
+}
@@ -0,0 +1,212 @@
+package com.happyspace.pdchallenge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Compression formats recognised by their magic bytes.
+ */
+public enum Codec {
+    /**
+     * Plain text.
+     */
+    NONE {
+        @Override
+        public InputStream open(InputStream in) {
+            return in;
+        }
+
+        @Override
+        long[] frames(FileChannel channel) {
+            return null;
+        }
+    },
+    /**
+     * gzip, including files of several concatenated members.
+     */
+    GZIP {
+        @Override
+        public InputStream open(InputStream in) throws IOException {
+            return new GZIPInputStream(in, Tokenizer.BUFFER_SIZE);
+        }
+
+        /**
+         * Member sizes are only known without inflating when every member carries
+         * the 'BC' extra field of the BGZF format.
+         */
+        @Override
+        long[] frames(FileChannel channel) throws IOException {
+            List<Long> starts = new ArrayList<>();
+            ByteBuffer header = ByteBuffer.allocate(18).order(ByteOrder.LITTLE_ENDIAN);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                header.clear();
+                if (read(channel, header, position) < 18
+                        || header.getShort(0) != (short) 0x8B1F || (header.get(3) & 0x04) == 0
+                        || header.getShort(10) != 6 || header.get(12) != 'B' || header.get(13) != 'C') {
+                    return null;
+                }
+                starts.add(position);
+                position += (header.getShort(16) & 0xFFFF) + 1;
+            }
+            return boundaries(starts, size);
+        }
+    },
+    /**
+     * Zstandard. Needs zstd-jni on the class path.
+     */
+    ZSTD {
+        @Override
+        public InputStream open(InputStream in) throws IOException {
+            if (ZSTD_STREAM == null) {
+                throw new IOException("reading zstd needs com.github.luben:zstd-jni on the class path");
+            }
+            try {
+                return (InputStream) ZSTD_STREAM.newInstance(in);
+            } catch (InvocationTargetException ex) {
+                if (ex.getCause() instanceof IOException) {
+                    throw (IOException) ex.getCause();
+                }
+                throw new IOException(ex.getCause());
+            } catch (ReflectiveOperationException ex) {
+                throw new IOException(ex);
+            }
+        }
+
+        /**
+         * Walks frame and block headers. Every frame can be decompressed on its own.
+         */
+        @Override
+        long[] frames(FileChannel channel) throws IOException {
+            List<Long> starts = new ArrayList<>();
+            ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+            long size = channel.size();
+            long position = 0;
+            while (position < size) {
+                header.clear();
+                if (read(channel, header, position) < 8) {
+                    return null;
+                }
+                int magic = header.getInt(0);
+                if ((magic & 0xFFFFFFF0) == 0x184D2A50) {
+                    // skippable frame
+                    position += 8 + (header.getInt(4) & 0xFFFFFFFFL);
+                    continue;
+                }
+                if (magic != ZSTD_MAGIC) {
+                    return null;
+                }
+                starts.add(position);
+                int descriptor = header.get(4) & 0xFF;
+                boolean singleSegment = (descriptor & 0x20) != 0;
+                int contentSize = descriptor >>> 6;
+                position += 5 + (singleSegment ? 0 : 1) + DICTIONARY_ID_BYTES[descriptor & 0x03]
+                        + (contentSize == 0 ? (singleSegment ? 1 : 0) : 1 << contentSize);
+                boolean last = false;
+                while (!last) {
+                    header.clear();
+                    header.limit(3);
+                    if (read(channel, header, position) < 3) {
+                        return null;
+                    }
+                    int block = (header.get(0) & 0xFF) | (header.get(1) & 0xFF) << 8 | (header.get(2) & 0xFF) << 16;
+                    last = (block & 1) != 0;
+                    int type = (block >>> 1) & 0x03;
+                    position += 3 + (type == 1 ? 1 : block >>> 3);
+                }
+                if ((descriptor & 0x04) != 0) {
+                    // content checksum
+                    position += 4;
+                }
+            }
+            return position == size ? boundaries(starts, size) : null;
+        }
+    };
+
+    /**
+     * Bytes needed to recognise every codec.
+     */
+    static final int MAGIC_BYTES = 4;
+
+    private static final int ZSTD_MAGIC = 0xFD2FB528;
+    private static final int[] DICTIONARY_ID_BYTES = {0, 1, 2, 4};
+
+    /**
+     * The zstd-jni stream, looked up at run time so that the dependency is optional.
+     */
+    private static final Constructor<?> ZSTD_STREAM = zstdStream();
+
+    /**
+     * @return the codec of content starting with the given bytes.
+     */
+    public static Codec detect(byte[] bytes, int length) {
+        if (length >= 2 && bytes[0] == (byte) 0x1F && bytes[1] == (byte) 0x8B) {
+            return GZIP;
+        }
+        if (length >= 4 && bytes[0] == (byte) 0x28 && bytes[1] == (byte) 0xB5
+                && bytes[2] == (byte) 0x2F && bytes[3] == (byte) 0xFD) {
+            return ZSTD;
+        }
+        return NONE;
+    }
+
+    /**
+     * @return the codec of a file.
+     */
+    static Codec detect(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(MAGIC_BYTES);
+        int length = read(channel, head, 0);
+        return detect(head.array(), length);
+    }
+
+    /**
+     * @return a stream of the decompressed content.
+     */
+    public abstract InputStream open(InputStream in) throws IOException;
+
+    /**
+     * Find where independently decompressible frames start.
+     *
+     * @return the offset of every frame followed by the file size,
+     * or null if the file cannot be split without decompressing it.
+     */
+    abstract long[] frames(FileChannel channel) throws IOException;
+
+    private static int read(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        int total = 0;
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private static long[] boundaries(List<Long> starts, long size) {
+        long[] boundaries = new long[starts.size() + 1];
+        for (int i = 0; i < starts.size(); i++) {
+            boundaries[i] = starts.get(i);
+        }
+        boundaries[starts.size()] = size;
+        return boundaries;
+    }
+
+    private static Constructor<?> zstdStream() {
+        try {
+            return Class.forName("com.github.luben.zstd.ZstdInputStream").getConstructor(InputStream.class);
+        } catch (ClassNotFoundException | NoSuchMethodException | LinkageError ex) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,170 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts a compressed file made of independent frames, several frames at a time.
+ *
+ * The frames are grouped into ranges of about equal compressed size, one per worker, and
+ * every range is memory mapped, decompressed and counted by its own task. A token may
+ * be cut where one range ends and the next begins, so each range leaves its first and last
+ * token uncounted and they are joined in order once every range is done.
+ */
+public class CompressedCountTask extends RecursiveAction {
+
+    /**
+     * Largest range mapped at once.
+     */
+    private static final long MAX_RANGE = 1L << 30;
+
+    private final Path filePath;
+    private final Codec codec;
+    private final long[] frames;
+    private final Aggregator aggregator;
+    private final int workers;
+    private final TokenizerConfig config;
+
+    /**
+     *
+     * @param filePath A path to a file.
+     * @param codec the format of the file.
+     * @param frames the start of every frame followed by the file size, see {@link Codec#frames(FileChannel)}.
+     * @param aggregator Receives the counts.
+     * @param workers the number of ranges to aim for.
+     * @param config how words are separated.
+     */
+    public CompressedCountTask(Path filePath, Codec codec, long[] frames, Aggregator aggregator, int workers,
+                               TokenizerConfig config) {
+        this.filePath = filePath;
+        this.codec = codec;
+        this.frames = frames;
+        this.aggregator = aggregator;
+        this.workers = workers;
+        this.config = config;
+    }
+
+    @Override
+    protected void compute() {
+        long started = System.nanoTime();
+        long size = frames[frames.length - 1];
+        long target = Math.min(MAX_RANGE, Math.max(1, (size + workers - 1) / workers));
+        List<RangeTask> tasks = new ArrayList<>();
+        int first = 0;
+        for (int i = 1; i < frames.length; i++) {
+            if (i == frames.length - 1 || frames[i + 1] - frames[first] > target) {
+                tasks.add(new RangeTask(frames[first], frames[i]));
+                first = i;
+            }
+        }
+        try {
+            invokeAll(tasks);
+        } catch (FailedToCountFile ex) {
+            Metrics.INSTANCE.filesFailed.increment();
+            throw ex;
+        }
+
+        // join the tokens cut at range edges
+        WordCountMap edges = new WordCountMap();
+        Tokenizer edge = config.newTokenizer(edges);
+        ByteArrayOutputStream carry = new ByteArrayOutputStream();
+        long tokens = 0;
+        for (RangeTask task : tasks) {
+            Range range = task.join();
+            carry.write(range.lead, 0, range.lead.length);
+            if (range.whitespace) {
+                edge(edge, carry);
+                carry.write(range.trail, 0, range.trail.length);
+            }
+            aggregator.accept(range.counts);
+            tokens += range.counts.tokens();
+        }
+        edge(edge, carry);
+        long merging = System.nanoTime();
+        aggregator.accept(edges);
+        Metrics.INSTANCE.merged(tokens + edges.tokens(), started, merging);
+        Metrics.INSTANCE.filesDone.increment();
+    }
+
+    /**
+     * The joined bytes hold no whitespace but may hold other separators.
+     */
+    private static void edge(Tokenizer edge, ByteArrayOutputStream carry) {
+        if (carry.size() > 0) {
+            byte[] token = carry.toByteArray();
+            edge.feed(token, 0, token.length);
+            edge.finish();
+            carry.reset();
+        }
+    }
+
+    /**
+     * The counts of one range and the tokens at its edges.
+     */
+    private static final class Range {
+        private final WordCountMap counts;
+        private final byte[] lead;
+        private final byte[] trail;
+        private final boolean whitespace;
+
+        private Range(WordCountMap counts, byte[] lead, byte[] trail, boolean whitespace) {
+            this.counts = counts;
+            this.lead = lead;
+            this.trail = trail;
+            this.whitespace = whitespace;
+        }
+    }
+
+    private final class RangeTask extends RecursiveTask<Range> {
+        private final long start;
+        private final long end;
+
+        private RangeTask(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Range compute() {
+            try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+                ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+                WordCountMap counts = new WordCountMap();
+                Tokenizer tokenizer = config.newTokenizer(counts);
+                ByteArrayOutputStream lead = new ByteArrayOutputStream();
+                boolean whitespace = false;
+                byte[] buffer = new byte[Tokenizer.BUFFER_SIZE];
+                try (InputStream in = codec.open(new ByteBufferInputStream(mapped))) {
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        int offset = 0;
+                        if (!whitespace) {
+                            while (offset < read && !Tokenizer.isWhitespace(buffer[offset])) {
+                                offset++;
+                            }
+                            lead.write(buffer, 0, offset);
+                            whitespace = offset < read;
+                        }
+                        tokenizer.feed(buffer, offset, read - offset);
+                    }
+                }
+                Metrics.INSTANCE.bytesRead.add(tokenizer.bytes() + lead.size());
+                return new Range(counts, lead.toByteArray(), tokenizer.remainder(), whitespace);
+            } catch (IOException ex) {
+                throw new FailedToCountFile(filePath, ex);
+            } catch (WordCountMap.FullException ex) {
+                throw new FailedToCountFile(filePath, new IOException(ex.getMessage(), ex));
+            }
+        }
+    }
+}
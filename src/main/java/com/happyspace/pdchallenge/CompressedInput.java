@@ -0,0 +1,132 @@
+package com.happyspace.pdchallenge;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decompression pipelined with tokenizing.
+ *
+ * A decompressor thread inflates into a small ring of buffers while the calling
+ * thread tokenizes the buffers already filled, so neither waits for the other
+ * beyond the depth of the ring.
+ */
+public final class CompressedInput {
+
+    /**
+     * Buffers in flight between the decompressor and the tokenizer.
+     */
+    private static final int DEPTH = 4;
+
+    private static final ExecutorService DECOMPRESSORS = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger number = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pdchallenge-inflate-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * Marks the end of the decompressed content.
+     */
+    private static final Block END = new Block(new byte[0]);
+
+    private CompressedInput() {
+    }
+
+    /**
+     * Count the words of a compressed stream.
+     */
+    static WordCountMap countWords(Codec codec, InputStream in, TokenizerConfig config) throws IOException {
+        WordCountMap counter = new WordCountMap();
+        Tokenizer tokenizer = config.newTokenizer(counter);
+        tokenize(codec, in, tokenizer);
+        tokenizer.finish();
+        Metrics.INSTANCE.bytesRead.add(tokenizer.bytes());
+        return counter;
+    }
+
+    /**
+     * Decompress a stream on a separate thread and feed the content to 'tokenizer'
+     * on this one. The stream is closed. The tokenizer is not finished.
+     */
+    static void tokenize(final Codec codec, final InputStream in, Tokenizer tokenizer) throws IOException {
+        final BlockingQueue<Block> free = new ArrayBlockingQueue<>(DEPTH);
+        final BlockingQueue<Block> full = new ArrayBlockingQueue<>(DEPTH + 1);
+        for (int i = 0; i < DEPTH; i++) {
+            free.add(new Block(new byte[Tokenizer.BUFFER_SIZE]));
+        }
+        Future<Void> decompressor = DECOMPRESSORS.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws IOException, InterruptedException {
+                try (InputStream decompressed = codec.open(in)) {
+                    while (true) {
+                        Block block = free.take();
+                        block.length = fill(decompressed, block.bytes);
+                        if (block.length == 0) {
+                            return null;
+                        }
+                        full.put(block);
+                    }
+                } finally {
+                    full.put(END);
+                }
+            }
+        });
+        try {
+            Block block;
+            while ((block = full.take()) != END) {
+                tokenizer.feed(block.bytes, 0, block.length);
+                free.put(block);
+            }
+            decompressor.get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            if (ex.getCause() instanceof IOException) {
+                throw (IOException) ex.getCause();
+            }
+            throw new IOException(ex.getCause());
+        } finally {
+            decompressor.cancel(true);
+        }
+    }
+
+    /**
+     * Read until the buffer is full or the stream ends.
+     *
+     * @return the number of bytes read, zero at the end of the stream.
+     */
+    private static int fill(InputStream in, byte[] buffer) throws IOException {
+        int length = 0;
+        while (length < buffer.length) {
+            int read = in.read(buffer, length, buffer.length - length);
+            if (read < 0) {
+                break;
+            }
+            length += read;
+        }
+        return length;
+    }
+
+    private static final class Block {
+        private final byte[] bytes;
+        private int length;
+
+        private Block(byte[] bytes) {
+            this.bytes = bytes;
+        }
+    }
+}
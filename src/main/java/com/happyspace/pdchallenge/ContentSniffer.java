@@ -0,0 +1,236 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.Immutable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Decides from the first few KB of a file whether it is text and how it is encoded,
+ * before any of it is tokenized.
+ *
+ * A byte order mark selects UTF-8 or UTF-16. Without one, a sample with NUL bytes on
+ * alternate positions is UTF-16 and any other NUL marks a binary file, as does a sample
+ * where more than one byte in ten is a control character. Text that is not valid UTF-8
+ * is read as ISO-8859-1, which maps every byte to a character.
+ *
+ * UTF-8 is tokenized on its raw bytes. Other encodings are decoded leniently, malformed
+ * input becomes U+FFFD, and re-encoded as UTF-8 for the tokenizer.
+ */
+public final class ContentSniffer {
+
+    /**
+     * How many bytes are examined.
+     */
+    public static final int SAMPLE_BYTES = 4096;
+
+    /**
+     * The outcome of sniffing a sample.
+     */
+    @Immutable
+    public static final class Content {
+        /**
+         * The encoding, null for a binary file.
+         */
+        public final Charset charset;
+
+        /**
+         * Length of the byte order mark to skip.
+         */
+        public final int bomLength;
+
+        Content(Charset charset, int bomLength) {
+            this.charset = charset;
+            this.bomLength = bomLength;
+        }
+
+        /**
+         * @return true if the file is not text and should not be counted.
+         */
+        public boolean isBinary() {
+            return charset == null;
+        }
+
+        /**
+         * @return true if the bytes after the byte order mark can be tokenized as they are.
+         */
+        public boolean isUtf8() {
+            return charset == StandardCharsets.UTF_8;
+        }
+    }
+
+    static final Content UTF_8 = new Content(StandardCharsets.UTF_8, 0);
+    static final Content BINARY = new Content(null, 0);
+
+    private static final Content UTF_8_BOM = new Content(StandardCharsets.UTF_8, 3);
+    private static final Content UTF_16BE_BOM = new Content(StandardCharsets.UTF_16BE, 2);
+    private static final Content UTF_16LE_BOM = new Content(StandardCharsets.UTF_16LE, 2);
+    private static final Content UTF_16BE = new Content(StandardCharsets.UTF_16BE, 0);
+    private static final Content UTF_16LE = new Content(StandardCharsets.UTF_16LE, 0);
+    private static final Content LATIN_1 = new Content(StandardCharsets.ISO_8859_1, 0);
+
+    private static final boolean[] CONTROL = new boolean[256];
+
+    static {
+        for (int c = 0; c < 0x20; c++) {
+            CONTROL[c] = true;
+        }
+        CONTROL['\t'] = false;
+        CONTROL['\n'] = false;
+        CONTROL[0x0B] = false;
+        CONTROL['\f'] = false;
+        CONTROL['\r'] = false;
+        // escape sequences colour terminal logs
+        CONTROL[0x1B] = false;
+        CONTROL[0x7F] = true;
+    }
+
+    private ContentSniffer() {
+    }
+
+    /**
+     * @param bytes the start of a file.
+     * @param offset where the file starts.
+     * @param length how many bytes are valid, at most {@link #SAMPLE_BYTES} are examined.
+     * @return how to read the file.
+     */
+    public static Content sniff(byte[] bytes, int offset, int length) {
+        int end = offset + Math.min(length, SAMPLE_BYTES);
+        int sample = end - offset;
+        if (sample >= 3 && (bytes[offset] & 0xFF) == 0xEF && (bytes[offset + 1] & 0xFF) == 0xBB
+                && (bytes[offset + 2] & 0xFF) == 0xBF) {
+            return UTF_8_BOM;
+        }
+        if (sample >= 2 && (bytes[offset] & 0xFF) == 0xFE && (bytes[offset + 1] & 0xFF) == 0xFF) {
+            return UTF_16BE_BOM;
+        }
+        if (sample >= 2 && (bytes[offset] & 0xFF) == 0xFF && (bytes[offset + 1] & 0xFF) == 0xFE) {
+            return UTF_16LE_BOM;
+        }
+        int evenNuls = 0;
+        int oddNuls = 0;
+        int controls = 0;
+        for (int i = offset; i < end; i++) {
+            int b = bytes[i] & 0xFF;
+            if (b == 0) {
+                if (((i - offset) & 1) == 0) {
+                    evenNuls++;
+                }
+                else {
+                    oddNuls++;
+                }
+            }
+            else if (CONTROL[b]) {
+                controls++;
+            }
+        }
+        if (evenNuls + oddNuls > 0) {
+            // mostly ASCII text in UTF-16 has a NUL in every other byte
+            int pairs = sample / 2;
+            if (evenNuls == 0 && oddNuls * 2 > pairs) {
+                return UTF_16LE;
+            }
+            if (oddNuls == 0 && evenNuls * 2 > pairs) {
+                return UTF_16BE;
+            }
+            return BINARY;
+        }
+        if (controls * 10 > sample) {
+            return BINARY;
+        }
+        return validUtf8(bytes, offset, end) ? UTF_8 : LATIN_1;
+    }
+
+    /**
+     * Sniff the start of a file without moving the channel's position.
+     *
+     * @return how to read the file.
+     */
+    public static Content sniff(FileChannel channel) throws IOException {
+        ByteBuffer sample = ByteBuffer.allocate(SAMPLE_BYTES);
+        while (sample.hasRemaining() && channel.read(sample, sample.position()) > 0) {
+            // the sample is read from the start of the file
+        }
+        return sniff(sample.array(), 0, sample.position());
+    }
+
+    /**
+     * @return true if the bytes are UTF-8, allowing a sequence cut by the end of the sample.
+     */
+    static boolean validUtf8(byte[] bytes, int offset, int end) {
+        int i = offset;
+        while (i < end) {
+            int b = bytes[i] & 0xFF;
+            int continuation;
+            if (b < 0x80) {
+                i++;
+                continue;
+            }
+            else if (b >= 0xC2 && b <= 0xDF) {
+                continuation = 1;
+            }
+            else if (b >= 0xE0 && b <= 0xEF) {
+                continuation = 2;
+            }
+            else if (b >= 0xF0 && b <= 0xF4) {
+                continuation = 3;
+            }
+            else {
+                return false;
+            }
+            for (int j = 1; j <= continuation; j++) {
+                if (i + j >= end) {
+                    return true;
+                }
+                if ((bytes[i + j] & 0xC0) != 0x80) {
+                    return false;
+                }
+            }
+            i += continuation + 1;
+        }
+        return true;
+    }
+
+    /**
+     * Decode a stream leniently and feed it to a tokenizer as UTF-8.
+     * The last token is emitted. The stream is not closed.
+     *
+     * @param in the content, after any byte order mark.
+     * @param charset the encoding of the content.
+     * @param tokenizer receives the content re-encoded as UTF-8.
+     */
+    static void transcode(InputStream in, Charset charset, Tokenizer tokenizer) throws IOException {
+        Reader reader = new InputStreamReader(in, charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE));
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        CharBuffer chars = CharBuffer.allocate(Tokenizer.BUFFER_SIZE / 4);
+        byte[] bytes = new byte[Tokenizer.BUFFER_SIZE];
+        ByteBuffer out = ByteBuffer.wrap(bytes);
+        boolean done = false;
+        while (!done) {
+            done = reader.read(chars) == -1;
+            chars.flip();
+            // a high surrogate at the end of the buffer waits for its pair
+            encoder.encode(chars, out, done);
+            if (done) {
+                encoder.flush(out);
+            }
+            tokenizer.feed(bytes, 0, out.position());
+            out.clear();
+            chars.compact();
+        }
+        tokenizer.finish();
+    }
+}
@@ -0,0 +1,160 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Shards a file list across {@link CountWorker}s and reduces their counts.
+ *
+ * The list is cut into batches that every worker takes from one queue, so a faster
+ * worker takes more of them. The counts of each batch are streamed back as soon as it
+ * is done and passed to the aggregator, with the files of the batch that could not be read.
+ * A batch held by a worker that fails is put back in the queue for the others.
+ */
+@ThreadSafe
+public class Coordinator {
+
+    private final List<InetSocketAddress> workers;
+    private final int batchSize;
+    private final TokenizerConfig tokenizer;
+
+    /**
+     *
+     * @param workers the address of every worker.
+     * @param batchSize files per batch.
+     */
+    public Coordinator(List<InetSocketAddress> workers, int batchSize) {
+        this(workers, batchSize, TokenizerConfig.DEFAULT);
+    }
+
+    /**
+     *
+     * @param workers the address of every worker.
+     * @param batchSize files per batch.
+     * @param tokenizer how the workers split words.
+     */
+    public Coordinator(List<InetSocketAddress> workers, int batchSize, TokenizerConfig tokenizer) {
+        this.workers = workers;
+        this.batchSize = Math.max(1, batchSize);
+        this.tokenizer = tokenizer;
+    }
+
+    /**
+     * Count every file on the workers.
+     *
+     * @param failed receives the files that cannot be read, which are missing from the counts.
+     * @throws IOException if a worker fails to count a batch, or no worker is left.
+     */
+    public void count(List<Path> files, final Aggregator aggregator, final Queue<FailedToCountFile> failed)
+            throws IOException, InterruptedException {
+        final Queue<List<Path>> batches = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < files.size(); i += batchSize) {
+            batches.add(new ArrayList<>(files.subList(i, Math.min(files.size(), i + batchSize))));
+        }
+        final List<String> failures = new ArrayList<>();
+        List<InetSocketAddress> alive = new ArrayList<>(workers);
+        // a batch requeued after the other workers have drained the queue needs another round
+        while (!batches.isEmpty() && !alive.isEmpty()) {
+            final List<InetSocketAddress> lost = new ArrayList<>();
+            final CountDownLatch done = new CountDownLatch(alive.size());
+            for (final InetSocketAddress worker : alive) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            drain(worker, batches, aggregator, failures, failed);
+                        } catch (IOException ex) {
+                            synchronized (lost) {
+                                lost.add(worker);
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    }
+                }, "pdchallenge-coordinator-" + worker);
+                thread.setDaemon(true);
+                thread.start();
+            }
+            done.await();
+            synchronized (failures) {
+                if (!failures.isEmpty()) {
+                    throw new IOException("worker failed to count " + failures.get(0));
+                }
+            }
+            alive.removeAll(lost);
+        }
+        if (!batches.isEmpty()) {
+            throw new IOException("no worker left to count " + batches.size() + " batches");
+        }
+    }
+
+    /**
+     * Send batches to one worker until the queue is empty.
+     */
+    private void drain(InetSocketAddress worker, Queue<List<Path>> batches, Aggregator aggregator,
+                       List<String> failures, Queue<FailedToCountFile> failed) throws IOException {
+        try (Socket socket = new Socket()) {
+            socket.connect(worker);
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            out.writeInt(CountWorker.MAGIC);
+            out.writeInt(CountWorker.VERSION);
+            tokenizer.writeTo(out);
+            out.flush();
+            if (in.readInt() != CountWorker.MAGIC) {
+                throw new IOException("not a worker: " + worker);
+            }
+
+            List<Path> batch;
+            while ((batch = batches.poll()) != null) {
+                long started = System.nanoTime();
+                try {
+                    Varint.write(out, batch.size());
+                    for (Path path : batch) {
+                        CountWorker.writeString(out, path.toAbsolutePath().toString());
+                    }
+                    out.flush();
+                    if (in.readByte() != CountWorker.OK) {
+                        synchronized (failures) {
+                            failures.add(CountWorker.readString(in));
+                        }
+                        batches.clear();
+                        return;
+                    }
+                    WordCountMap counts = WordCountMap.readFrom(in);
+                    int unread = (int) Varint.read(in);
+                    for (int i = 0; i < unread; i++) {
+                        Path path = Paths.get(CountWorker.readString(in));
+                        failed.add(new FailedToCountFile(path, new IOException(CountWorker.readString(in))));
+                    }
+                    long merging = System.nanoTime();
+                    aggregator.accept(counts);
+                    Metrics.INSTANCE.merged(counts.tokens(), started, merging);
+                    Metrics.INSTANCE.filesDone.add(batch.size() - unread);
+                    Metrics.INSTANCE.filesFailed.add(unread);
+                } catch (IOException ex) {
+                    batches.add(batch);
+                    throw ex;
+                }
+            }
+            Varint.write(out, 0);
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,433 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * A file of (word, count) entries in ascending word order, the full or partial result of a run.
+ * Files from runs over different files, times or machines are combined by {@link #merge}
+ * in one streaming pass.
+ *
+ * Layout, version 1:
+ *      magic    "PDCF"
+ *      version  one byte
+ *      flags    one byte, bit 0 set when words are prefix compressed
+ *      entries  eight bytes, big endian
+ *      then per entry, in ascending order of the words' UTF-8 bytes:
+ *          varint bytes shared with the previous word, only when prefix compressed
+ *          varint length of the rest of the word, then those bytes
+ *          varint count
+ *
+ * UTF-8 byte order is code point order, not the UTF-16 order of {@link String#compareTo}.
+ * Files are read and written through windows of memory mapped file, so no stream buffers
+ * are copied.
+ */
+public final class CountFile {
+
+    static final int MAGIC = 0x50444346;
+    static final byte VERSION = 1;
+    static final int FLAG_PREFIX = 1;
+    static final int HEADER_BYTES = 14;
+
+    /**
+     * Size of each mapped window.
+     */
+    private static final int WINDOW = 64 * 1024 * 1024;
+
+    /**
+     * Room for the varints around a word.
+     */
+    private static final int ENTRY_OVERHEAD = 30;
+
+    /**
+     * Entries passed to an aggregator at a time by {@link #load(Path, Aggregator)}.
+     */
+    private static final int LOAD_BATCH = 1 << 16;
+
+    private CountFile() {
+    }
+
+    /**
+     * Compare words by their unsigned bytes.
+     */
+    static int compare(byte[] a, int aLength, byte[] b, int bLength) {
+        int n = Math.min(aLength, bLength);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i]) {
+                return (a[i] & 0xFF) - (b[i] & 0xFF);
+            }
+        }
+        return aLength - bLength;
+    }
+
+    /**
+     * Merge count files into one, adding the counts of equal words. Words are compared as
+     * bytes and only decoded if they may enter the top N.
+     *
+     * @param inputs the files to merge.
+     * @param output the merged file, replaced once the merge succeeds. It may be one of the inputs.
+     * @param prefixCompressed whether the merged file is prefix compressed.
+     * @param topN how many of the most frequent words to return.
+     * @return the most frequent words of the merged file.
+     */
+    public static List<Map.Entry<String, Long>> merge(List<Path> inputs, Path output, boolean prefixCompressed,
+                                                     int topN) throws IOException {
+        TopN selector = new TopN(topN);
+        merge(inputs, Collections.<Path>emptyList(), output, prefixCompressed, selector);
+        return selector.result();
+    }
+
+    /**
+     * Merge count files into one, taking away the counts of others. Words whose count falls
+     * to zero are left out. The output is prefix compressed.
+     *
+     * @param added files whose counts are added.
+     * @param subtracted files whose counts are taken away, each a part of the added counts.
+     * @param output the merged file, replaced once the merge succeeds. It may be one of the inputs.
+     */
+    static void patch(List<Path> added, List<Path> subtracted, Path output) throws IOException {
+        merge(added, subtracted, output, true, null);
+    }
+
+    /**
+     * Pass every entry of a count file to an aggregator, a bounded map at a time.
+     */
+    static void load(Path input, Aggregator aggregator) throws IOException {
+        try (Reader reader = new Reader(input)) {
+            WordCountMap counts = new WordCountMap();
+            while (reader.next()) {
+                counts.add(reader.word, 0, reader.length, reader.count);
+                if (counts.size() == LOAD_BATCH) {
+                    aggregator.accept(counts);
+                    counts = new WordCountMap();
+                }
+            }
+            if (counts.size() > 0) {
+                aggregator.accept(counts);
+            }
+        }
+    }
+
+    /**
+     * @param selector receives every merged word, or null.
+     */
+    private static void merge(List<Path> added, List<Path> subtracted, Path output, boolean prefixCompressed,
+                              TopN selector) throws IOException {
+        List<Path> inputs = new ArrayList<>(added);
+        inputs.addAll(subtracted);
+        List<Reader> readers = new ArrayList<>();
+        PriorityQueue<Reader> heads = new PriorityQueue<>(Math.max(1, inputs.size()), new Comparator<Reader>() {
+            @Override
+            public int compare(Reader o1, Reader o2) {
+                return CountFile.compare(o1.word, o1.length, o2.word, o2.length);
+            }
+        });
+        Path temporary = temporary(output);
+        try {
+            try (Writer writer = new Writer(temporary, prefixCompressed)) {
+                for (Path input : inputs) {
+                    Reader reader = new Reader(input);
+                    readers.add(reader);
+                    reader.subtracted = readers.size() > added.size();
+                    if (reader.next()) {
+                        heads.add(reader);
+                    }
+                }
+                byte[] word = new byte[64];
+                while (!heads.isEmpty()) {
+                    Reader reader = heads.poll();
+                    if (word.length < reader.length) {
+                        word = new byte[Math.max(reader.length, word.length * 2)];
+                    }
+                    int length = reader.length;
+                    System.arraycopy(reader.word, 0, word, 0, length);
+                    long count = reader.signedCount();
+                    if (reader.next()) {
+                        heads.add(reader);
+                    }
+                    // equal words from other files are at the head of the queue
+                    while (!heads.isEmpty() && compare(heads.peek().word, heads.peek().length, word, length) == 0) {
+                        Reader same = heads.poll();
+                        count += same.signedCount();
+                        if (same.next()) {
+                            heads.add(same);
+                        }
+                    }
+                    if (count <= 0) {
+                        continue;
+                    }
+                    writer.add(word, 0, length, count);
+                    if (selector != null && selector.accepts(count)) {
+                        selector.offer(new String(word, 0, length, StandardCharsets.UTF_8), count);
+                    }
+                }
+            } finally {
+                for (Reader reader : readers) {
+                    reader.close();
+                }
+            }
+            replace(temporary, output);
+        } finally {
+            // gone once moved, left only by a failed merge
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * @return a new empty file next to the output, to be written and then moved over it
+     *         by {@link #replace(Path, Path)}, so a failed write leaves the output as it was.
+     */
+    static Path temporary(Path output) throws IOException {
+        Path target = target(output);
+        return Files.createTempFile(target.getParent(), "." + target.getFileName(), ".tmp");
+    }
+
+    /**
+     * Move a complete file written to {@link #temporary(Path)} over the output in one step.
+     */
+    static void replace(Path temporary, Path output) throws IOException {
+        Files.move(temporary, target(output), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return the file a link to the output points at, so the link is kept and its file replaced.
+     */
+    private static Path target(Path output) throws IOException {
+        return Files.exists(output) ? output.toRealPath() : output.toAbsolutePath();
+    }
+
+    /**
+     * Writes a count file. Words must be added in strictly ascending byte order.
+     */
+    @NotThreadSafe
+    public static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final boolean prefixCompressed;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long entries;
+        private byte[] previous = new byte[64];
+        private int previousLength = -1;
+
+        /**
+         *
+         * @param path the file to write, replaced if it exists.
+         * @param prefixCompressed store only the bytes of each word not shared with the previous word.
+         */
+        public Writer(Path path, boolean prefixCompressed) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            this.prefixCompressed = prefixCompressed;
+            this.window = channel.map(FileChannel.MapMode.READ_WRITE, 0, WINDOW);
+            window.position(HEADER_BYTES);
+        }
+
+        /**
+         * Append an entry.
+         *
+         * @throws IllegalArgumentException if the word does not follow the previous word.
+         */
+        public void add(byte[] word, int offset, int length, long count) throws IOException {
+            int shared = 0;
+            if (previousLength >= 0) {
+                int n = Math.min(previousLength, length);
+                while (shared < n && previous[shared] == word[offset + shared]) {
+                    shared++;
+                }
+                if (shared == length || (shared < previousLength
+                        && (previous[shared] & 0xFF) > (word[offset + shared] & 0xFF))) {
+                    throw new IllegalArgumentException("words must be added in ascending order");
+                }
+            }
+            int skip = prefixCompressed ? shared : 0;
+            ensure(length - skip + ENTRY_OVERHEAD);
+            if (prefixCompressed) {
+                Varint.write(window, shared);
+            }
+            Varint.write(window, length - skip);
+            window.put(word, offset + skip, length - skip);
+            Varint.write(window, count);
+            entries++;
+
+            if (previous.length < length) {
+                previous = Arrays.copyOf(previous, Math.max(length, previous.length * 2));
+            }
+            System.arraycopy(word, offset + shared, previous, shared, length - shared);
+            previousLength = length;
+        }
+
+        /**
+         * Append an entry.
+         */
+        public void add(String word, long count) throws IOException {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            add(bytes, 0, bytes.length, count);
+        }
+
+        /**
+         * @return the number of entries written.
+         */
+        public long entries() {
+            return entries;
+        }
+
+        /**
+         * Write the header and trim the file to its entries.
+         */
+        @Override
+        public void close() throws IOException {
+            try {
+                long end = windowStart + window.position();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+                header.putInt(MAGIC).put(VERSION).put((byte) (prefixCompressed ? FLAG_PREFIX : 0)).putLong(entries);
+                header.flip();
+                channel.write(header, 0);
+                window.force();
+                window = null;
+                channel.truncate(end);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void ensure(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                windowStart += window.position();
+                window.force();
+                window = channel.map(FileChannel.MapMode.READ_WRITE, windowStart, Math.max(WINDOW, bytes));
+            }
+        }
+    }
+
+    /**
+     * Reads a count file entry by entry. The current word is held as bytes,
+     * valid until the next call to {@link #next()}.
+     */
+    @NotThreadSafe
+    public static final class Reader implements Closeable {
+        private final FileChannel channel;
+        private final long size;
+        private final boolean prefixCompressed;
+        private final long entries;
+        private MappedByteBuffer window;
+        private long windowStart;
+        private long read;
+
+        byte[] word = new byte[64];
+        int length;
+        long count;
+
+        /**
+         * Set by {@link #patch} when the counts of this file are taken away.
+         */
+        private boolean subtracted;
+
+        /**
+         *
+         * @param path a count file.
+         * @throws IOException if the file is not a count file of a known version.
+         */
+        public Reader(Path path) throws IOException {
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                this.size = channel.size();
+                this.window = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, WINDOW));
+                if (size < HEADER_BYTES || window.getInt() != MAGIC) {
+                    throw new IOException("not a count file: " + path);
+                }
+                byte version = window.get();
+                if (version != VERSION) {
+                    throw new IOException("unsupported count file version " + version + ": " + path);
+                }
+                this.prefixCompressed = (window.get() & FLAG_PREFIX) != 0;
+                this.entries = window.getLong();
+            } catch (IOException ex) {
+                channel.close();
+                throw ex;
+            }
+        }
+
+        /**
+         * @return the number of entries in the file.
+         */
+        public long entries() {
+            return entries;
+        }
+
+        /**
+         * Advance to the next entry.
+         *
+         * @return false when there are no more entries.
+         */
+        public boolean next() throws IOException {
+            if (read == entries) {
+                return false;
+            }
+            ensure(ENTRY_OVERHEAD);
+            int shared = prefixCompressed ? (int) Varint.read(window) : 0;
+            int rest = (int) Varint.read(window);
+            ensure(rest + ENTRY_OVERHEAD);
+            if (shared > length) {
+                throw new IOException("malformed count file");
+            }
+            if (word.length < shared + rest) {
+                word = Arrays.copyOf(word, Math.max(shared + rest, word.length * 2));
+            }
+            window.get(word, shared, rest);
+            length = shared + rest;
+            count = Varint.read(window);
+            read++;
+            return true;
+        }
+
+        /**
+         * @return the current word.
+         */
+        public String word() {
+            return new String(word, 0, length, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the count of the current word.
+         */
+        public long count() {
+            return count;
+        }
+
+        private long signedCount() {
+            return subtracted ? -count : count;
+        }
+
+        @Override
+        public void close() throws IOException {
+            window = null;
+            channel.close();
+        }
+
+        private void ensure(int bytes) throws IOException {
+            long position = windowStart + window.position();
+            if (window.remaining() < bytes && position + window.remaining() < size) {
+                windowStart = position;
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart,
+                        Math.min(size - windowStart, Math.max(WINDOW, bytes)));
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.Immutable;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The outcome of one {@link WordCounter} call.
+ */
+@Immutable
+public final class CountResult {
+
+    private final List<WordCount> top;
+    private final long distinctWords;
+    private final long errorBound;
+    private final List<Path> failedFiles;
+
+    CountResult(List<Map.Entry<String, Long>> entries, long distinctWords, long errorBound) {
+        this(entries, distinctWords, errorBound, Collections.<Path>emptyList());
+    }
+
+    CountResult(List<Map.Entry<String, Long>> entries, long distinctWords, long errorBound, List<Path> failedFiles) {
+        List<WordCount> top = new ArrayList<>(entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            top.add(new WordCount(entry.getKey(), entry.getValue()));
+        }
+        this.top = Collections.unmodifiableList(top);
+        this.distinctWords = distinctWords;
+        this.errorBound = errorBound;
+        this.failedFiles = Collections.unmodifiableList(new ArrayList<>(failedFiles));
+    }
+
+    /**
+     * @return the most frequent words in descending order of count, then ascending word.
+     */
+    public List<WordCount> top() {
+        return top;
+    }
+
+    /**
+     * @return the number of distinct words, or -1 if the engine does not know it.
+     */
+    public long distinctWords() {
+        return distinctWords;
+    }
+
+    /**
+     * @return the most a reported count can exceed the true count, zero for exact engines.
+     */
+    public long errorBound() {
+        return errorBound;
+    }
+
+    /**
+     * @return files that could not be read and are missing from the counts.
+     */
+    public List<Path> failedFiles() {
+        return failedFiles;
+    }
+}
@@ -0,0 +1,42 @@
+package com.happyspace.pdchallenge;
+
+/**
+ * A table of word counts addressed by dense ids, as read by the aggregators.
+ */
+public interface CountTable {
+
+    /**
+     * Add one entry of a per-file map to this table.
+     */
+    void addEntry(WordCountMap other, int id);
+
+    /**
+     * @return the number of distinct words.
+     */
+    int size();
+
+    /**
+     * @return the count of the word with the given id.
+     */
+    long count(int id);
+
+    /**
+     * @return the word with the given id.
+     */
+    String word(int id);
+
+    /**
+     * @return the length in bytes of the word with the given id.
+     */
+    int length(int id);
+
+    /**
+     * Copy the UTF-8 bytes of a word to the start of an array of at least {@link #length(int)} bytes.
+     */
+    void copyWord(int id, byte[] into);
+
+    /**
+     * Compare two words by their unsigned bytes, which is the order of their code points.
+     */
+    int compareWords(int id1, int id2);
+}
@@ -0,0 +1,222 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts batches of files for a {@link Coordinator} over a socket.
+ *
+ * After a handshake, which carries the coordinator's {@link TokenizerConfig}, the coordinator
+ * sends batches of paths, each a varint count followed by varint length prefixed UTF-8 paths,
+ * and a count of zero to finish. Each batch is counted with that configuration by a
+ * {@link FileProcessor} and answered with a status byte followed by either the
+ * batch's counts in the {@link WordCountMap#writeTo(java.io.DataOutput)} format and the files
+ * that could not be read, as a varint count of (path, message) pairs, or an error message.
+ * Files that could not be read are missing from the counts. Paths must name the same files
+ * on the worker as on the coordinator.
+ *
+ * A worker only reads files under its roots, after following links; any other path in a batch
+ * is reported as a file that could not be read. It listens on the loopback interface unless
+ * given another address, and counts every batch on one pool that lives as long as the worker.
+ */
+@ThreadSafe
+public class CountWorker implements Closeable {
+
+    static final int MAGIC = 0x50444357; // PDCW
+    static final int VERSION = 3;
+    static final byte OK = 0;
+    static final byte FAILED = 1;
+    static final int MAX_STRING = 32 * 1024; // bytes, above the longest path of any platform
+
+    private final ServerSocket server;
+    private final int workers;
+    private final long chunkThreshold;
+    private final List<Path> roots = new ArrayList<>();
+    private final ForkJoinPool pool;
+    private final ExecutorService connections = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger number = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pdchallenge-worker-" + number.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     *
+     * @param address the address to listen on, see {@link InetAddress#getLoopbackAddress()}.
+     * @param port the port to listen on, zero for any free port.
+     * @param workers the number of threads counting batches.
+     * @param chunkThreshold size in bytes above which a file is split into chunks.
+     * @param roots the directories whose files may be read. Each must exist.
+     */
+    public CountWorker(InetAddress address, int port, int workers, long chunkThreshold, List<Path> roots)
+            throws IOException {
+        for (Path root : roots) {
+            this.roots.add(root.toRealPath());
+        }
+        this.server = new ServerSocket();
+        this.server.setReuseAddress(true);
+        this.server.bind(new InetSocketAddress(address, port));
+        this.workers = workers;
+        this.chunkThreshold = chunkThreshold;
+        this.pool = new ForkJoinPool(workers);
+    }
+
+    /**
+     * @return the port listened on.
+     */
+    public int port() {
+        return server.getLocalPort();
+    }
+
+    /**
+     * Accept coordinators until closed. Each connection is served on its own thread.
+     */
+    public void serve() throws IOException {
+        while (!server.isClosed()) {
+            final Socket socket;
+            try {
+                socket = server.accept();
+            } catch (IOException ex) {
+                if (server.isClosed()) {
+                    return;
+                }
+                throw ex;
+            }
+            connections.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try (Socket connection = socket) {
+                        handle(connection);
+                    } catch (IOException ex) {
+                        // the coordinator went away, it requeues the batch
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        server.close();
+        connections.shutdownNow();
+        pool.shutdownNow();
+    }
+
+    private void handle(Socket socket) throws IOException {
+        socket.setTcpNoDelay(true);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+            throw new IOException("not a coordinator");
+        }
+        TokenizerConfig tokenizer = TokenizerConfig.readFrom(in);
+        out.writeInt(MAGIC);
+        out.flush();
+
+        int files;
+        while ((files = (int) Varint.read(in)) > 0) {
+            List<FailedToCountFile> failures = new ArrayList<>();
+            ExactAggregator counts = new ExactAggregator();
+            FileProcessor processor = new FileProcessor(workers, new ArrayList<Path>(), 0, 0,
+                    new FileProcessor.Options().aggregator(counts).chunkThreshold(chunkThreshold)
+                            .tokenizer(tokenizer).pool(pool));
+            for (int i = 0; i < files; i++) {
+                Path path = Paths.get(readString(in));
+                try {
+                    checkRoot(path);
+                    processor.paths.add(path);
+                } catch (IOException ex) {
+                    failures.add(new FailedToCountFile(path, ex));
+                }
+            }
+            try {
+                processor.process();
+            } catch (ExecutionException ex) {
+                out.writeByte(FAILED);
+                writeString(out, String.valueOf(ex.getCause()));
+                out.flush();
+                continue;
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+            out.writeByte(OK);
+            counts.writeTo(out);
+            failures.addAll(processor.failures());
+            Varint.write(out, failures.size());
+            for (FailedToCountFile failure : failures) {
+                writeString(out, failure.getPath().toString());
+                writeString(out, String.valueOf(failure.getCause()));
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * @throws IOException if the file does not exist or is not under a root.
+     */
+    private void checkRoot(Path path) throws IOException {
+        Path real = path.toRealPath();
+        for (Path root : roots) {
+            if (real.startsWith(root)) {
+                return;
+            }
+        }
+        throw new IOException("not under a root of this worker");
+    }
+
+    /**
+     * Write a string as varint length and UTF-8 bytes. A string longer than {@link #MAX_STRING}
+     * bytes, which can only be a message, is cut so that the peer accepts it.
+     */
+    static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value.length() > MAX_STRING / 3) {
+            // a char takes at most three UTF-8 bytes
+            value = value.substring(0, MAX_STRING / 3);
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        Varint.write(out, bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Read a string written by {@link #writeString(DataOutputStream, String)}.
+     *
+     * @throws IOException if the length is negative or above {@link #MAX_STRING}.
+     */
+    static String readString(DataInputStream in) throws IOException {
+        long length = Varint.read(in);
+        if (length < 0 || length > MAX_STRING) {
+            throw new IOException("string length out of range: " + length);
+        }
+        byte[] bytes = new byte[(int) length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,166 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Walks directory trees in parallel and passes the files that pass a {@link WalkOptions}
+ * filter to a visitor.
+ *
+ * Each directory is a fork/join task that forks a task per entry, so directories are listed
+ * and entries are read concurrently, and only one directory listing is held per task.
+ * Excluded directories are never listed. Every file and directory is identified by its
+ * file key, so a file reached through several links or start paths is visited once and a
+ * link loop ends at the first directory seen twice.
+ *
+ * A scanner remembers what it has visited for its lifetime; use one per run.
+ */
+@ThreadSafe
+public class DirectoryScanner {
+
+    /**
+     * Receives every accepted file, on the thread of the task that found it.
+     */
+    public interface Visitor {
+        void file(Path file, BasicFileAttributes attrs);
+    }
+
+    /**
+     * Thrown inside the task tree when a path cannot be walked.
+     */
+    static class ScanFailure extends RuntimeException {
+        ScanFailure(IOException cause) {
+            super(cause);
+        }
+    }
+
+    private static final LinkOption[] NO_FOLLOW = {LinkOption.NOFOLLOW_LINKS};
+    private static final LinkOption[] FOLLOW = {};
+
+    private final WalkOptions options;
+    private final int maxDepth;
+    private final Set<Object> seen = Collections.newSetFromMap(new ConcurrentHashMap<Object, Boolean>());
+
+    /**
+     *
+     * @param options which files are visited.
+     * @param maxDepth traversal limit for directories, the start path is at depth zero.
+     */
+    public DirectoryScanner(WalkOptions options, int maxDepth) {
+        this.options = options;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * @param start a file or directory.
+     * @param visitor receives the accepted files.
+     * @return a task that walks the start path, failing with a {@link ScanFailure} if it cannot be walked.
+     */
+    public ForkJoinTask<Void> scan(Path start, Visitor visitor) {
+        return new ScanTask(start, start, 0, visitor);
+    }
+
+    /**
+     * @return true if the exception, or its cause, is a failure to walk.
+     */
+    static boolean isScanFailure(Throwable t) {
+        return t instanceof ScanFailure || (t != null && t.getCause() instanceof ScanFailure);
+    }
+
+    /**
+     * @return true the first time the file or directory is seen.
+     */
+    private boolean firstVisit(Path path, BasicFileAttributes attrs) throws IOException {
+        Object key = attrs.fileKey();
+        return seen.add(key != null ? key : path.toRealPath());
+    }
+
+    private class ScanTask extends RecursiveAction {
+        private final Path root;
+        private final Path path;
+        private final int depth;
+        private final Visitor visitor;
+
+        ScanTask(Path root, Path path, int depth, Visitor visitor) {
+            this.root = root;
+            this.path = path;
+            this.depth = depth;
+            this.visitor = visitor;
+        }
+
+        @Override
+        protected void compute() {
+            BasicFileAttributes attrs;
+            try {
+                attrs = attributes();
+                if (attrs == null || !(attrs.isDirectory() || attrs.isRegularFile()) || !firstVisit(path, attrs)) {
+                    return;
+                }
+            } catch (IOException ex) {
+                Metrics.INSTANCE.walkErrors.increment();
+                throw new ScanFailure(ex);
+            }
+            // a start path is matched by its own name
+            Path relative = depth == 0 ? path.getFileName() : root.relativize(path);
+            if (attrs.isDirectory()) {
+                if (depth < maxDepth && (depth == 0 || options.acceptDirectory(relative))) {
+                    list();
+                }
+            }
+            else if (options.acceptFile(relative, attrs)) {
+                Metrics.INSTANCE.filesDiscovered.increment();
+                visitor.file(path, attrs);
+            }
+        }
+
+        /**
+         * @return the attributes of the path, of its target when links are followed, or null for a broken link.
+         */
+        private BasicFileAttributes attributes() throws IOException {
+            if (!options.followLinks()) {
+                return Files.readAttributes(path, BasicFileAttributes.class, NO_FOLLOW);
+            }
+            try {
+                return Files.readAttributes(path, BasicFileAttributes.class, FOLLOW);
+            } catch (IOException ex) {
+                if (Files.isSymbolicLink(path)) {
+                    return null;
+                }
+                throw ex;
+            }
+        }
+
+        private void list() {
+            List<ForkJoinTask<?>> children = new ArrayList<>();
+            try (DirectoryStream<Path> entries = Files.newDirectoryStream(path)) {
+                for (Path entry : entries) {
+                    children.add(new ScanTask(root, entry, depth + 1, visitor).fork());
+                }
+            } catch (IOException ex) {
+                Metrics.INSTANCE.walkErrors.increment();
+                throw new ScanFailure(ex);
+            } catch (DirectoryIteratorException ex) {
+                Metrics.INSTANCE.walkErrors.increment();
+                throw new ScanFailure(ex.getCause());
+            } finally {
+                for (ForkJoinTask<?> child : children) {
+                    child.join();
+                }
+            }
+        }
+    }
+}
@@ -5,10 +5,12 @@ import java.util.Map;
 
 /**
  * Entity Comparator.
+ * Orders by descending count, then by word so that ties have a stable order.
  */
-public class EntryComparator implements Comparator<Map.Entry<String, Integer>> {
+public class EntryComparator implements Comparator<Map.Entry<String, Long>> {
     @Override
-    public int compare(Map.Entry<String, Integer> o1, Map.Entry<String, Integer> o2) {
-        return o2.getValue().compareTo(o1.getValue());
+    public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+        int c = o2.getValue().compareTo(o1.getValue());
+        return c != 0 ? c : o1.getKey().compareTo(o2.getKey());
     }
 }
@@ -0,0 +1,272 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Exact aggregation into one shared count table.
+ *
+ * Tasks merge their counts as soon as they finish, so the only table that
+ * grows with the corpus is the global one; per-file tables are dropped after the merge
+ * instead of being held until every task completes.
+ *
+ * The table is split into stripes by the high bits of each word's hash, each with its
+ * own lock. A merge groups the incoming words by stripe and takes each lock once, so
+ * several tasks merge at the same time and the reduce scales with the number of workers.
+ *
+ * Given an {@link OffHeapMemory} the stripes are {@link OffHeapWordTable}s, so a vocabulary
+ * larger than the heap is held in direct memory and, past the budget, in a spill file.
+ */
+@ThreadSafe
+public class ExactAggregator implements Aggregator, Exportable {
+
+    private static final int STRIPE_BITS = 6;
+    private static final int STRIPES = 1 << STRIPE_BITS;
+
+    private final CountTable[] stripes = new CountTable[STRIPES];
+
+    /**
+     * Where the stripes live when they are off the heap, or null.
+     */
+    private final OffHeapMemory memory;
+    private boolean closed;
+
+    public ExactAggregator() {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new WordCountMap();
+        }
+        this.memory = null;
+    }
+
+    /**
+     *
+     * @param memory where the stripes allocate their tables.
+     */
+    public ExactAggregator(OffHeapMemory memory) {
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new OffHeapWordTable(memory);
+        }
+        this.memory = memory;
+    }
+
+    @Override
+    public void accept(WordCountMap fileCounts) {
+        int size = fileCounts.size();
+        // counting sort of ids by stripe
+        int[] starts = new int[STRIPES + 1];
+        for (int id = 0; id < size; id++) {
+            starts[stripe(fileCounts.hash(id)) + 1]++;
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            starts[i + 1] += starts[i];
+        }
+        int[] next = starts.clone();
+        int[] ids = new int[size];
+        for (int id = 0; id < size; id++) {
+            ids[next[stripe(fileCounts.hash(id))]++] = id;
+        }
+
+        for (int i = 0; i < STRIPES; i++) {
+            if (starts[i] == starts[i + 1]) {
+                continue;
+            }
+            CountTable stripe = stripes[i];
+            synchronized (stripe) {
+                for (int j = starts[i]; j < starts[i + 1]; j++) {
+                    stripe.addEntry(fileCounts, ids[j]);
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<Map.Entry<String, Long>> top(int topN) {
+        TopN selector = new TopN(topN);
+        for (CountTable counts : stripes) {
+            synchronized (counts) {
+                for (int id = 0; id < counts.size(); id++) {
+                    long count = counts.count(id);
+                    // only decode words that can enter the result
+                    if (count > 0 && selector.accepts(count)) {
+                        selector.offer(counts.word(id), count);
+                    }
+                }
+            }
+        }
+        return selector.result();
+    }
+
+    @Override
+    public long distinctWords() {
+        long size = 0;
+        for (CountTable counts : stripes) {
+            synchronized (counts) {
+                size += counts.size();
+            }
+        }
+        return size;
+    }
+
+    @Override
+    public long errorBound() {
+        return 0;
+    }
+
+    /**
+     * Free off-heap tables and delete their spill file. Heap tables are left to the collector.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (memory == null || closed) {
+            return;
+        }
+        closed = true;
+        for (CountTable table : stripes) {
+            synchronized (table) {
+                ((OffHeapWordTable) table).free();
+            }
+        }
+        memory.close();
+    }
+
+    /**
+     * Sort each stripe by word into a temporary run, one stripe at a time, and merge the runs
+     * into the writer. A word lives in a single stripe, so the merge only interleaves them.
+     * Sorting takes 8 bytes of heap per word of the stripe being sorted, about 1/64 of the
+     * vocabulary, and compares words in place, so a spilled off-heap stripe is read from its
+     * file in no particular order. Call once the workers have finished.
+     */
+    @Override
+    public void export(CountFile.Writer writer) throws IOException {
+        Path directory = Files.createTempDirectory("pdchallenge-export");
+        List<Path> runs = new ArrayList<>();
+        List<CountFile.Reader> readers = new ArrayList<>();
+        try {
+            for (CountTable table : stripes) {
+                Path run = directory.resolve(Integer.toString(runs.size()));
+                runs.add(run);
+                try (CountFile.Writer out = new CountFile.Writer(run, true)) {
+                    synchronized (table) {
+                        Cursor cursor = new Cursor(table, WordOrder.sortedIds(table));
+                        while (cursor.next()) {
+                            out.add(cursor.word, 0, cursor.length, cursor.count);
+                        }
+                    }
+                }
+            }
+            PriorityQueue<CountFile.Reader> heads = new PriorityQueue<>(STRIPES, new Comparator<CountFile.Reader>() {
+                @Override
+                public int compare(CountFile.Reader o1, CountFile.Reader o2) {
+                    return CountFile.compare(o1.word, o1.length, o2.word, o2.length);
+                }
+            });
+            for (Path run : runs) {
+                CountFile.Reader reader = new CountFile.Reader(run);
+                readers.add(reader);
+                if (reader.next()) {
+                    heads.add(reader);
+                }
+            }
+            while (!heads.isEmpty()) {
+                CountFile.Reader reader = heads.poll();
+                writer.add(reader.word, 0, reader.length, reader.count);
+                if (reader.next()) {
+                    heads.add(reader);
+                }
+            }
+        } finally {
+            for (CountFile.Reader reader : readers) {
+                reader.close();
+            }
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    /**
+     * Write every word with a positive count in the format of {@link WordCountMap#writeTo(DataOutput)}.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        int live = 0;
+        for (CountTable counts : stripes) {
+            synchronized (counts) {
+                for (int id = 0; id < counts.size(); id++) {
+                    if (counts.count(id) > 0) {
+                        live++;
+                    }
+                }
+            }
+        }
+        Varint.write(out, live);
+        byte[] word = new byte[64];
+        for (CountTable counts : stripes) {
+            synchronized (counts) {
+                for (int id = 0; id < counts.size(); id++) {
+                    long count = counts.count(id);
+                    if (count > 0) {
+                        int length = counts.length(id);
+                        if (word.length < length) {
+                            word = new byte[Math.max(length, word.length * 2)];
+                        }
+                        counts.copyWord(id, word);
+                        Varint.write(out, length);
+                        out.write(word, 0, length);
+                        Varint.write(out, count);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * The table inside each stripe indexes by the low bits, so stripes use the high bits.
+     */
+    private static int stripe(int hash) {
+        return hash >>> (32 - STRIPE_BITS);
+    }
+
+    /**
+     * The words of one stripe with a positive count, in ascending order. The current word
+     * is copied out as bytes, valid until the next call to {@link #next()}.
+     */
+    private static class Cursor {
+        private final CountTable table;
+        private final int[] order;
+        private int position;
+        byte[] word = new byte[64];
+        int length;
+        long count;
+
+        Cursor(CountTable table, int[] order) {
+            this.table = table;
+            this.order = order;
+        }
+
+        boolean next() {
+            while (position < order.length) {
+                int id = order[position++];
+                count = table.count(id);
+                if (count > 0) {
+                    length = table.length(id);
+                    if (word.length < length) {
+                        word = new byte[Math.max(length, word.length * 2)];
+                    }
+                    table.copyWord(id, word);
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
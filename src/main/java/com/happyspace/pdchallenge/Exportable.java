@@ -0,0 +1,16 @@
+package com.happyspace.pdchallenge;
+
+import java.io.IOException;
+
+/**
+ * An aggregator that holds every word and can write its full table to a {@link CountFile}.
+ */
+public interface Exportable {
+
+    /**
+     * Write every word with a positive count, in ascending order. Called once all work has been accepted.
+     *
+     * @param writer receives the entries.
+     */
+    void export(CountFile.Writer writer) throws IOException;
+}
@@ -0,0 +1,88 @@
+package com.happyspace.pdchallenge;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Cuts a file into byte ranges that can be counted independently.
+ *
+ * Each boundary is moved forward to the next whitespace byte so that no token
+ * is split between two chunks.
+ */
+public class FileChunker {
+
+    /**
+     * A byte range of a file.
+     */
+    public static final class Chunk {
+        public final long offset;
+        public final long length;
+
+        Chunk(long offset, long length) {
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * How much to read at a time while looking for a boundary.
+     */
+    private static final int PROBE_SIZE = 4096;
+
+    private FileChunker() {
+    }
+
+    /**
+     *
+     * @param path the file to cut.
+     * @param chunkSize the nominal size of each chunk, at most Integer.MAX_VALUE so a chunk can be mapped.
+     * @return chunks covering the whole file in order.
+     * @throws IOException
+     */
+    public static List<Chunk> split(Path path, long chunkSize) throws IOException {
+        List<Chunk> chunks = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            ByteBuffer probe = ByteBuffer.allocate(PROBE_SIZE);
+            long start = 0;
+            while (start < size) {
+                long end = start + chunkSize;
+                if (end >= size) {
+                    end = size;
+                }
+                else {
+                    end = nextWhitespace(channel, end, size, probe);
+                }
+                chunks.add(new Chunk(start, end - start));
+                start = end;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * @return the position of the first whitespace byte at or after 'position', or 'size'.
+     */
+    private static long nextWhitespace(FileChannel channel, long position, long size, ByteBuffer probe)
+            throws IOException {
+        while (position < size) {
+            probe.clear();
+            int read = channel.read(probe, position);
+            if (read <= 0) {
+                break;
+            }
+            for (int i = 0; i < read; i++) {
+                if (Tokenizer.isWhitespace(probe.get(i))) {
+                    return position + i;
+                }
+            }
+            position += read;
+        }
+        return size;
+    }
+}
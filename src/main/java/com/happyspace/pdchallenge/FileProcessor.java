@@ -1,9 +1,11 @@
 package com.happyspace.pdchallenge;
 
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
 import com.happyspace.pdchallenge.exceptions.FailedToCreateFileList;
 import net.jcip.annotations.NotThreadSafe;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
@@ -19,6 +21,16 @@ public class FileProcessor {
      */
     final List<Path> paths = new ArrayList<>();
 
+    /**
+     * The size of each file in 'paths', recorded while walking. Files added without a size are read with stat.
+     */
+    final List<Long> sizes = new ArrayList<>();
+
+    /**
+     * Compressed files larger than this many bytes are counted a group of frames per worker.
+     */
+    private static final long COMPRESSED_SPLIT_SIZE = 1024 * 1024;
+
     /**
      * Number of workers.
      */
@@ -39,6 +51,53 @@ public class FileProcessor {
      */
     private final int maxDepth;
 
+    /**
+     * Reduces the counts of every file.
+     */
+    private final Aggregator aggregator;
+
+    /**
+     * Files larger than this many bytes are memory mapped and counted in chunks.
+     */
+    private final long chunkThreshold;
+
+    /**
+     * Size of the separate pool that reads small files, zero to read on the workers.
+     */
+    private final int ioThreads;
+
+    /**
+     * How words are separated.
+     */
+    private final TokenizerConfig tokenizer;
+
+    /**
+     * A pool shared with other processors, or null for a pool per run.
+     */
+    private final ForkJoinPool sharedPool;
+
+    /**
+     * Which files are counted.
+     */
+    private final WalkOptions walkOptions;
+
+    /**
+     * Blocks of the read pipeline, zero when files are read on the workers.
+     */
+    private final int pipelineBuffers;
+
+    /**
+     * Files that could not be counted. A failed file is left out and the run goes on.
+     */
+    private final Queue<FailedToCountFile> failures = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Walks the start paths for processFiles and createFileList. It remembers every file
+     * visited, so a file reached through several start paths or links is counted once, and
+     * a processor is used for one run.
+     */
+    private final DirectoryScanner scanner;
+
     /**
      *
      * @param numberOfWorkers the number of workers.
@@ -47,20 +106,222 @@ public class FileProcessor {
      * @param maxDepth traversal limit for directories
      */
     FileProcessor(int numberOfWorkers, ArrayList<Path> start, int topN, int maxDepth){
+        this(numberOfWorkers, start, topN, maxDepth, new Options());
+    }
+
+    /**
+     *
+     * @param numberOfWorkers the number of workers, the parallelism of the shared pool when given.
+     * @param start list of valid paths.
+     * @param topN how many items to record.
+     * @param maxDepth traversal limit for directories
+     * @param options the engine, chunking, readers and tokenizer of the run.
+     */
+    FileProcessor(int numberOfWorkers, ArrayList<Path> start, int topN, int maxDepth, Options options){
         this.numberOfWorkers = numberOfWorkers;
         this.start = start;
         this.topN = topN;
 
         this.maxDepth = maxDepth;
+        this.aggregator = options.aggregator;
+        this.chunkThreshold = Math.max(1, Math.min(options.chunkThreshold, Integer.MAX_VALUE));
+        this.ioThreads = options.ioThreads;
+        this.tokenizer = options.tokenizer;
+        this.sharedPool = options.pool;
+        this.walkOptions = options.walk;
+        this.pipelineBuffers = options.pipelineBuffers;
+        this.scanner = new DirectoryScanner(walkOptions, maxDepth);
+    }
+
+    /**
+     * Everything about a run beyond its start paths, result size and depth. Unset options
+     * count exactly with the default tokenizer, split files above the default chunk
+     * threshold and read on the workers.
+     */
+    static final class Options {
+        private Aggregator aggregator = new ExactAggregator();
+        private long chunkThreshold = App.CHUNK_THRESHOLD_DEFAULT;
+        private int ioThreads;
+        private TokenizerConfig tokenizer = TokenizerConfig.DEFAULT;
+        private ForkJoinPool pool;
+        private WalkOptions walk = WalkOptions.DEFAULT;
+        private int pipelineBuffers;
+
+        /**
+         * @param aggregator the engine that reduces per-file counts.
+         */
+        Options aggregator(Aggregator aggregator) {
+            this.aggregator = aggregator;
+            return this;
+        }
+
+        /**
+         * @param chunkThreshold size in bytes above which a file is split into chunks.
+         */
+        Options chunkThreshold(long chunkThreshold) {
+            this.chunkThreshold = chunkThreshold;
+            return this;
+        }
+
+        /**
+         * @param ioThreads threads that read small files, or the reader threads of the pipeline.
+         *                  Zero to read on the workers, or for the pipeline's default.
+         */
+        Options ioThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * @param tokenizer how words are separated.
+         */
+        Options tokenizer(TokenizerConfig tokenizer) {
+            this.tokenizer = tokenizer;
+            return this;
+        }
+
+        /**
+         * @param pool a pool that outlives the processor, or null to create one per run.
+         */
+        Options pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        /**
+         * @param walk which files are counted.
+         */
+        Options walk(WalkOptions walk) {
+            this.walk = walk;
+            return this;
+        }
+
+        /**
+         * @param pipelineBuffers blocks of the {@link ReadPipeline} that reads files up to the
+         *                        chunk threshold. Zero to read on the workers.
+         */
+        Options pipelineBuffers(int pipelineBuffers) {
+            this.pipelineBuffers = pipelineBuffers;
+            return this;
+        }
     }
 
     /**
+     * Walks every start path and counts files as they are discovered.
+     * Each directory is a fork/join task that forks a task per entry, so counting
+     * starts with the first file found and only one directory listing is held per task.
+     * Completion and failures reduce up the task tree; counts go straight to the aggregator.
+     * When I/O threads are configured small files are read by that pool and counted once read.
+     * When the read pipeline is configured every file up to the chunk threshold is read by it
+     * in blocks, which are tokenized while the rest of the file is read.
+     *
      * @return the reduced list of results for all files.
      */
-    public List<Map.Entry<String, Integer>> processFiles()
+    public List<Map.Entry<String, Long>> processFiles()
             throws FailedToCreateFileList, ExecutionException, InterruptedException {
-        List<Map.Entry<String, Integer>> results;
+        Metrics.INSTANCE.reset();
+        final ForkJoinPool pool = sharedPool != null ? sharedPool : new ForkJoinPool(numberOfWorkers);
+        // blocks cut the n-grams that span them, so n-grams are only split into chunks
+        final ReadPipeline pipeline = pipelineBuffers > 0 && tokenizer.ngrams() == 1 ? new ReadPipeline(
+                ioThreads > 0 ? ioThreads : ReadPipeline.READERS_DEFAULT, pipelineBuffers, pool, aggregator,
+                tokenizer, failures) : null;
+        final IoReader reader = pipeline == null && ioThreads > 0
+                ? new IoReader(ioThreads, pool, aggregator, tokenizer, failures) : null;
+        Metrics.INSTANCE.start(new Metrics.Gauge() {
+            @Override
+            public long value() {
+                long depth = pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+                if (pipeline != null) {
+                    return depth + pipeline.pending();
+                }
+                return reader != null ? depth + reader.pending() : depth;
+            }
+        }, distinctWords());
+        try {
+            DirectoryScanner.Visitor counter = new DirectoryScanner.Visitor() {
+                @Override
+                public void file(Path file, BasicFileAttributes attrs) {
+                    if (pipeline != null && attrs.size() <= chunkThreshold) {
+                        pipeline.submit(file);
+                        return;
+                    }
+                    if (reader != null && attrs.size() <= IoReader.SMALL_FILE_LIMIT) {
+                        reader.submit(file);
+                        return;
+                    }
+                    try {
+                        countTask(file, attrs.size(), chunkThreshold).invoke();
+                    } catch (FailedToCountFile ex) {
+                        failures.add(ex);
+                    }
+                }
+            };
+            List<ForkJoinTask<Void>> roots = new ArrayList<>();
+            for (Path path : start) {
+                roots.add(pool.submit(scanner.scan(path, counter)));
+            }
+            for (ForkJoinTask<Void> root : roots) {
+                try {
+                    root.get();
+                } catch (ExecutionException ex) {
+                    if (DirectoryScanner.isScanFailure(ex.getCause())) {
+                        throw new FailedToCreateFileList();
+                    }
+                    throw ex;
+                }
+            }
+            if (pipeline != null) {
+                pipeline.await();
+            }
+            if (reader != null) {
+                reader.await();
+            }
+        } finally {
+            if (pipeline != null) {
+                pipeline.shutdown();
+            }
+            if (reader != null) {
+                reader.shutdown();
+            }
+            if (pool != sharedPool) {
+                pool.shutdown();
+            }
+        }
+        return aggregator.top(topN);
+    }
 
+    /**
+     * Collects the files under every start path and brings an incremental index up to date,
+     * so only new and changed files are read. The aggregate from the index is streamed to the
+     * aggregator a bounded map at a time.
+     *
+     * @param index the index kept between runs.
+     * @return the reduced list of results for all files.
+     */
+    public List<Map.Entry<String, Long>> processIncremental(IncrementalIndex index)
+            throws FailedToCreateFileList, ExecutionException, InterruptedException, IOException {
+        Metrics.INSTANCE.reset();
+        for (Path path : start) {
+            if(!createFileList(path)) {
+                throw new FailedToCreateFileList();
+            }
+        }
+        CountFile.load(index.update(paths, numberOfWorkers), aggregator);
+        failures.addAll(index.failures());
+        Metrics.INSTANCE.filesFailed.add(index.failures().size());
+        return aggregator.top(topN);
+    }
+
+    /**
+     * Collects the files under every start path before counting any, so that the
+     * work can be planned by size: largest files first, small files in batches.
+     * Trades the early start of {@link #processFiles()} for a shorter tail.
+     *
+     * @return the reduced list of results for all files.
+     */
+    public List<Map.Entry<String, Long>> processScheduled()
+            throws FailedToCreateFileList, ExecutionException, InterruptedException {
+        Metrics.INSTANCE.reset();
         for (Path path : start) {
             if(!createFileList(path)) {
                 throw new FailedToCreateFileList();
@@ -69,73 +330,245 @@ public class FileProcessor {
         return process();
     }
 
+    /**
+     * Collects the files under every start path and counts them on remote workers.
+     * The counts streamed back by the workers are reduced by the aggregator, and files
+     * a worker could not read are added to {@link #failures()}.
+     *
+     * @param coordinator shards the files across the workers.
+     * @return the reduced list of results for all files.
+     */
+    public List<Map.Entry<String, Long>> processDistributed(Coordinator coordinator)
+            throws FailedToCreateFileList, InterruptedException, IOException {
+        Metrics.INSTANCE.reset();
+        for (Path path : start) {
+            if(!createFileList(path)) {
+                throw new FailedToCreateFileList();
+            }
+        }
+        coordinator.count(paths, aggregator, failures);
+        return aggregator.top(topN);
+    }
+
     /**
      * Protected method that creates a list of files to process.
+     * Directories are listed in parallel on a pool sized for metadata I/O,
+     * and only files accepted by the walk options are collected.
      * @return whether or not the file system was traversable.
      */
     protected boolean createFileList(Path start) {
-        boolean success = true;
-        Set<FileVisitOption> options = EnumSet.noneOf(FileVisitOption.class);
+        ForkJoinPool pool = new ForkJoinPool(walkOptions.threads());
         try {
-            Files.walkFileTree(start, options, this.maxDepth, new SimpleFileVisitor<Path>(){
+            pool.invoke(scanner.scan(start, new DirectoryScanner.Visitor() {
                 @Override
-                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
-                    // is this a regular file.
-                    if (attrs.isRegularFile()) {
+                public void file(Path file, BasicFileAttributes attrs) {
+                    synchronized (paths) {
                         paths.add(file);
+                        sizes.add(attrs.size());
                     }
-                    return FileVisitResult.CONTINUE;
                 }
-            });
-        } catch (IOException ex){
-            success = false;
+            }));
+        } catch (RuntimeException ex) {
+            if (DirectoryScanner.isScanFailure(ex)) {
+                return false;
+            }
+            throw ex;
+        } finally {
+            pool.shutdown();
         }
+        return true;
+    }
+
+    /**
+     * @return the files that could not be counted, valid after processing.
+     */
+    public List<FailedToCountFile> failures() {
+        return new ArrayList<>(failures);
+    }
+
+    /**
+     * @return the error bound reported by the aggregator, valid after processing.
+     */
+    public long errorBound() {
+        return aggregator.errorBound();
+    }
 
-        return success;
+    /**
+     * Write the full counts of the last run to a {@link CountFile}, valid after processing.
+     *
+     * @param output the file to write, replaced once every entry is written.
+     * @param prefixCompressed whether words are prefix compressed.
+     * @return false if the engine does not keep every word, nothing is written.
+     */
+    public boolean export(Path output, boolean prefixCompressed) throws IOException {
+        if (!(aggregator instanceof Exportable)) {
+            return false;
+        }
+        Path temporary = CountFile.temporary(output);
+        try {
+            try (CountFile.Writer writer = new CountFile.Writer(temporary, prefixCompressed)) {
+                ((Exportable) aggregator).export(writer);
+            }
+            CountFile.replace(temporary, output);
+        } finally {
+            // gone once moved, left only by a failed export
+            Files.deleteIfExists(temporary);
+        }
+        return true;
     }
 
     /**
-     * A protected method that maps file paths to tasks.
+     * A protected method that maps the collected file paths to tasks.
+     * Each task merges its full counts into the aggregator when it completes,
+     * so words outside a file's own top N still contribute to the global result.
+     * Tasks are planned by a {@link FileScheduler}: largest first, small files in batches
+     * and files larger than an even share of the total split into chunks.
      *
      * @return Result of the reduce.
      * @throws InterruptedException
      * @throws ExecutionException
      */
-    protected  List<Map.Entry<String, Integer>> process()
+    protected  List<Map.Entry<String, Long>> process()
             throws InterruptedException, ExecutionException {
-        List<Map.Entry<String, Integer>> results = new ArrayList<>();
-        Map<String, Integer> counts = new HashMap<>();
-
-        ExecutorService exec = Executors.newFixedThreadPool(numberOfWorkers);
-        List<Callable<List<Map.Entry<String , Integer>>>> tasks = new ArrayList<>();
-        // create tasks
-        for (Path path : paths ) {
-            tasks.add(new WordCountTask(path, topN));
-        }
-
-        List<Future<List<Map.Entry<String , Integer>>>> futures = exec.invokeAll(tasks);
-
-        for(Future<List<Map.Entry<String , Integer>>> future : futures){
-            List<Map.Entry<String, Integer>> entries = future.get();
-            for(Map.Entry<String , Integer> entry : entries) {
-                if(counts.containsKey(entry.getKey())){
-                    Integer value = counts.get(entry.getKey());
-                    counts.put(entry.getKey(), value + entry.getValue());
-                }
-                else {
-                    counts.put(entry.getKey(), entry.getValue());
+        final ForkJoinPool pool = sharedPool != null ? sharedPool : new ForkJoinPool(numberOfWorkers);
+        Metrics.INSTANCE.start(new Metrics.Gauge() {
+            @Override
+            public long value() {
+                return pool.getQueuedTaskCount() + pool.getQueuedSubmissionCount();
+            }
+        }, distinctWords());
+        try {
+            pool.submit(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    for (int i = sizes.size(); i < paths.size(); i++) {
+                        try {
+                            sizes.add(Files.size(paths.get(i)));
+                        } catch (IOException ex) {
+                            // counting the file fails and reports it
+                            sizes.add(0L);
+                        }
+                    }
+                    FileScheduler schedule = new FileScheduler(paths, sizes, numberOfWorkers, chunkThreshold);
+                    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+                    for (FileScheduler.Unit unit : schedule.units()) {
+                        if (unit.paths.size() == 1) {
+                            tasks.add(countTask(unit.paths.get(0), unit.bytes, schedule.splitBytes()));
+                        }
+                        else {
+                            tasks.add(new BatchCountTask(unit.paths, aggregator, tokenizer, failures));
+                        }
+                    }
+                    // idle workers steal the oldest forked task, so forking in order hands out
+                    // the largest work first while this thread works back from the smallest
+                    for (ForkJoinTask<?> task : tasks) {
+                        task.fork();
+                    }
+                    RuntimeException failure = null;
+                    for (int i = tasks.size() - 1; i >= 0; i--) {
+                        try {
+                            tasks.get(i).join();
+                        } catch (FailedToCountFile ex) {
+                            failures.add(ex);
+                        } catch (RuntimeException ex) {
+                            if (failure == null) {
+                                failure = ex;
+                            }
+                        }
+                    }
+                    if (failure != null) {
+                        throw failure;
+                    }
                 }
+            }).get();
+        } finally {
+            if (pool != sharedPool) {
+                pool.shutdown();
             }
         }
+        return aggregator.top(topN);
+    }
 
-        exec.shutdown();
-
-        results.addAll(counts.entrySet());
-        Collections.sort(results, new EntryComparator());
-        if(results.size() > topN) {
-            results = results.subList(0, topN);
+    /**
+     * Create one task for a file, or one task per chunk when the file is larger than
+     * the split size. Chunks are sized so that a single large file is spread across
+     * every worker, and never exceed the split size. With n-grams each chunk reads on past its
+     * end to complete the phrases that start in it, see {@link Tokenizer#overlap()}; compressed
+     * files are then counted whole, since their ranges only join words.
+     *
+     * @param splitBytes the size above which the file is split, at most the chunk threshold.
+     */
+    private ForkJoinTask<?> countTask(final Path path, final long size, final long splitBytes) {
+        if (size > Math.min(chunkThreshold, COMPRESSED_SPLIT_SIZE)) {
+            // compressed files are split at frames, never at whitespace
+            Codec codec;
+            long[] frames;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                codec = Codec.detect(channel);
+                frames = codec.frames(channel);
+            } catch (IOException ex) {
+                Metrics.INSTANCE.filesFailed.increment();
+                throw new FailedToCountFile(path, ex);
+            }
+            if (frames != null && frames.length > 2 && tokenizer.ngrams() == 1) {
+                return new CompressedCountTask(path, codec, frames, aggregator, numberOfWorkers, tokenizer);
+            }
+            if (codec != Codec.NONE) {
+                return new WordCountTask(path, aggregator, null, tokenizer);
+            }
         }
+        if (size <= splitBytes) {
+            return new WordCountTask(path, aggregator, null, tokenizer);
+        }
+        return new RecursiveAction() {
+            @Override
+            protected void compute() {
+                // chunks are tokenized as raw UTF-8, other content is streamed and decoded
+                ContentSniffer.Content content;
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    content = ContentSniffer.sniff(channel);
+                } catch (IOException ex) {
+                    Metrics.INSTANCE.filesFailed.increment();
+                    throw new FailedToCountFile(path, ex);
+                }
+                if (content.isBinary()) {
+                    Metrics.INSTANCE.filesSkipped.increment();
+                    Metrics.INSTANCE.filesDone.increment();
+                    return;
+                }
+                if (!content.isUtf8()) {
+                    new WordCountTask(path, aggregator, null, tokenizer).invoke();
+                    return;
+                }
+                long started = System.nanoTime();
+                long chunkSize = Math.min(splitBytes, (size + numberOfWorkers - 1) / numberOfWorkers);
+                // each chunk is merged here as it finishes, and the file reaches the aggregator whole
+                WordCountMap staging = new WordCountMap();
+                List<WordCountTask> tasks = new ArrayList<>();
+                try {
+                    for (FileChunker.Chunk chunk : FileChunker.split(path, chunkSize)) {
+                        tasks.add(new WordCountTask(path, chunk, tokenizer, staging));
+                    }
+                } catch (IOException ex) {
+                    Metrics.INSTANCE.filesFailed.increment();
+                    throw new FailedToCountFile(path, ex);
+                }
+                // a file that fails in any chunk is left out of the counts entirely
+                invokeAll(tasks);
+                long merging = System.nanoTime();
+                aggregator.accept(staging);
+                Metrics.INSTANCE.merged(staging.tokens(), started, merging);
+                Metrics.INSTANCE.filesDone.increment();
+            }
+        };
+    }
 
-        return results;
+    private Metrics.Gauge distinctWords() {
+        return new Metrics.Gauge() {
+            @Override
+            public long value() {
+                return aggregator.distinctWords();
+            }
+        };
     }
 }
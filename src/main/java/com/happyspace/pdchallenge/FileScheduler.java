@@ -0,0 +1,124 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.Immutable;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Plans the order in which a list of files is counted, so that every worker stays busy
+ * until the end of a run.
+ *
+ * Work is handed out largest first. A large file picked late would otherwise be counted by
+ * one worker while the others sit idle. Small files are packed into batches of up to
+ * {@link #BATCH_BYTES} so that each pays for one task and one merge instead of one per file.
+ * Batches and files are ordered together by size, so batches fill in behind the large files.
+ * Files larger than an even share of the total are split into chunks.
+ */
+@Immutable
+public class FileScheduler {
+
+    /**
+     * Files up to this size are batched with other small files.
+     */
+    static final long SMALL_FILE_BYTES = 64 * 1024;
+
+    /**
+     * The number of bytes packed into a batch of small files.
+     */
+    static final long BATCH_BYTES = 1024 * 1024;
+
+    /**
+     * The most files in a batch, bounding the open and read latency a single task absorbs.
+     */
+    static final int BATCH_FILES = 256;
+
+    /**
+     * Files are never split into chunks smaller than this.
+     */
+    static final long MIN_SPLIT_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * A file, or a batch of small files, counted by one task.
+     */
+    @Immutable
+    public static final class Unit {
+        public final List<Path> paths;
+        public final long bytes;
+
+        Unit(List<Path> paths, long bytes) {
+            this.paths = paths;
+            this.bytes = bytes;
+        }
+    }
+
+    private static final Comparator<Unit> LARGEST_FIRST = new Comparator<Unit>() {
+        @Override
+        public int compare(Unit o1, Unit o2) {
+            return Long.compare(o2.bytes, o1.bytes);
+        }
+    };
+
+    private final List<Unit> units;
+    private final long splitBytes;
+
+    /**
+     *
+     * @param paths the files to count.
+     * @param sizes the size of each file, in the same order.
+     * @param workers the number of workers counting.
+     * @param chunkThreshold the largest chunk a file is ever counted in.
+     */
+    public FileScheduler(List<Path> paths, List<Long> sizes, int workers, long chunkThreshold) {
+        List<Unit> files = new ArrayList<>(paths.size());
+        long total = 0;
+        for (int i = 0; i < paths.size(); i++) {
+            long size = sizes.get(i);
+            files.add(new Unit(Collections.singletonList(paths.get(i)), size));
+            total += size;
+        }
+        Collections.sort(files, LARGEST_FIRST);
+
+        List<Unit> units = new ArrayList<>();
+        List<Path> batch = new ArrayList<>();
+        long batchBytes = 0;
+        for (Unit file : files) {
+            if (file.bytes > SMALL_FILE_BYTES) {
+                units.add(file);
+                continue;
+            }
+            if (!batch.isEmpty() && (batchBytes + file.bytes > BATCH_BYTES || batch.size() == BATCH_FILES)) {
+                units.add(new Unit(batch, batchBytes));
+                batch = new ArrayList<>();
+                batchBytes = 0;
+            }
+            batch.add(file.paths.get(0));
+            batchBytes += file.bytes;
+        }
+        if (!batch.isEmpty()) {
+            units.add(new Unit(batch, batchBytes));
+        }
+        Collections.sort(units, LARGEST_FIRST);
+
+        this.units = Collections.unmodifiableList(units);
+        this.splitBytes = Math.min(Math.max(1, chunkThreshold),
+                Math.max(MIN_SPLIT_BYTES, (total + workers - 1) / Math.max(1, workers)));
+    }
+
+    /**
+     * @return the files and batches to count, largest first.
+     */
+    public List<Unit> units() {
+        return units;
+    }
+
+    /**
+     * @return the size above which a file is split into chunks.
+     */
+    public long splitBytes() {
+        return splitBytes;
+    }
+}
@@ -0,0 +1,384 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.zip.CRC32;
+
+/**
+ * An on-disk index of per-file word counts, so that a rerun only reads files
+ * that changed since the previous run.
+ *
+ * The index directory holds 'index.bin', with the fingerprint of the tokenizer configuration,
+ * the block id of the aggregate counts and one record per file (path, size, modification time,
+ * optional CRC32 and block id). Blocks under 'blocks' are {@link CountFile}s: one per file with
+ * that file's full counts, and one with the aggregate counts of every file. Counts made with
+ * another configuration are stale, and every file is recounted.
+ *
+ * On update, new and changed files are counted into new blocks. The aggregate is then patched
+ * in one streaming merge that adds the new blocks and takes away the old blocks of changed and
+ * deleted files, so neither the aggregate nor a block is ever held on the heap. A run in which
+ * nothing changed reads no file and keeps the aggregate as it is. A file that cannot be read
+ * is reported by {@link #failures()} and left out of the aggregate, as if it had been deleted.
+ *
+ * Blocks are never rewritten in place and 'index.bin' is replaced atomically, so an
+ * interrupted run leaves the previous index intact. One process may use an index at a time.
+ */
+@NotThreadSafe
+public class IncrementalIndex {
+
+    private static final int MAGIC = 0x50444958; // PDIX
+    private static final int VERSION = 3;
+    private static final long NO_HASH = -1;
+
+    /**
+     * What the index knows about one file.
+     */
+    private static final class Record {
+        long size;
+        long modified;
+        long hash;
+        long block;
+    }
+
+    private final Path directory;
+    private final boolean hashContents;
+    private final TokenizerConfig config;
+
+    /**
+     * The blocks an update adds to and takes away from the aggregate, and the blocks it leaves unused.
+     */
+    private static final class Patch {
+        final List<Path> added = new ArrayList<>();
+        final List<Path> subtracted = new ArrayList<>();
+        final List<Path> stale = new ArrayList<>();
+    }
+
+    private final Map<String, Record> records = new HashMap<>();
+    private long aggregate = -1;
+    private long nextBlock;
+    private final List<Path> obsolete = new ArrayList<>();
+
+    private int recounted;
+    private final List<FailedToCountFile> failures = new ArrayList<>();
+
+    /**
+     *
+     * @param directory where the index is kept, created if missing.
+     * @param hashContents when true a file whose size or time changed is only recounted
+     *                     if its CRC32 changed too.
+     */
+    public IncrementalIndex(Path directory, boolean hashContents) {
+        this(directory, hashContents, TokenizerConfig.DEFAULT);
+    }
+
+    /**
+     *
+     * @param directory where the index is kept, created if missing.
+     * @param hashContents when true a file whose size or time changed is only recounted
+     *                     if its CRC32 changed too.
+     * @param config how words are split, see {@link TokenizerConfig}.
+     */
+    public IncrementalIndex(Path directory, boolean hashContents, TokenizerConfig config) {
+        this.directory = directory;
+        this.hashContents = hashContents;
+        this.config = config;
+    }
+
+    /**
+     * Bring the index up to date with the given files, dropping files that are not listed.
+     *
+     * @param files every regular file that makes up the corpus.
+     * @param numberOfWorkers threads used to count new and changed files.
+     * @return the count file with the aggregate counts of all files, valid until the next update.
+     *         See {@link CountFile#load(Path, Aggregator)}.
+     */
+    public Path update(List<Path> files, int numberOfWorkers)
+            throws IOException, InterruptedException, ExecutionException {
+        load();
+        Files.createDirectories(blocks());
+        failures.clear();
+
+        Set<String> removed = new HashSet<>(records.keySet());
+        List<Path> changed = new ArrayList<>();
+        Map<String, Record> current = new HashMap<>();
+        for (Path file : files) {
+            String key = file.toAbsolutePath().normalize().toString();
+            if (current.containsKey(key)) {
+                continue;
+            }
+            Record record;
+            try {
+                record = describe(file, records.get(key));
+            } catch (IOException ex) {
+                failures.add(new FailedToCountFile(file, ex));
+                continue;
+            }
+            current.put(key, record);
+            removed.remove(key);
+            if (record.block == -1) {
+                changed.add(file);
+            }
+        }
+
+        Patch patch = new Patch();
+        patch.stale.addAll(obsolete);
+        for (String key : removed) {
+            Path old = block(records.get(key).block);
+            patch.subtracted.add(old);
+            patch.stale.add(old);
+        }
+        recount(changed, current, patch, numberOfWorkers);
+
+        if (aggregate < 0 || !patch.added.isEmpty() || !patch.subtracted.isEmpty()) {
+            List<Path> added = new ArrayList<>(patch.added);
+            if (aggregate >= 0) {
+                added.add(block(aggregate));
+                patch.stale.add(block(aggregate));
+            }
+            aggregate = nextBlock++;
+            CountFile.patch(added, patch.subtracted, block(aggregate));
+        }
+        records.clear();
+        records.putAll(current);
+        save();
+        for (Path block : patch.stale) {
+            Files.deleteIfExists(block);
+        }
+        return block(aggregate);
+    }
+
+    /**
+     * @return how many files the last update had to read.
+     */
+    public int recounted() {
+        return recounted;
+    }
+
+    /**
+     * @return the files the last update could not read. Their counts are not in the aggregate.
+     */
+    public List<FailedToCountFile> failures() {
+        return failures;
+    }
+
+    /**
+     * Describe a file as it is now, taking the block of its previous record if the file did not change.
+     *
+     * @return the record, with a block of -1 if the file has to be counted.
+     */
+    private Record describe(Path file, Record old) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        Record record = new Record();
+        record.size = attrs.size();
+        record.modified = attrs.lastModifiedTime().toMillis();
+        record.hash = NO_HASH;
+        record.block = -1;
+        if (old != null && old.size == record.size && old.modified == record.modified) {
+            record.hash = old.hash;
+            record.block = old.block;
+        }
+        else if (hashContents) {
+            record.hash = crc(file);
+            if (old != null && old.hash == record.hash && old.size == record.size) {
+                record.block = old.block;
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Count new and changed files in parallel, write their blocks and add them to the patch.
+     */
+    private void recount(final List<Path> changed, final Map<String, Record> current, final Patch patch,
+                         int numberOfWorkers) throws InterruptedException, ExecutionException {
+        recounted = changed.size();
+        if (changed.isEmpty()) {
+            return;
+        }
+        final long firstBlock = nextBlock;
+        nextBlock += changed.size();
+        ForkJoinPool pool = new ForkJoinPool(numberOfWorkers);
+        try {
+            pool.submit(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    List<RecursiveAction> tasks = new ArrayList<>();
+                    for (int i = 0; i < changed.size(); i++) {
+                        final Path file = changed.get(i);
+                        final long block = firstBlock + i;
+                        tasks.add(new RecursiveAction() {
+                            @Override
+                            protected void compute() {
+                                try {
+                                    WordCountMap counts;
+                                    try {
+                                        counts = WordCountTask.countWords(file, null, config);
+                                    } catch (IOException ex) {
+                                        drop(file, ex, current, patch);
+                                        return;
+                                    }
+                                    writeBlock(block, counts);
+                                    fold(file, block, current, patch);
+                                } catch (IOException ex) {
+                                    throw new FailedToCountFile(file, ex);
+                                }
+                            }
+                        });
+                    }
+                    invokeAll(tasks);
+                }
+            }).get();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Replace a file's previous block in the aggregate with its new block.
+     * The previous records are only read while counting, so they are read outside the lock.
+     */
+    private void fold(Path file, long block, Map<String, Record> current, Patch patch) {
+        String key = file.toAbsolutePath().normalize().toString();
+        Record old = records.get(key);
+        synchronized (this) {
+            if (old != null) {
+                patch.subtracted.add(block(old.block));
+                patch.stale.add(block(old.block));
+            }
+            patch.added.add(block(block));
+            current.get(key).block = block;
+        }
+    }
+
+    /**
+     * Leave a file that could not be counted out of the index, taking away its previous block.
+     */
+    private void drop(Path file, IOException cause, Map<String, Record> current, Patch patch) {
+        String key = file.toAbsolutePath().normalize().toString();
+        Record old = records.get(key);
+        synchronized (this) {
+            if (old != null) {
+                patch.subtracted.add(block(old.block));
+                patch.stale.add(block(old.block));
+            }
+            current.remove(key);
+            failures.add(new FailedToCountFile(file, cause));
+        }
+    }
+
+    private void load() throws IOException {
+        records.clear();
+        obsolete.clear();
+        aggregate = -1;
+        nextBlock = 0;
+        Path index = directory.resolve("index.bin");
+        if (!Files.exists(index)) {
+            return;
+        }
+        try (DataInputStream in = open(index)) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                // unknown format, start again
+                return;
+            }
+            long fingerprint = in.readLong();
+            nextBlock = Varint.read(in);
+            aggregate = in.readLong();
+            long entries = Varint.read(in);
+            for (long i = 0; i < entries; i++) {
+                String key = in.readUTF();
+                Record record = new Record();
+                record.size = Varint.read(in);
+                record.modified = in.readLong();
+                record.hash = in.readLong();
+                record.block = Varint.read(in);
+                records.put(key, record);
+            }
+            if (fingerprint != config.fingerprint()) {
+                // counted with another configuration, drop every block
+                for (Record record : records.values()) {
+                    obsolete.add(block(record.block));
+                }
+                if (aggregate >= 0) {
+                    obsolete.add(block(aggregate));
+                }
+                records.clear();
+                aggregate = -1;
+            }
+        }
+    }
+
+    private void save() throws IOException {
+        Path index = directory.resolve("index.bin");
+        Path temp = directory.resolve("index.bin.tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(config.fingerprint());
+            Varint.write(out, nextBlock);
+            out.writeLong(aggregate);
+            Varint.write(out, records.size());
+            for (Map.Entry<String, Record> entry : records.entrySet()) {
+                Record record = entry.getValue();
+                out.writeUTF(entry.getKey());
+                Varint.write(out, record.size);
+                out.writeLong(record.modified);
+                out.writeLong(record.hash);
+                Varint.write(out, record.block);
+            }
+        }
+        Files.move(temp, index, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void writeBlock(long block, WordCountMap counts) throws IOException {
+        try (CountFile.Writer writer = new CountFile.Writer(block(block), true)) {
+            for (int id : WordOrder.sortedIds(counts)) {
+                writer.add(counts.arena(), counts.offset(id), counts.length(id), counts.count(id));
+            }
+        }
+    }
+
+    private Path blocks() {
+        return directory.resolve("blocks");
+    }
+
+    private Path block(long block) {
+        return blocks().resolve(Long.toString(block));
+    }
+
+    private static DataInputStream open(Path path) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(path)));
+    }
+
+    private static long crc(Path file) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] buffer = new byte[Tokenizer.BUFFER_SIZE];
+        try (InputStream in = Files.newInputStream(file)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+            }
+        }
+        return crc.getValue();
+    }
+}
@@ -0,0 +1,244 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads small files on a dedicated pool of I/O threads and hands their bytes to the
+ * fork/join pool for tokenizing.
+ *
+ * On network file systems most of the time spent on a small file is blocked in open and read.
+ * Doing that on the core sized pool leaves cores idle, so the number of reads in progress
+ * is set by the I/O pool size instead, while tokenizing stays on the core sized pool.
+ * At most four files per I/O thread are held in memory between reading and tokenizing, and at
+ * most {@link #QUEUED_PER_THREAD} per thread wait to be read.
+ */
+@ThreadSafe
+public class IoReader {
+
+    /**
+     * Files up to this size are read whole by the I/O pool. Larger files are streamed by the counting tasks.
+     */
+    public static final long SMALL_FILE_LIMIT = 1024 * 1024;
+
+    /**
+     * Files queued for each I/O thread before submitting waits.
+     */
+    private static final int QUEUED_PER_THREAD = 64;
+
+    private final ExecutorService io;
+    private final ForkJoinPool cpu;
+    private final Aggregator aggregator;
+    private final TokenizerConfig tokenizer;
+    private final Queue<FailedToCountFile> failures;
+    private final Semaphore inFlight;
+
+    private final Object lock = new Object();
+    private long outstanding;
+    private Throwable failure;
+
+    /**
+     *
+     * @param threads the number of I/O threads.
+     * @param cpu the pool that tokenizes.
+     * @param aggregator receives the counts of each file.
+     * @param tokenizer how words are separated.
+     * @param failures receives the files that cannot be read, which do not fail {@link #await()}.
+     */
+    public IoReader(int threads, ForkJoinPool cpu, Aggregator aggregator, TokenizerConfig tokenizer,
+                    Queue<FailedToCountFile> failures) {
+        this.io = boundedPool(threads, "pdchallenge-io-");
+        this.cpu = cpu;
+        this.aggregator = aggregator;
+        this.tokenizer = tokenizer;
+        this.failures = failures;
+        this.inFlight = new Semaphore(threads * 4);
+    }
+
+    /**
+     * A pool of daemon threads with room for {@link #QUEUED_PER_THREAD} tasks per thread.
+     * Executing a task while the queue is full waits for room, as a managed blocker when the
+     * caller is a fork/join worker, so a walk cannot queue more files than the readers keep up with.
+     *
+     * @param threads the number of threads.
+     * @param name the prefix of the thread names.
+     */
+    static ExecutorService boundedPool(int threads, final String name) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUED_PER_THREAD), new ThreadFactory() {
+            private final AtomicInteger number = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + number.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new RejectedExecutionHandler() {
+            @Override
+            public void rejectedExecution(final Runnable r, final ThreadPoolExecutor executor) {
+                if (executor.isShutdown()) {
+                    throw new RejectedExecutionException("reader is shut down");
+                }
+                // wait for room; a fork/join worker lets its pool add a thread meanwhile
+                try {
+                    ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                        private boolean queued;
+
+                        @Override
+                        public boolean block() throws InterruptedException {
+                            executor.getQueue().put(r);
+                            queued = true;
+                            return true;
+                        }
+
+                        @Override
+                        public boolean isReleasable() {
+                            return queued || (queued = executor.getQueue().offer(r));
+                        }
+                    });
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new RejectedExecutionException(ex);
+                }
+            }
+        });
+    }
+
+    /**
+     * Queue a file to be read and counted. Returns once the file is queued; when the queue is
+     * full the caller waits, as a managed blocker when it is a fork/join worker.
+     */
+    public void submit(final Path path) {
+        synchronized (lock) {
+            outstanding++;
+        }
+        try {
+            io.execute(new Runnable() {
+                @Override
+                public void run() {
+                    read(path);
+                }
+            });
+        } catch (RuntimeException ex) {
+            done(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Read a file on an I/O thread and hand its bytes to the fork/join pool.
+     * The file is marked done here unless the tokenizing task has taken it over.
+     */
+    private void read(final Path path) {
+        final long started = System.nanoTime();
+        boolean acquired = false;
+        boolean handedOff = false;
+        Throwable failure = null;
+        try {
+            inFlight.acquire();
+            acquired = true;
+            final byte[] bytes = Files.readAllBytes(path);
+            cpu.execute(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    Throwable failure = null;
+                    try {
+                        // detects compressed, binary and non UTF-8 content
+                        WordCountMap counts = WordCountTask.countWords(new ByteArrayInputStream(bytes), tokenizer);
+                        long merging = System.nanoTime();
+                        aggregator.accept(counts);
+                        Metrics.INSTANCE.merged(counts.tokens(), started, merging);
+                        Metrics.INSTANCE.filesDone.increment();
+                    } catch (IOException ex) {
+                        Metrics.INSTANCE.filesFailed.increment();
+                        failure = new FailedToCountFile(path, ex);
+                    } catch (Throwable t) {
+                        failure = t;
+                    } finally {
+                        inFlight.release();
+                        done(failure);
+                    }
+                }
+            });
+            handedOff = true;
+        } catch (IOException ex) {
+            Metrics.INSTANCE.filesFailed.increment();
+            failure = new FailedToCountFile(path, ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failure = ex;
+        } catch (Throwable t) {
+            failure = t;
+        } finally {
+            if (!handedOff) {
+                if (acquired) {
+                    inFlight.release();
+                }
+                done(failure);
+            }
+        }
+    }
+
+    /**
+     * Wait until every submitted file has been counted.
+     *
+     * @throws ExecutionException wrapping the first failure.
+     */
+    public void await() throws InterruptedException, ExecutionException {
+        synchronized (lock) {
+            while (outstanding > 0) {
+                lock.wait();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+        }
+    }
+
+    /**
+     * @return files submitted and not yet counted.
+     */
+    public long pending() {
+        synchronized (lock) {
+            return outstanding;
+        }
+    }
+
+    public void shutdown() {
+        io.shutdown();
+    }
+
+    private void done(Throwable t) {
+        if (t instanceof FailedToCountFile) {
+            failures.add((FailedToCountFile) t);
+            t = null;
+        }
+        synchronized (lock) {
+            if (t != null && failure == null) {
+                failure = t;
+            }
+            if (--outstanding == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+}
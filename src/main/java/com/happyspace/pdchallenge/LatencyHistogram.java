@@ -0,0 +1,73 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations in power of two nanosecond buckets.
+ *
+ * Recording is one striped atomic add. Percentiles are reported as the upper bound
+ * of the bucket they fall in, so they are accurate to within a factor of two.
+ */
+@ThreadSafe
+public class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final AtomicLongArray cells = new AtomicLongArray(StripedCounter.STRIPES * BUCKETS);
+
+    /**
+     * Record one duration.
+     */
+    public void record(long nanos) {
+        int bucket = BUCKETS - Long.numberOfLeadingZeros(Math.max(1, nanos));
+        cells.getAndIncrement(StripedCounter.stripe() * BUCKETS + Math.min(bucket, BUCKETS - 1));
+    }
+
+    /**
+     * Forget every recorded duration.
+     */
+    public void reset() {
+        for (int i = 0; i < cells.length(); i++) {
+            cells.set(i, 0);
+        }
+    }
+
+    /**
+     * @return the number of recorded durations.
+     */
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < cells.length(); i++) {
+            count += cells.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * @param percentile between 0 and 100.
+     * @return an upper bound in nanoseconds for the given percentile, zero if empty.
+     */
+    public long percentile(double percentile) {
+        long[] buckets = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < cells.length(); i++) {
+            long c = cells.get(i);
+            buckets[i % BUCKETS] += c;
+            count += c;
+        }
+        if (count == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            seen += buckets[b];
+            if (seen >= rank) {
+                return b >= 63 ? Long.MAX_VALUE : 1L << b;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
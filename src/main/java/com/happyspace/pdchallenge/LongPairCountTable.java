@@ -0,0 +1,159 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * Counts by a key of two longs, not both zero, in primitive arrays, open addressed with
+ * linear probing. No object is allocated per key.
+ *
+ * Slots are read directly, from 0 to {@link #capacity()}, skipping slots whose key is zero.
+ */
+@NotThreadSafe
+public class LongPairCountTable {
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /**
+     * A cleared table larger than this is given up rather than zeroed, so one large input
+     * does not make every later clear expensive.
+     */
+    private static final int RETAINED_CAPACITY = 64 * 1024;
+
+    private long[] highs;
+    private long[] lows;
+    private long[] counts;
+    private int mask;
+    private int size;
+
+    public LongPairCountTable() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Add 'delta' to the count of a key, inserting it if it is new.
+     *
+     * @param high the high half of the key.
+     * @param low the low half of the key, not zero when the high half is zero.
+     */
+    public void add(long high, long low, long delta) {
+        int slot = index(high, low);
+        while (true) {
+            long h = highs[slot];
+            long l = lows[slot];
+            if (h == high && l == low) {
+                counts[slot] += delta;
+                return;
+            }
+            if (h == 0 && l == 0) {
+                highs[slot] = high;
+                lows[slot] = low;
+                counts[slot] = delta;
+                if (++size * 2 > highs.length) {
+                    rehash();
+                }
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * @return the count of a key, zero if it is absent.
+     */
+    public long count(long high, long low) {
+        int slot = index(high, low);
+        while (highs[slot] != 0 || lows[slot] != 0) {
+            if (highs[slot] == high && lows[slot] == low) {
+                return counts[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return 0;
+    }
+
+    /**
+     * @return the number of distinct keys.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the number of slots.
+     */
+    public int capacity() {
+        return highs.length;
+    }
+
+    /**
+     * @return the high half of the key in a slot.
+     */
+    public long high(int slot) {
+        return highs[slot];
+    }
+
+    /**
+     * @return the low half of the key in a slot. Both halves are zero if the slot is empty.
+     */
+    public long low(int slot) {
+        return lows[slot];
+    }
+
+    /**
+     * @return the count in a slot.
+     */
+    public long countAt(int slot) {
+        return counts[slot];
+    }
+
+    /**
+     * Remove every key.
+     */
+    public void clear() {
+        if (size == 0) {
+            return;
+        }
+        if (highs.length > RETAINED_CAPACITY) {
+            allocate(INITIAL_CAPACITY);
+        }
+        else {
+            Arrays.fill(highs, 0);
+            Arrays.fill(lows, 0);
+        }
+        size = 0;
+    }
+
+    private int index(long high, long low) {
+        long h = (high * 0x9E3779B97F4A7C15L + low) * 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void allocate(int capacity) {
+        highs = new long[capacity];
+        lows = new long[capacity];
+        counts = new long[capacity];
+        mask = capacity - 1;
+    }
+
+    private void rehash() {
+        long[] oldHighs = highs;
+        long[] oldLows = lows;
+        long[] oldCounts = counts;
+        allocate(oldHighs.length * 2);
+        for (int i = 0; i < oldHighs.length; i++) {
+            long high = oldHighs[i];
+            long low = oldLows[i];
+            if (high != 0 || low != 0) {
+                int slot = index(high, low);
+                while (highs[slot] != 0 || lows[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                highs[slot] = high;
+                lows[slot] = low;
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+}
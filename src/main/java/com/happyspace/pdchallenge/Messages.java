@@ -25,9 +25,47 @@ public class Messages {
     // formatted method
     protected static String WORDS_HEADER_FORMAT = "Top %d words: \n";
 
+    // formatted method, written when a worker is ready
+    protected static String WORKER_LISTENING_FORMAT = "worker listening on port %d \n";
+
+    // formatted method, header of each report in tail mode
+    protected static String WINDOW_HEADER_FORMAT = "Top %2$d words in the window ending %1$tT: \n";
+
     // formatted method
     protected static String WORDS_ITEM_FORMAT = "word '%s' occurred %d times \n";
 
+    // formatted method
+    protected static String ERROR_BOUND_FORMAT = "counts are within %d of the exact value \n";
+
+    // formatted method, a file left out of the counts, written to stderr
+    protected static String FILE_FAILED_FORMAT = "could not count %s: %s%n";
+
+    protected static String INVALID_ENGINE = "Unknown aggregation engine. \n" +
+            "Use -D" + App.ENGINE_PROPERTY + "=exact, -D" + App.ENGINE_PROPERTY + "=off_heap, -D" +
+            App.ENGINE_PROPERTY + "=spill or -D" + App.ENGINE_PROPERTY + "=approximate";
+
+    protected static String INVALID_NORMALIZE = "Normalization must be given as stages from case, words, stop, stem " +
+            "or all, for example -D" + App.NORMALIZE_PROPERTY + "=case,words \n";
+
+    protected static String INVALID_NGRAMS = "Phrases must be given as a number of words from 1 to " + NGramSink.MAX_N +
+            ", for example -D" + App.NGRAMS_PROPERTY + "=2 \n";
+
+    protected static String INVALID_WALK = "Invalid file filter. Globs are given as -D" + App.INCLUDE_PROPERTY +
+            "=*.log,*.txt and sizes and ages as whole numbers \n";
+
+    protected static String INVALID_MERGE = "Expected the maximum number of words, the merged file and the count " +
+            "files to merge. The merged file must not be one of them. \n" +
+            "Usage: merge 5 /tmp/all.pdc /tmp/monday.pdc /tmp/tuesday.pdc";
+
+    protected static String OUTPUT_NOT_EXACT = "The approximate engine does not keep every word, -D" +
+            App.OUTPUT_PROPERTY + " needs another engine \n";
+
+    protected static String INVALID_WORKERS = "Workers must be given as host:port[,host:port...] \n";
+
+    // formatted method, progress line written to stderr
+    protected static String PROGRESS_FORMAT = "files %d/%d failed %d, %d MB, %d tokens (%d/s), " +
+            "queued %d, merge %d ms, distinct %d, file latency p50 %d us p99 %d us%n";
+
     // general error message
     protected static String EXECUTION_FAILED = "Unexpected error: program encountered and unexpected problem.";
 
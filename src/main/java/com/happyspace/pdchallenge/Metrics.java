@@ -0,0 +1,180 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Process wide instrumentation of the counting pipeline.
+ *
+ * Counters are striped and updated once per file or chunk, never per token,
+ * so collection costs nothing measurable on the hot path. Gauges that belong to
+ * a single run, such as queue depth, are read through probes installed by that run.
+ * Every run resets the counters when it begins, so they describe the latest run; runs
+ * that overlap share them.
+ */
+@ThreadSafe
+public final class Metrics implements MetricsMXBean {
+
+    /**
+     * Reads a value owned by another component.
+     */
+    public interface Gauge {
+        long value();
+    }
+
+    private static final Gauge NONE = new Gauge() {
+        @Override
+        public long value() {
+            return -1;
+        }
+    };
+
+    public static final Metrics INSTANCE = new Metrics();
+
+    final StripedCounter filesDiscovered = new StripedCounter();
+    final StripedCounter filesDone = new StripedCounter();
+    final StripedCounter filesFailed = new StripedCounter();
+    final StripedCounter filesSkipped = new StripedCounter();
+    final StripedCounter walkErrors = new StripedCounter();
+    final StripedCounter bytesRead = new StripedCounter();
+    final StripedCounter tokens = new StripedCounter();
+    final StripedCounter mergeNanos = new StripedCounter();
+    final LatencyHistogram fileLatency = new LatencyHistogram();
+
+    private volatile long started = System.nanoTime();
+    private volatile Gauge queueDepth = NONE;
+    private volatile Gauge distinctWords = NONE;
+
+    private Metrics() {
+    }
+
+    /**
+     * Zero every counter and the latency histogram, at the beginning of a run.
+     */
+    public void reset() {
+        filesDiscovered.reset();
+        filesDone.reset();
+        filesFailed.reset();
+        filesSkipped.reset();
+        walkErrors.reset();
+        bytesRead.reset();
+        tokens.reset();
+        mergeNanos.reset();
+        fileLatency.reset();
+        started = System.nanoTime();
+    }
+
+    /**
+     * Mark the start of a run, used for rates, and install the gauges of that run.
+     */
+    public void start(Gauge queueDepth, Gauge distinctWords) {
+        this.started = System.nanoTime();
+        this.queueDepth = queueDepth;
+        this.distinctWords = distinctWords;
+    }
+
+    /**
+     * Record a file or chunk whose counts have been merged.
+     *
+     * @param tokenCount tokens counted.
+     * @param startNanos when work on the file started.
+     * @param mergeStartNanos when the merge into the aggregator started.
+     */
+    public void merged(long tokenCount, long startNanos, long mergeStartNanos) {
+        long now = System.nanoTime();
+        tokens.add(tokenCount);
+        mergeNanos.add(now - mergeStartNanos);
+        fileLatency.record(now - startNanos);
+    }
+
+    /**
+     * Register with the platform MBean server, once per process.
+     */
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("com.happyspace.pdchallenge:type=Metrics");
+            synchronized (Metrics.class) {
+                if (!server.isRegistered(name)) {
+                    server.registerMBean(INSTANCE, name);
+                }
+            }
+        } catch (JMException e) {
+            // monitoring is optional, counting goes on without it
+        }
+    }
+
+    @Override
+    public long getFilesDiscovered() {
+        return filesDiscovered.sum();
+    }
+
+    @Override
+    public long getFilesDone() {
+        return filesDone.sum();
+    }
+
+    @Override
+    public long getFilesFailed() {
+        return filesFailed.sum();
+    }
+
+    @Override
+    public long getFilesSkipped() {
+        return filesSkipped.sum();
+    }
+
+    @Override
+    public long getWalkErrors() {
+        return walkErrors.sum();
+    }
+
+    @Override
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    @Override
+    public long getTokens() {
+        return tokens.sum();
+    }
+
+    @Override
+    public long getTokensPerSecond() {
+        long elapsed = System.nanoTime() - started;
+        if (elapsed <= 0) {
+            return 0;
+        }
+        return (long) (tokens.sum() / (elapsed / 1e9));
+    }
+
+    @Override
+    public long getFileLatencyP50Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(fileLatency.percentile(50));
+    }
+
+    @Override
+    public long getFileLatencyP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(fileLatency.percentile(99));
+    }
+
+    @Override
+    public long getQueueDepth() {
+        return queueDepth.value();
+    }
+
+    @Override
+    public long getMergeTimeMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(mergeNanos.sum());
+    }
+
+    @Override
+    public long getDistinctWords() {
+        return distinctWords.value();
+    }
+}
@@ -0,0 +1,49 @@
+package com.happyspace.pdchallenge;
+
+/**
+ * Progress and hot path counters published over JMX as
+ * {@code com.happyspace.pdchallenge:type=Metrics}.
+ */
+public interface MetricsMXBean {
+
+    long getFilesDiscovered();
+
+    long getFilesDone();
+
+    long getFilesFailed();
+
+    /**
+     * @return files not counted because they are binary.
+     */
+    long getFilesSkipped();
+
+    long getWalkErrors();
+
+    long getBytesRead();
+
+    long getTokens();
+
+    /**
+     * @return tokens counted per second since the run started.
+     */
+    long getTokensPerSecond();
+
+    long getFileLatencyP50Micros();
+
+    long getFileLatencyP99Micros();
+
+    /**
+     * @return tasks waiting in the worker and I/O queues.
+     */
+    long getQueueDepth();
+
+    /**
+     * @return time spent merging counts into the aggregator, summed over all workers.
+     */
+    long getMergeTimeMillis();
+
+    /**
+     * @return distinct words held by the aggregator, or -1 if the aggregator cannot tell.
+     */
+    long getDistinctWords();
+}
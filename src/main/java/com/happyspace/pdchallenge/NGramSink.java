@@ -0,0 +1,177 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Arrays;
+
+/**
+ * Counts runs of n consecutive tokens instead of single tokens.
+ *
+ * Each distinct token of the input gets a dense int id, and the ids of the last n tokens are
+ * packed 32 bits each into a key of two longs, which is counted in a {@link LongPairCountTable}.
+ * No phrase is built while counting. When the input ends each distinct n-gram is written
+ * once to the sink as its tokens joined by a space, with its count, so the aggregators
+ * handle phrases as they handle words.
+ *
+ * Unless n-grams cross lines, a line break starts a new n-gram.
+ *
+ * A chunk of a larger input is continued past its end by an overlap of up to n-1 tokens, which
+ * only complete the n-grams that started in the chunk. An n-gram that starts in the overlap is
+ * counted by the next chunk, so chunks counted apart add up to the whole input.
+ */
+@NotThreadSafe
+public final class NGramSink implements Tokenizer.TokenSink, Tokenizer.Boundaries {
+
+    /**
+     * The longest n-gram, whose ids fill both longs of a key.
+     */
+    public static final int MAX_N = 4;
+
+    private static final long ID_MASK = 0xFFFFFFFFL;
+
+    private final int n;
+    private final boolean crossLines;
+    private final Tokenizer.TokenSink sink;
+    private final long highMask;
+
+    private final WordCountMap words = new WordCountMap();
+    private final LongPairCountTable grams = new LongPairCountTable();
+
+    /**
+     * Ids plus one of the last tokens, the latest in the low bits of the low half.
+     */
+    private long high;
+    private long low;
+    private int filled;
+    private long tokens;
+    private byte[] phrase = new byte[64];
+
+    /**
+     * Tokens still needed to complete the n-grams started before an overlap, -1 outside one.
+     */
+    private int overlap = -1;
+
+    /**
+     *
+     * @param n tokens per n-gram, from 2 to {@link #MAX_N}.
+     * @param crossLines whether an n-gram may continue on the next line.
+     * @param sink receives each n-gram and its count. A {@link WordCountMap} is given the count at once.
+     */
+    public NGramSink(int n, boolean crossLines, Tokenizer.TokenSink sink) {
+        if (n < 2 || n > MAX_N) {
+            throw new IllegalArgumentException("n must be from 2 to " + MAX_N + ": " + n);
+        }
+        this.n = n;
+        this.crossLines = crossLines;
+        this.sink = sink;
+        // the ids past the first two in the high half
+        this.highMask = n == 2 ? 0 : n == 3 ? ID_MASK : -1L;
+    }
+
+    @Override
+    public void token(byte[] bytes, int offset, int length) {
+        if (overlap == 0) {
+            return;
+        }
+        // ids are stored plus one so that no key is zero
+        long id = words.add(bytes, offset, length, 1) + 1L;
+        if (overlap > 0) {
+            overlap--;
+        }
+        else {
+            tokens++;
+        }
+        high = ((high << 32) | (low >>> 32)) & highMask;
+        low = (low << 32) | id;
+        if (filled < n) {
+            filled++;
+        }
+        if (filled == n) {
+            grams.add(high, low, 1);
+        }
+    }
+
+    @Override
+    public void lineBreak() {
+        if (!crossLines) {
+            reset();
+            if (overlap > 0) {
+                // nothing that started before can continue
+                overlap = 0;
+            }
+        }
+    }
+
+    /**
+     * Only complete the n-grams started so far. Once they are complete, further tokens are ignored.
+     */
+    @Override
+    public void overlap() {
+        overlap = filled > 0 ? n - 1 : 0;
+    }
+
+    @Override
+    public boolean overlapDone() {
+        return overlap == 0;
+    }
+
+    /**
+     * Write out the n-grams of the input and start again.
+     */
+    @Override
+    public void end() {
+        emit();
+        reset();
+        words.clear();
+        overlap = -1;
+    }
+
+    /**
+     * Forget the tokens of the current n-gram, so the next token starts a new one.
+     */
+    public void reset() {
+        filled = 0;
+        high = 0;
+        low = 0;
+    }
+
+    private void emit() {
+        WordCountMap counts = sink instanceof WordCountMap ? (WordCountMap) sink : null;
+        byte[] arena = words.arena();
+        for (int slot = 0; slot < grams.capacity(); slot++) {
+            long keyHigh = grams.high(slot);
+            long keyLow = grams.low(slot);
+            if (keyHigh == 0 && keyLow == 0) {
+                continue;
+            }
+            int length = 0;
+            for (int j = n - 1; j >= 0; j--) {
+                long half = j < 2 ? keyLow : keyHigh;
+                int id = (int) ((half >>> ((j & 1) * 32)) & ID_MASK) - 1;
+                int wordLength = words.length(id);
+                if (phrase.length < length + wordLength + 1) {
+                    phrase = Arrays.copyOf(phrase, Math.max(phrase.length * 2, length + wordLength + 1));
+                }
+                System.arraycopy(arena, words.offset(id), phrase, length, wordLength);
+                length += wordLength;
+                if (j > 0) {
+                    phrase[length++] = ' ';
+                }
+            }
+            long count = grams.countAt(slot);
+            if (counts != null) {
+                counts.add(phrase, 0, length, count);
+            }
+            else {
+                for (long i = 0; i < count; i++) {
+                    sink.token(phrase, 0, length);
+                }
+            }
+        }
+        grams.clear();
+        if (counts != null) {
+            counts.addTokens(tokens);
+        }
+        tokens = 0;
+    }
+}
@@ -0,0 +1,394 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.text.BreakIterator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Normalizes tokens before they are counted.
+ *
+ * Each stage is optional and all are off unless enabled:
+ *      case folding, so that "Word" and "word" are one word.
+ *      word segmentation, which strips punctuation and splits a token at word boundaries,
+ *          so that "word," and "word." are counted as "word".
+ *      stop word filtering, which drops common words after folding.
+ *      light stemming, which removes plural endings such as "-s", "-es" and "-ies".
+ *
+ * Tokens made only of ASCII bytes, the common case in logs, take a table driven path on the
+ * raw bytes. Only tokens that contain a non-ASCII byte are decoded, segmented with a
+ * {@link BreakIterator} and folded with {@link String#toLowerCase(Locale)}. The ASCII rules
+ * follow the break iterator: apostrophes, periods and hyphens join letters and digits,
+ * commas join digits, and underscores are part of words.
+ */
+@Immutable
+public final class Normalizer {
+
+    /**
+     * Common English words, for use as stop words.
+     */
+    public static final List<String> ENGLISH_STOP_WORDS = Collections.unmodifiableList(Arrays.asList(
+            "a", "an", "and", "are", "as", "at", "be", "but", "by", "for", "if", "in", "into", "is", "it",
+            "no", "not", "of", "on", "or", "such", "that", "the", "their", "then", "there", "these",
+            "they", "this", "to", "was", "will", "with"));
+
+    /**
+     * Counts tokens as they are.
+     */
+    public static final Normalizer NONE = new Builder().build();
+
+    private static final byte OTHER = 0;
+    private static final byte LETTER = 1;
+    private static final byte DIGIT = 2;
+
+    private static final byte[] CLASS = new byte[128];
+    private static final byte[] LOWER = new byte[128];
+
+    static {
+        for (int c = 0; c < 128; c++) {
+            LOWER[c] = (byte) c;
+        }
+        for (int c = 'a'; c <= 'z'; c++) {
+            CLASS[c] = LETTER;
+        }
+        for (int c = 'A'; c <= 'Z'; c++) {
+            CLASS[c] = LETTER;
+            LOWER[c] = (byte) (c + 'a' - 'A');
+        }
+        for (int c = '0'; c <= '9'; c++) {
+            CLASS[c] = DIGIT;
+        }
+        CLASS['_'] = LETTER;
+    }
+
+    private final boolean foldCase;
+    private final boolean words;
+    private final boolean stem;
+    private final byte[][] stopWords;
+
+    private Normalizer(Builder builder) {
+        this.foldCase = builder.foldCase;
+        this.words = builder.words;
+        this.stem = builder.stem;
+        this.stopWords = stopTable(builder.stopWords);
+    }
+
+    /**
+     * @return true if any stage is enabled.
+     */
+    public boolean enabled() {
+        return foldCase || words || stem || stopWords.length > 0;
+    }
+
+    /**
+     * Write the enabled stages and the stop words, sorted, so that equal normalizers write equal bytes.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeBoolean(foldCase);
+        out.writeBoolean(words);
+        out.writeBoolean(stem);
+        List<String> stops = new ArrayList<>();
+        for (byte[] stop : stopWords) {
+            if (stop != null) {
+                stops.add(new String(stop, StandardCharsets.UTF_8));
+            }
+        }
+        Collections.sort(stops);
+        Varint.write(out, stops.size());
+        for (String stop : stops) {
+            out.writeUTF(stop);
+        }
+    }
+
+    /**
+     * Read a normalizer written by {@link #writeTo(DataOutput)}.
+     */
+    static Normalizer readFrom(DataInput in) throws IOException {
+        Builder builder = new Builder().foldCase(in.readBoolean()).words(in.readBoolean()).stem(in.readBoolean());
+        int stops = (int) Varint.read(in);
+        List<String> stopWords = new ArrayList<>(stops);
+        for (int i = 0; i < stops; i++) {
+            stopWords.add(in.readUTF());
+        }
+        return builder.stopWords(stopWords).build();
+    }
+
+    /**
+     * @param sink receives the normalized tokens.
+     * @return a sink that normalizes each token before passing it on. Not thread safe.
+     */
+    public Tokenizer.TokenSink newSink(Tokenizer.TokenSink sink) {
+        return new NormalizingSink(sink);
+    }
+
+    @NotThreadSafe
+    private final class NormalizingSink implements Tokenizer.TokenSink {
+
+        private final Tokenizer.TokenSink sink;
+        private byte[] scratch = new byte[64];
+        private BreakIterator boundaries;
+
+        NormalizingSink(Tokenizer.TokenSink sink) {
+            this.sink = sink;
+        }
+
+        @Override
+        public void token(byte[] bytes, int offset, int length) {
+            int end = offset + length;
+            int high = 0;
+            for (int i = offset; i < end; i++) {
+                high |= bytes[i];
+            }
+            if ((high & 0x80) == 0) {
+                ascii(bytes, offset, end);
+            }
+            else if (foldCase || words) {
+                unicode(new String(bytes, offset, length, StandardCharsets.UTF_8));
+            }
+            else {
+                emit(bytes, offset, length);
+            }
+        }
+
+        private void ascii(byte[] bytes, int offset, int end) {
+            if (!words) {
+                segment(bytes, offset, end);
+                return;
+            }
+            int start = -1;
+            for (int i = offset; i < end; i++) {
+                byte type = CLASS[bytes[i]];
+                if (type != OTHER) {
+                    if (start < 0) {
+                        start = i;
+                    }
+                }
+                else if (start >= 0 && !joins(bytes, i, end)) {
+                    segment(bytes, start, i);
+                    start = -1;
+                }
+            }
+            if (start >= 0) {
+                segment(bytes, start, end);
+            }
+        }
+
+        private void segment(byte[] bytes, int start, int end) {
+            int length = end - start;
+            if (!foldCase) {
+                emit(bytes, start, length);
+                return;
+            }
+            if (length > scratch.length) {
+                scratch = new byte[Math.max(length, scratch.length * 2)];
+            }
+            for (int i = 0; i < length; i++) {
+                scratch[i] = LOWER[bytes[start + i]];
+            }
+            emit(scratch, 0, length);
+        }
+
+        private void unicode(String token) {
+            if (!words) {
+                encode(token);
+                return;
+            }
+            if (boundaries == null) {
+                boundaries = BreakIterator.getWordInstance(Locale.ROOT);
+            }
+            boundaries.setText(token);
+            int start = boundaries.first();
+            for (int end = boundaries.next(); end != BreakIterator.DONE; start = end, end = boundaries.next()) {
+                for (int i = start; i < end; i = token.offsetByCodePoints(i, 1)) {
+                    if (Character.isLetterOrDigit(token.codePointAt(i))) {
+                        encode(token.substring(start, end));
+                        break;
+                    }
+                }
+            }
+        }
+
+        private void encode(String word) {
+            byte[] bytes = (foldCase ? word.toLowerCase(Locale.ROOT) : word).getBytes(StandardCharsets.UTF_8);
+            emit(bytes, 0, bytes.length);
+        }
+
+        private void emit(byte[] bytes, int offset, int length) {
+            if (stopWords.length > 0 && isStopWord(bytes, offset, length)) {
+                return;
+            }
+            if (stem) {
+                if (bytes != scratch) {
+                    if (length > scratch.length) {
+                        scratch = new byte[Math.max(length, scratch.length * 2)];
+                    }
+                    System.arraycopy(bytes, offset, scratch, 0, length);
+                    bytes = scratch;
+                    offset = 0;
+                }
+                length = stem(scratch, length);
+            }
+            sink.token(bytes, offset, length);
+        }
+    }
+
+    /**
+     * @return true if the non word byte at 'i' sits inside a word, as the break iterator would have it.
+     */
+    private static boolean joins(byte[] bytes, int i, int end) {
+        if (i + 1 >= end) {
+            return false;
+        }
+        byte before = CLASS[bytes[i - 1]];
+        byte after = CLASS[bytes[i + 1]];
+        if (before == OTHER || after == OTHER) {
+            return false;
+        }
+        switch (bytes[i]) {
+            case '\'':
+            case '.':
+            case '-':
+                return true;
+            case ',':
+                return before == DIGIT && after == DIGIT;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Remove a plural ending in place, keeping at least three bytes.
+     *
+     * @return the length of the stem.
+     */
+    static int stem(byte[] word, int length) {
+        if (length <= 3 || word[length - 1] != 's') {
+            return length;
+        }
+        byte last = word[length - 2];
+        if (length > 4 && last == 'e' && word[length - 3] == 'i') {
+            byte before = word[length - 4];
+            if (before != 'a' && before != 'e') {
+                word[length - 3] = 'y';
+                return length - 2;
+            }
+            return length;
+        }
+        if (length > 4 && last == 'e') {
+            byte before = word[length - 3];
+            if (before == 's' || before == 'x' || before == 'z'
+                    || (before == 'h' && (word[length - 4] == 'c' || word[length - 4] == 's'))) {
+                return length - 2;
+            }
+        }
+        if (last == 's' || last == 'u' || last == 'i') {
+            return length;
+        }
+        return length - 1;
+    }
+
+    private boolean isStopWord(byte[] bytes, int offset, int length) {
+        int mask = stopWords.length - 1;
+        for (int slot = hash(bytes, offset, length) & mask; stopWords[slot] != null; slot = (slot + 1) & mask) {
+            byte[] stop = stopWords[slot];
+            if (stop.length == length && equals(stop, bytes, offset)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean equals(byte[] stop, byte[] bytes, int offset) {
+        for (int i = 0; i < stop.length; i++) {
+            if (stop[i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0x811C9DC5;
+        for (int i = offset; i < offset + length; i++) {
+            hash = (hash ^ bytes[i]) * 0x01000193;
+        }
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * @return an open addressed table of the words, empty if there are none.
+     */
+    private static byte[][] stopTable(Collection<String> words) {
+        if (words.isEmpty()) {
+            return new byte[0][];
+        }
+        byte[][] table = new byte[Integer.highestOneBit(words.size() * 2) * 2][];
+        int mask = table.length - 1;
+        for (String word : words) {
+            byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+            int slot = hash(bytes, 0, bytes.length) & mask;
+            while (table[slot] != null && !Arrays.equals(table[slot], bytes)) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = bytes;
+        }
+        return table;
+    }
+
+    /**
+     * Builds a normalizer. Every stage starts disabled.
+     */
+    public static final class Builder {
+
+        private boolean foldCase;
+        private boolean words;
+        private boolean stem;
+        private Collection<String> stopWords = Collections.emptyList();
+
+        /**
+         * @param foldCase count words regardless of case.
+         */
+        public Builder foldCase(boolean foldCase) {
+            this.foldCase = foldCase;
+            return this;
+        }
+
+        /**
+         * @param words strip punctuation and split tokens at word boundaries.
+         */
+        public Builder words(boolean words) {
+            this.words = words;
+            return this;
+        }
+
+        /**
+         * @param stopWords words to drop, compared after case folding.
+         */
+        public Builder stopWords(Collection<String> stopWords) {
+            this.stopWords = stopWords;
+            return this;
+        }
+
+        /**
+         * @param stem strip plural endings.
+         */
+        public Builder stem(boolean stem) {
+            this.stem = stem;
+            return this;
+        }
+
+        public Normalizer build() {
+            return new Normalizer(this);
+        }
+    }
+}
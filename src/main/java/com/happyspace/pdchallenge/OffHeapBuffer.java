@@ -0,0 +1,128 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A growable, long addressed byte array made of off-heap segments.
+ *
+ * A buffer starts as one small segment that doubles, copying, until it reaches
+ * {@link #MAX_SEGMENT}. After that whole segments are appended and nothing is copied again.
+ */
+@NotThreadSafe
+final class OffHeapBuffer {
+
+    static final int MAX_SEGMENT_SHIFT = 26;
+    static final int MAX_SEGMENT = 1 << MAX_SEGMENT_SHIFT;
+    private static final int MAX_SEGMENT_MASK = MAX_SEGMENT - 1;
+
+    private final OffHeapMemory memory;
+    private ByteBuffer[] segments;
+    private int count;
+
+    OffHeapBuffer(OffHeapMemory memory, int initialSize) {
+        this.memory = memory;
+        this.segments = new ByteBuffer[] {memory.allocate(Math.min(MAX_SEGMENT, initialSize))};
+        this.count = 1;
+    }
+
+    long capacity() {
+        return (long) segments[0].capacity() * count;
+    }
+
+    /**
+     * Grow until at least 'bytes' are addressable. New space is zeroed.
+     */
+    void ensure(long bytes) {
+        while (capacity() < bytes) {
+            ByteBuffer first = segments[0];
+            if (count == 1 && first.capacity() < MAX_SEGMENT) {
+                ByteBuffer larger = memory.allocate(first.capacity() * 2);
+                first.clear();
+                larger.put(first);
+                memory.release(first);
+                segments[0] = larger;
+            }
+            else {
+                if (count == segments.length) {
+                    segments = Arrays.copyOf(segments, count * 2);
+                }
+                segments[count++] = memory.allocate(MAX_SEGMENT);
+            }
+        }
+    }
+
+    /**
+     * Release every segment.
+     */
+    void free() {
+        for (int i = 0; i < count; i++) {
+            memory.release(segments[i]);
+            segments[i] = null;
+        }
+        count = 0;
+    }
+
+    /**
+     * @return where a run of 'length' bytes starting at 'position' may be stored
+     * without crossing a segment boundary.
+     */
+    long align(long position, int length) {
+        if (count == 1 && segments[0].capacity() < MAX_SEGMENT) {
+            return position;
+        }
+        if ((position & MAX_SEGMENT_MASK) + length > MAX_SEGMENT) {
+            return (position | MAX_SEGMENT_MASK) + 1;
+        }
+        return position;
+    }
+
+    byte get(long address) {
+        return segment(address).get(offset(address));
+    }
+
+    int getInt(long address) {
+        return segment(address).getInt(offset(address));
+    }
+
+    void putInt(long address, int value) {
+        segment(address).putInt(offset(address), value);
+    }
+
+    long getLong(long address) {
+        return segment(address).getLong(offset(address));
+    }
+
+    void putLong(long address, long value) {
+        segment(address).putLong(offset(address), value);
+    }
+
+    /**
+     * Copy bytes out. The range must not cross a segment, see {@link #align(long, int)}.
+     */
+    void get(long address, byte[] bytes, int offset, int length) {
+        ByteBuffer view = segment(address).duplicate();
+        view.position(offset(address));
+        view.get(bytes, offset, length);
+    }
+
+    /**
+     * Copy bytes in. The range must not cross a segment, see {@link #align(long, int)}.
+     */
+    void put(long address, byte[] bytes, int offset, int length) {
+        ByteBuffer view = segment(address).duplicate();
+        view.position(offset(address));
+        view.put(bytes, offset, length);
+    }
+
+    private ByteBuffer segment(long address) {
+        // while there is a single segment every address falls inside it
+        return count == 1 ? segments[0] : segments[(int) (address >>> MAX_SEGMENT_SHIFT)];
+    }
+
+    private int offset(long address) {
+        return count == 1 ? (int) address : (int) (address & MAX_SEGMENT_MASK);
+    }
+}
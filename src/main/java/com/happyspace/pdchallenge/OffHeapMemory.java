@@ -0,0 +1,157 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+/**
+ * Hands out buffers that live outside the Java heap.
+ *
+ * Buffers are direct until 'budget' bytes are in use. Past the budget they are
+ * mapped from a temporary spill file, so the operating system pages them to disk
+ * under memory pressure instead of the process running out of memory.
+ */
+@ThreadSafe
+public class OffHeapMemory implements Closeable {
+
+    /**
+     * Frees a direct or mapped buffer at once, on Java 9 and later. Null before Java 9,
+     * where the buffer's own cleaner is used.
+     */
+    private static final Method INVOKE_CLEANER;
+    private static final Object UNSAFE;
+
+    static {
+        Method invokeCleaner = null;
+        Object unsafe = null;
+        try {
+            Class<?> type = Class.forName("sun.misc.Unsafe");
+            invokeCleaner = type.getMethod("invokeCleaner", ByteBuffer.class);
+            Field field = type.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            unsafe = field.get(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            invokeCleaner = null;
+        }
+        INVOKE_CLEANER = invokeCleaner;
+        UNSAFE = unsafe;
+    }
+
+    private final long budget;
+    private long direct;
+
+    private Path spillFile;
+    private FileChannel spill;
+    private long spillLength;
+
+    /**
+     * Buffers mapped from the spill file. Direct buffers are mapped buffers too, so identity tells them apart.
+     */
+    private final Set<ByteBuffer> mapped = Collections.newSetFromMap(new IdentityHashMap<ByteBuffer, Boolean>());
+
+    /**
+     *
+     * @param budget bytes of direct memory to use before spilling to disk.
+     */
+    public OffHeapMemory(long budget) {
+        this.budget = budget;
+    }
+
+    /**
+     * @param size bytes, zeroed.
+     * @return a buffer of exactly 'size' bytes.
+     * @throws IllegalStateException if the spill file cannot be extended.
+     */
+    public synchronized ByteBuffer allocate(int size) {
+        if (direct + size <= budget) {
+            direct += size;
+            return ByteBuffer.allocateDirect(size);
+        }
+        try {
+            if (spill == null) {
+                spillFile = Files.createTempFile(Paths.get(System.getProperty("java.io.tmpdir")),
+                        "pdchallenge-", ".spill");
+                spillFile.toFile().deleteOnExit();
+                spill = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            }
+            // mapping past the end of the file extends it with zeros
+            ByteBuffer buffer = spill.map(FileChannel.MapMode.READ_WRITE, spillLength, size);
+            spillLength += size;
+            mapped.add(buffer);
+            return buffer;
+        } catch (IOException ex) {
+            throw new IllegalStateException("cannot extend spill file", ex);
+        }
+    }
+
+    /**
+     * Return a buffer that is no longer used. It is freed or unmapped at once and must not be
+     * touched again. Direct memory is credited back to the budget; spilled space is reclaimed
+     * when the spill file is closed.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (!mapped.remove(buffer)) {
+            direct -= buffer.capacity();
+        }
+        free(buffer);
+    }
+
+    /**
+     * @return bytes written to the spill file.
+     */
+    public synchronized long spilled() {
+        return spillLength;
+    }
+
+    /**
+     * Unmap every buffer still mapped from the spill file, then delete it. Direct buffers
+     * are freed as they are released.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for (ByteBuffer buffer : mapped) {
+            free(buffer);
+        }
+        mapped.clear();
+        if (spill != null) {
+            spill.close();
+            Files.deleteIfExists(spillFile);
+            spill = null;
+        }
+    }
+
+    /**
+     * Free the memory of a buffer without waiting for the collector, where the VM allows it.
+     */
+    private static void free(ByteBuffer buffer) {
+        if (!buffer.isDirect()) {
+            return;
+        }
+        try {
+            if (INVOKE_CLEANER != null) {
+                INVOKE_CLEANER.invoke(UNSAFE, buffer);
+                return;
+            }
+            Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Object clean = cleaner.invoke(buffer);
+            if (clean != null) {
+                clean.getClass().getMethod("clean").invoke(clean);
+            }
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            // left to the collector
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The layout of {@link WordCountMap} kept entirely outside the Java heap.
+ *
+ * The hash table, the per-id hash, arena offset, length and count arrays, and the UTF-8
+ * arena are all {@link OffHeapBuffer}s drawn from one {@link OffHeapMemory}, so the heap
+ * footprint is a handful of objects however many words are stored. Past the memory
+ * budget new segments are mapped from a spill file.
+ */
+@NotThreadSafe
+public class OffHeapWordTable implements CountTable {
+
+    private static final int INITIAL_ENTRIES = 1024;
+
+    private final OffHeapMemory memory;
+
+    /**
+     * Ids plus one, zero marks a free slot.
+     */
+    private OffHeapBuffer table;
+    private long slots;
+
+    private final OffHeapBuffer hashes;
+    private final OffHeapBuffer offsets;
+    private final OffHeapBuffer lengths;
+    private final OffHeapBuffer counts;
+    private final OffHeapBuffer arena;
+
+    private int size;
+    private long arenaLength;
+
+    /**
+     * Reused when comparing and decoding words.
+     */
+    private byte[] scratch = new byte[64];
+
+    public OffHeapWordTable(OffHeapMemory memory) {
+        this.memory = memory;
+        this.slots = INITIAL_ENTRIES * 2;
+        this.table = new OffHeapBuffer(memory, (int) slots * 4);
+        this.hashes = new OffHeapBuffer(memory, INITIAL_ENTRIES * 4);
+        this.offsets = new OffHeapBuffer(memory, INITIAL_ENTRIES * 8);
+        this.lengths = new OffHeapBuffer(memory, INITIAL_ENTRIES * 4);
+        this.counts = new OffHeapBuffer(memory, INITIAL_ENTRIES * 8);
+        this.arena = new OffHeapBuffer(memory, INITIAL_ENTRIES * 8);
+    }
+
+    @Override
+    public void addEntry(WordCountMap other, int id) {
+        add(other.arena(), other.offset(id), other.length(id), other.hash(id), other.count(id));
+    }
+
+    /**
+     * Add 'delta' to the count of a word, inserting it if it is new.
+     */
+    public void add(byte[] bytes, int offset, int length, int hash, long delta) {
+        long mask = slots - 1;
+        long slot = hash & mask;
+        while (true) {
+            int entry = table.getInt(slot * 4);
+            if (entry == 0) {
+                int id = insert(bytes, offset, length, hash, delta);
+                table.putInt(slot * 4, id + 1);
+                if ((long) size * 2 > slots) {
+                    rehash();
+                }
+                return;
+            }
+            int id = entry - 1;
+            if (hashes.getInt(id * 4L) == hash && equals(id, bytes, offset, length)) {
+                counts.putLong(id * 8L, counts.getLong(id * 8L) + delta);
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public long count(int id) {
+        return counts.getLong(id * 8L);
+    }
+
+    @Override
+    public String word(int id) {
+        int length = lengths.getInt(id * 4L);
+        byte[] bytes = scratch(length);
+        arena.get(offsets.getLong(id * 8L), bytes, 0, length);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int length(int id) {
+        return lengths.getInt(id * 4L);
+    }
+
+    @Override
+    public void copyWord(int id, byte[] into) {
+        arena.get(offsets.getLong(id * 8L), into, 0, lengths.getInt(id * 4L));
+    }
+
+    @Override
+    public int compareWords(int id1, int id2) {
+        long start1 = offsets.getLong(id1 * 8L);
+        long start2 = offsets.getLong(id2 * 8L);
+        int length1 = lengths.getInt(id1 * 4L);
+        int length2 = lengths.getInt(id2 * 4L);
+        int n = Math.min(length1, length2);
+        for (int i = 0; i < n; i++) {
+            byte b1 = arena.get(start1 + i);
+            byte b2 = arena.get(start2 + i);
+            if (b1 != b2) {
+                return (b1 & 0xFF) - (b2 & 0xFF);
+            }
+        }
+        return length1 - length2;
+    }
+
+    /**
+     * Release all memory held by the table.
+     */
+    public void free() {
+        table.free();
+        hashes.free();
+        offsets.free();
+        lengths.free();
+        counts.free();
+        arena.free();
+    }
+
+    private int insert(byte[] bytes, int offset, int length, int hash, long delta) {
+        int id = size++;
+        hashes.ensure(size * 4L);
+        offsets.ensure(size * 8L);
+        lengths.ensure(size * 4L);
+        counts.ensure(size * 8L);
+
+        long position = arena.align(arenaLength, length);
+        arena.ensure(position + length);
+        // growing may have moved the buffer from one segment to several
+        position = arena.align(arenaLength, length);
+        arena.ensure(position + length);
+        arena.put(position, bytes, offset, length);
+        arenaLength = position + length;
+
+        hashes.putInt(id * 4L, hash);
+        offsets.putLong(id * 8L, position);
+        lengths.putInt(id * 4L, length);
+        counts.putLong(id * 8L, delta);
+        return id;
+    }
+
+    private boolean equals(int id, byte[] bytes, int offset, int length) {
+        if (lengths.getInt(id * 4L) != length) {
+            return false;
+        }
+        long start = offsets.getLong(id * 8L);
+        for (int i = 0; i < length; i++) {
+            if (arena.get(start + i) != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        OffHeapBuffer old = table;
+        slots *= 2;
+        long mask = slots - 1;
+        table = new OffHeapBuffer(memory, (int) Math.min(slots * 4, OffHeapBuffer.MAX_SEGMENT));
+        table.ensure(slots * 4);
+        for (int id = 0; id < size; id++) {
+            long slot = hashes.getInt(id * 4L) & mask;
+            while (table.getInt(slot * 4) != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table.putInt(slot * 4, id + 1);
+        }
+        old.free();
+    }
+
+    private byte[] scratch(int length) {
+        if (length > scratch.length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+        return scratch;
+    }
+}
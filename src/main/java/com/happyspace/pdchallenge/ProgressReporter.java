@@ -0,0 +1,57 @@
+package com.happyspace.pdchallenge;
+
+import java.io.PrintStream;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically prints a one line summary of {@link Metrics} to a stream, normally stderr,
+ * so progress is visible while the result is still being computed.
+ */
+public class ProgressReporter {
+
+    private final Metrics metrics;
+    private final PrintStream out;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "pdchallenge-progress");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public ProgressReporter(Metrics metrics, PrintStream out) {
+        this.metrics = metrics;
+        this.out = out;
+    }
+
+    /**
+     * Start reporting every 'seconds' seconds.
+     */
+    public void start(long seconds) {
+        timer.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                report();
+            }
+        }, seconds, seconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Print one line now.
+     */
+    public void report() {
+        out.format(Messages.PROGRESS_FORMAT,
+                metrics.getFilesDone(), metrics.getFilesDiscovered(), metrics.getFilesFailed(),
+                metrics.getBytesRead() / (1024 * 1024), metrics.getTokens(), metrics.getTokensPerSecond(),
+                metrics.getQueueDepth(), metrics.getMergeTimeMillis(), metrics.getDistinctWords(),
+                metrics.getFileLatencyP50Micros(), metrics.getFileLatencyP99Micros());
+    }
+
+    public void stop() {
+        timer.shutdownNow();
+    }
+}
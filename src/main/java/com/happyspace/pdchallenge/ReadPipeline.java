@@ -0,0 +1,460 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads files block by block on dedicated reader threads while the fork/join pool tokenizes
+ * the blocks already read, so that disk and cores are busy at the same time, even within one file.
+ *
+ * Blocks are direct buffers from a fixed pool. A reader waits for a free buffer before reading
+ * more, which holds back reading when tokenizing falls behind, and a tokenizing task returns its
+ * buffer once fed. Memory in flight is the pool, allocated on first use and reused after that.
+ *
+ * Each block ends at its last whitespace byte, and the token cut by the end of the block starts
+ * the next one, so blocks of a file are counted independently and in any order. Only a token
+ * longer than a block is cut. Compressed files and text that is not UTF-8 are found by sniffing
+ * the first block and counted whole by a single task.
+ *
+ * Each worker tokenizes into its own map and tokenizer, cleared and reused for every block, and
+ * adds the block's counts to a map for the whole file. The aggregator receives one map per file.
+ * Buffers, worker maps and tokenizers are reused; each file still allocates its map and each
+ * block the task that tokenizes it.
+ *
+ * Files wait for a reader in a bounded queue, see {@link IoReader#boundedPool(int, String)}.
+ */
+@ThreadSafe
+public class ReadPipeline {
+
+    /**
+     * Size of each pooled buffer.
+     */
+    public static final int BLOCK_SIZE = 1024 * 1024;
+
+    /**
+     * Reader threads when none are given.
+     */
+    public static final int READERS_DEFAULT = 2;
+
+    /**
+     * The first bytes of every file, copied out for sniffing, per reader thread.
+     */
+    private static final ThreadLocal<byte[]> SAMPLE = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[ContentSniffer.SAMPLE_BYTES];
+        }
+    };
+
+    private final ExecutorService readers;
+    private final ForkJoinPool cpu;
+    private final Aggregator aggregator;
+    private final TokenizerConfig tokenizer;
+    private final Queue<FailedToCountFile> failures;
+
+    private final BlockingQueue<ByteBuffer> free;
+    private final int buffers;
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    /**
+     * The map and tokenizer each worker reuses for every block.
+     */
+    private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private final Object lock = new Object();
+    private long outstanding;
+    private Throwable failure;
+
+    /**
+     *
+     * @param readers the number of reader threads.
+     * @param buffers the number of pooled blocks, at least two per reader.
+     * @param cpu the pool that tokenizes.
+     * @param aggregator receives the counts of each file.
+     * @param tokenizer how words are separated.
+     * @param failures receives the files that cannot be read, which do not fail {@link #await()}
+     *                 and are missing from the counts.
+     */
+    public ReadPipeline(int readers, int buffers, ForkJoinPool cpu, Aggregator aggregator, TokenizerConfig tokenizer,
+                        Queue<FailedToCountFile> failures) {
+        this.readers = IoReader.boundedPool(readers, "pdchallenge-reader-");
+        // a reader holds its current block while it waits for the next
+        this.buffers = Math.max(buffers, readers * 2);
+        this.free = new ArrayBlockingQueue<>(this.buffers);
+        this.cpu = cpu;
+        this.aggregator = aggregator;
+        this.tokenizer = tokenizer;
+        this.failures = failures;
+    }
+
+    /**
+     * Queue a file to be read and counted. Returns once the file is queued; when the queue is
+     * full the caller waits, as a managed blocker when it is a fork/join worker.
+     */
+    public void submit(final Path path) {
+        synchronized (lock) {
+            outstanding++;
+        }
+        try {
+            readers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    FileState file = new FileState(path);
+                    try {
+                        read(file);
+                    } catch (IOException ex) {
+                        file.fail(ex);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        file.error(ex);
+                    } catch (RuntimeException ex) {
+                        file.error(ex);
+                    } finally {
+                        file.release();
+                    }
+                }
+            });
+        } catch (RuntimeException ex) {
+            done(ex);
+            throw ex;
+        }
+    }
+
+    /**
+     * Wait until every submitted file has been counted.
+     *
+     * @throws ExecutionException wrapping the first failure.
+     */
+    public void await() throws InterruptedException, ExecutionException {
+        synchronized (lock) {
+            while (outstanding > 0) {
+                lock.wait();
+            }
+            if (failure != null) {
+                throw new ExecutionException(failure);
+            }
+        }
+    }
+
+    /**
+     * @return files submitted and not yet counted.
+     */
+    public long pending() {
+        synchronized (lock) {
+            return outstanding;
+        }
+    }
+
+    /**
+     * @return pooled blocks allocated so far, never more than the pool size.
+     */
+    public int allocated() {
+        return allocated.get();
+    }
+
+    public void shutdown() {
+        readers.shutdown();
+    }
+
+    /**
+     * Read a file into blocks and hand each to the tokenizing pool, on a reader thread.
+     */
+    private void read(final FileState file) throws IOException, InterruptedException {
+        ByteBuffer block = take();
+        try (FileChannel channel = FileChannel.open(file.path, StandardOpenOption.READ)) {
+            int start = sniff(file, channel, block);
+            if (start < 0) {
+                return;
+            }
+            boolean eof = false;
+            while (!eof) {
+                eof = fill(channel, block);
+                int end = block.position();
+                ByteBuffer next = null;
+                if (!eof) {
+                    int cut = lastWhitespace(block, start, end);
+                    if (cut >= 0) {
+                        end = cut + 1;
+                    }
+                    next = take();
+                    // the token cut by the end of the block starts the next one
+                    for (int i = end; i < block.position(); i++) {
+                        next.put(block.get(i));
+                    }
+                }
+                block.limit(end);
+                block.position(start);
+                if (block.hasRemaining()) {
+                    tokenize(file, block);
+                }
+                else {
+                    release(block);
+                }
+                block = next;
+                start = 0;
+            }
+        } finally {
+            if (block != null) {
+                release(block);
+            }
+        }
+    }
+
+    /**
+     * Read the start of a file into the block and decide how to count it.
+     *
+     * @return where the text starts in the block, or -1 if the file is counted another way.
+     */
+    private int sniff(FileState file, FileChannel channel, ByteBuffer block) throws IOException {
+        while (block.position() < ContentSniffer.SAMPLE_BYTES && channel.read(block) > 0) {
+            // fill the sample
+        }
+        byte[] sample = SAMPLE.get();
+        int length = Math.min(block.position(), sample.length);
+        for (int i = 0; i < length; i++) {
+            sample[i] = block.get(i);
+        }
+        ContentSniffer.Content content = ContentSniffer.sniff(sample, 0, length);
+        if (Codec.detect(sample, length) != Codec.NONE || !content.isUtf8()) {
+            // decompressing and decoding are streams over the whole file
+            countWhole(file);
+            return -1;
+        }
+        return content.bomLength;
+    }
+
+    /**
+     * @return true at the end of the file, false if the block is full.
+     */
+    private static boolean fill(FileChannel channel, ByteBuffer block) throws IOException {
+        while (block.hasRemaining()) {
+            if (channel.read(block) < 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the index of the last whitespace byte in the range, -1 if there is none.
+     */
+    private static int lastWhitespace(ByteBuffer block, int start, int end) {
+        for (int i = end - 1; i >= start; i--) {
+            if (Tokenizer.isWhitespace(block.get(i))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void tokenize(final FileState file, final ByteBuffer block) {
+        file.acquire();
+        cpu.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                Scratch local = scratch.get();
+                try {
+                    long bytes = block.remaining();
+                    try {
+                        WordCountTask.feed(block, local.tokens);
+                        local.tokens.finish();
+                    } finally {
+                        release(block);
+                    }
+                    Metrics.INSTANCE.bytesRead.add(bytes);
+                    file.add(local.counts);
+                    local.counts.clear();
+                } catch (RuntimeException ex) {
+                    // the tokenizer may hold part of the block
+                    scratch.remove();
+                    file.error(ex);
+                } finally {
+                    file.release();
+                }
+            }
+        });
+    }
+
+    private void countWhole(final FileState file) {
+        file.acquire();
+        final long started = System.nanoTime();
+        cpu.execute(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                try {
+                    WordCountMap counts = WordCountTask.countWords(file.path, null, tokenizer);
+                    long merging = System.nanoTime();
+                    aggregator.accept(counts);
+                    Metrics.INSTANCE.merged(counts.tokens(), started, merging);
+                } catch (IOException ex) {
+                    file.fail(ex);
+                } catch (RuntimeException ex) {
+                    file.error(ex);
+                } finally {
+                    file.release();
+                }
+            }
+        });
+    }
+
+    /**
+     * @return a free block, waiting for one once the whole pool is in use.
+     */
+    private ByteBuffer take() throws InterruptedException {
+        ByteBuffer block = free.poll();
+        if (block != null) {
+            return block;
+        }
+        if (allocated.incrementAndGet() <= buffers) {
+            return ByteBuffer.allocateDirect(BLOCK_SIZE);
+        }
+        allocated.decrementAndGet();
+        return free.take();
+    }
+
+    private void release(ByteBuffer block) {
+        block.clear();
+        free.offer(block);
+    }
+
+    private void done(Throwable t) {
+        synchronized (lock) {
+            if (t != null && failure == null) {
+                failure = t;
+            }
+            if (--outstanding == 0) {
+                lock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * The map and tokenizer of one worker.
+     */
+    private final class Scratch {
+        final WordCountMap counts = new WordCountMap();
+        final Tokenizer tokens = tokenizer.newTokenizer(counts);
+    }
+
+    /**
+     * A file in the pipeline, done when the reader and every task of its blocks have released it.
+     */
+    private final class FileState {
+        final Path path;
+        private final long started = System.nanoTime();
+        private final AtomicInteger holders = new AtomicInteger(1);
+        private volatile FailedToCountFile failed;
+        private volatile Throwable error;
+
+        /**
+         * The counts of the blocks tokenized so far, null until the first.
+         */
+        private WordCountMap counts;
+        private long tokens;
+
+        FileState(Path path) {
+            this.path = path;
+        }
+
+        void acquire() {
+            holders.incrementAndGet();
+        }
+
+        /**
+         * Add the counts of a block. A file whose words no longer fit one map fails.
+         */
+        synchronized void add(WordCountMap block) {
+            if (failed != null) {
+                return;
+            }
+            if (counts == null) {
+                counts = new WordCountMap(block.size());
+            }
+            try {
+                counts.addAll(block);
+            } catch (WordCountMap.FullException ex) {
+                counts = null;
+                fail(new IOException(ex.getMessage(), ex));
+                return;
+            }
+            tokens += block.tokens();
+        }
+
+        /**
+         * The file cannot be read. Blocks counted before the failure are dropped with it.
+         */
+        void fail(IOException ex) {
+            failed = new FailedToCountFile(path, ex);
+        }
+
+        void error(Throwable t) {
+            error = t;
+        }
+
+        void release() {
+            if (holders.decrementAndGet() > 0) {
+                return;
+            }
+            if (counts != null && error == null && failed == null) {
+                if (ForkJoinTask.inForkJoinPool()) {
+                    merge();
+                }
+                else {
+                    // the reader let go last; aggregators expect to be called from the pool
+                    cpu.execute(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            merge();
+                        }
+                    });
+                }
+                return;
+            }
+            finish();
+        }
+
+        private void merge() {
+            try {
+                long merging = System.nanoTime();
+                aggregator.accept(counts);
+                Metrics.INSTANCE.merged(tokens, started, merging);
+            } catch (RuntimeException ex) {
+                error = ex;
+            } finally {
+                counts = null;
+                finish();
+            }
+        }
+
+        private void finish() {
+            if (failed != null) {
+                Metrics.INSTANCE.filesFailed.increment();
+                failures.add(failed);
+            }
+            else if (error == null) {
+                Metrics.INSTANCE.filesDone.increment();
+            }
+            done(error);
+        }
+    }
+}
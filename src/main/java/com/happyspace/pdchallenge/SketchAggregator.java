@@ -0,0 +1,86 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Approximate aggregation with one Space-Saving sketch per worker thread.
+ *
+ * Workers update their own sketch without locking. The sketches are merged
+ * once, when the result is requested, so memory is bounded by
+ * 'capacity' counters per worker regardless of the vocabulary size.
+ */
+@ThreadSafe
+public class SketchAggregator implements Aggregator {
+
+    private final int capacity;
+    private final List<SpaceSavingSketch> sketches = new ArrayList<>();
+    private final ThreadLocal<SpaceSavingSketch> local = new ThreadLocal<SpaceSavingSketch>() {
+        @Override
+        protected SpaceSavingSketch initialValue() {
+            SpaceSavingSketch sketch = new SpaceSavingSketch(capacity);
+            synchronized (sketches) {
+                sketches.add(sketch);
+            }
+            return sketch;
+        }
+    };
+
+    private SpaceSavingSketch merged;
+
+    /**
+     *
+     * @param capacity counters per worker sketch.
+     */
+    public SketchAggregator(int capacity) {
+        this.capacity = capacity;
+    }
+
+    @Override
+    public void accept(WordCountMap counts) {
+        SpaceSavingSketch sketch = local.get();
+        for (int id = 0; id < counts.size(); id++) {
+            sketch.offer(counts.word(id), counts.count(id));
+        }
+    }
+
+    @Override
+    public List<Map.Entry<String, Long>> top(int topN) {
+        return merge().top(topN);
+    }
+
+    /**
+     * The sketches do not know the vocabulary size.
+     */
+    @Override
+    public long distinctWords() {
+        return -1;
+    }
+
+    @Override
+    public long errorBound() {
+        return merge().errorBound();
+    }
+
+    private SpaceSavingSketch merge() {
+        synchronized (sketches) {
+            if (merged == null) {
+                merged = new SpaceSavingSketch(capacity);
+                for (SpaceSavingSketch sketch : sketches) {
+                    merged.merge(sketch);
+                }
+            }
+            return merged;
+        }
+    }
+
+    /**
+     * Sketches are on the heap, there is nothing to free.
+     */
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,106 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Word counts over the most recent span of time.
+ *
+ * Time is cut into buckets of 'slide' milliseconds and the window holds the last
+ * 'window / slide' of them; when slide equals the window the window tumbles. Besides the
+ * buckets a running total of the window is kept: new counts are added to the total and
+ * a bucket is subtracted from it as it expires, so both cost as much as the counts
+ * themselves and nothing is recomputed over the whole window.
+ */
+@NotThreadSafe
+public class SlidingWindow {
+
+    private final long slide;
+    private final WordCountMap[] buckets;
+    private WordCountMap total = new WordCountMap();
+    private long current;
+
+    /**
+     *
+     * @param window milliseconds of history to keep.
+     * @param slide milliseconds per bucket, the granularity at which counts expire.
+     * @param now the current time in milliseconds.
+     */
+    public SlidingWindow(long window, long slide, long now) {
+        this.slide = slide;
+        this.buckets = new WordCountMap[(int) Math.max(1, (window + slide - 1) / slide)];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new WordCountMap();
+        }
+        this.current = now / slide;
+    }
+
+    /**
+     * Add counts observed at time 'now'.
+     */
+    public void add(WordCountMap counts, long now) {
+        advance(now);
+        buckets[(int) (current % buckets.length)].addAll(counts);
+        total.addAll(counts);
+    }
+
+    /**
+     * Expire the buckets that have left the window by time 'now'.
+     */
+    public void advance(long now) {
+        long target = now / slide;
+        if (target - current >= buckets.length) {
+            // everything has expired
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new WordCountMap();
+            }
+            total = new WordCountMap();
+            current = target;
+            return;
+        }
+        while (current < target) {
+            current++;
+            int index = (int) (current % buckets.length);
+            total.subtractAll(buckets[index]);
+            buckets[index] = new WordCountMap();
+        }
+        compact();
+    }
+
+    /**
+     * @return the 'n' most frequent words in the window.
+     */
+    public List<Map.Entry<String, Long>> top(int n) {
+        TopN selector = new TopN(n);
+        for (int id = 0; id < total.size(); id++) {
+            long count = total.count(id);
+            if (count > 0 && selector.accepts(count)) {
+                selector.offer(total.word(id), count);
+            }
+        }
+        return selector.result();
+    }
+
+    /**
+     * Expired words stay in the total with a zero count. Rebuild it once they
+     * outnumber the words that can still be live.
+     */
+    private void compact() {
+        long live = 0;
+        for (WordCountMap bucket : buckets) {
+            live += bucket.size();
+        }
+        if (total.size() <= 2 * live + 1024) {
+            return;
+        }
+        WordCountMap compacted = new WordCountMap((int) Math.min(live, Integer.MAX_VALUE / 4));
+        for (int id = 0; id < total.size(); id++) {
+            if (total.count(id) > 0) {
+                compacted.addEntry(total, id);
+            }
+        }
+        total = compacted;
+    }
+}
@@ -0,0 +1,164 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+/**
+ * A weighted Space-Saving heavy hitters sketch.
+ *
+ * Holds at most 'capacity' counters. When a new word arrives and the sketch is full
+ * the smallest counter is evicted and the new word inherits its count as error.
+ * Every reported count is at most 'error' above the true count, and any word that
+ * is not monitored occurred at most {@link #minCount()} times.
+ *
+ * See Metwally, Agrawal and El Abbadi, "Efficient Computation of Frequent and Top-k
+ * Elements in Data Streams" and, for merging, Cafaro et al., "Parallel Space Saving".
+ */
+@NotThreadSafe
+public class SpaceSavingSketch {
+
+    /**
+     * A monitored word.
+     */
+    static final class Counter {
+        final String word;
+        long count;
+        long error;
+
+        Counter(String word, long count, long error) {
+            this.word = word;
+            this.count = count;
+            this.error = error;
+        }
+    }
+
+    /**
+     * Orders counters by count, then word so that distinct words never collide.
+     */
+    private static final Comparator<Counter> BY_COUNT = new Comparator<Counter>() {
+        @Override
+        public int compare(Counter o1, Counter o2) {
+            int c = Long.compare(o1.count, o2.count);
+            return c != 0 ? c : o1.word.compareTo(o2.word);
+        }
+    };
+
+    private final int capacity;
+    private final Map<String, Counter> counters = new HashMap<>();
+    private final TreeSet<Counter> order = new TreeSet<>(BY_COUNT);
+
+    /**
+     *
+     * @param capacity the maximum number of monitored words.
+     */
+    public SpaceSavingSketch(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+    }
+
+    /**
+     * Add 'weight' occurrences of 'word'.
+     */
+    public void offer(String word, long weight) {
+        Counter counter = counters.get(word);
+        if (counter != null) {
+            order.remove(counter);
+            counter.count += weight;
+            order.add(counter);
+        }
+        else if (counters.size() < capacity) {
+            insert(new Counter(word, weight, 0));
+        }
+        else {
+            Counter min = order.pollFirst();
+            counters.remove(min.word);
+            insert(new Counter(word, min.count + weight, min.count));
+        }
+    }
+
+    /**
+     * Merge another sketch into this one.
+     * A word missing from one side is charged that side's minimum count, which keeps
+     * the merged counts an over-estimate bounded by the sum of both errors.
+     */
+    public void merge(SpaceSavingSketch other) {
+        long thisMin = minCount();
+        long otherMin = other.minCount();
+
+        Map<String, Counter> merged = new HashMap<>();
+        for (Counter counter : counters.values()) {
+            Counter o = other.counters.get(counter.word);
+            if (o != null) {
+                merged.put(counter.word, new Counter(counter.word,
+                        counter.count + o.count, counter.error + o.error));
+            }
+            else {
+                merged.put(counter.word, new Counter(counter.word,
+                        counter.count + otherMin, counter.error + otherMin));
+            }
+        }
+        for (Counter o : other.counters.values()) {
+            if (!merged.containsKey(o.word)) {
+                merged.put(o.word, new Counter(o.word, o.count + thisMin, o.error + thisMin));
+            }
+        }
+
+        counters.clear();
+        order.clear();
+        TreeSet<Counter> all = new TreeSet<>(BY_COUNT);
+        all.addAll(merged.values());
+        Iterator<Counter> largest = all.descendingIterator();
+        while (largest.hasNext() && counters.size() < capacity) {
+            insert(largest.next());
+        }
+    }
+
+    /**
+     * @return the count below which a word may have gone unmonitored, zero while
+     * the sketch has never been full.
+     */
+    public long minCount() {
+        if (counters.size() < capacity) {
+            return 0;
+        }
+        return order.first().count;
+    }
+
+    /**
+     * @return the largest over-estimate of any monitored word or of any word that was evicted.
+     */
+    public long errorBound() {
+        long bound = minCount();
+        for (Counter counter : counters.values()) {
+            if (counter.error > bound) {
+                bound = counter.error;
+            }
+        }
+        return bound;
+    }
+
+    /**
+     * @param topN how many words to return.
+     * @return the monitored words in descending order of estimated count.
+     */
+    public List<Map.Entry<String, Long>> top(int topN) {
+        TopN selector = new TopN(topN);
+        for (Counter counter : counters.values()) {
+            selector.offer(counter.word, counter.count);
+        }
+        return selector.result();
+    }
+
+    private void insert(Counter counter) {
+        counters.put(counter.word, counter);
+        order.add(counter);
+    }
+}
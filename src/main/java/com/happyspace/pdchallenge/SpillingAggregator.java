@@ -0,0 +1,373 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Exact aggregation in bounded memory by external sort-merge.
+ *
+ * Each worker thread merges into its own table. The footprint of every table is counted
+ * against one memory budget, whichever threads the pool adds. Before a file is merged, the
+ * largest tables are written to temporary files as runs sorted by word until the file fits
+ * in the budget, and their workers start new tables. The result is a streaming k-way merge
+ * of every run and of the tables still in memory: equal words arrive together, their counts
+ * are summed and offered to a {@link TopN}. Only one entry per run is held while merging, so the result
+ * is exact for any vocabulary size.
+ */
+@ThreadSafe
+public class SpillingAggregator implements Aggregator, Exportable {
+
+    private final long memoryBudget;
+    /**
+     * The footprint of every worker table.
+     */
+    private final AtomicLong used = new AtomicLong();
+    private final List<Worker> workers = new ArrayList<>();
+    private final List<Path> runs = new ArrayList<>();
+    private final ThreadLocal<Worker> local = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            Worker worker = new Worker();
+            synchronized (workers) {
+                workers.add(worker);
+            }
+            return worker;
+        }
+    };
+
+    private Path directory;
+    private long distinctWords = -1;
+
+    /**
+     *
+     * @param memoryBudget bytes all worker tables together may hold before spilling.
+     */
+    public SpillingAggregator(long memoryBudget) {
+        this.memoryBudget = Math.max(1, memoryBudget);
+    }
+
+    @Override
+    public void accept(WordCountMap fileCounts) {
+        // merging a file grows a table by at most the file's own footprint
+        long growth = fileCounts.footprint();
+        while (used.get() + growth > memoryBudget) {
+            Worker largest = largest();
+            if (largest == null) {
+                break;
+            }
+            // one table lock at a time, so workers spilling each other cannot deadlock
+            synchronized (largest) {
+                if (largest.footprint > 0) {
+                    spill(largest.counts);
+                    largest.counts = new WordCountMap();
+                    used.addAndGet(-largest.footprint);
+                    largest.footprint = 0;
+                }
+            }
+        }
+        Worker worker = local.get();
+        synchronized (worker) {
+            worker.counts.addAll(fileCounts);
+            long footprint = worker.counts.footprint();
+            used.addAndGet(footprint - worker.footprint);
+            worker.footprint = footprint;
+        }
+    }
+
+    /**
+     * @return the worker with the largest table that holds any words, or null.
+     */
+    private Worker largest() {
+        Worker largest = null;
+        synchronized (workers) {
+            for (Worker worker : workers) {
+                if (worker.footprint > 0 && (largest == null || worker.footprint > largest.footprint)) {
+                    largest = worker;
+                }
+            }
+        }
+        return largest;
+    }
+
+    /**
+     * Merge every run and table. Call once the workers have finished.
+     */
+    @Override
+    public List<Map.Entry<String, Long>> top(int topN) {
+        try {
+            return merge(topN, null);
+        } catch (IOException ex) {
+            throw new IllegalStateException("cannot read spilled run", ex);
+        }
+    }
+
+    /**
+     * Merge every run and table into the writer. Call once the workers have finished.
+     */
+    @Override
+    public void export(CountFile.Writer writer) throws IOException {
+        merge(0, writer);
+    }
+
+    /**
+     * Known once the runs have been merged, words are counted as they leave the merge.
+     */
+    @Override
+    public synchronized long distinctWords() {
+        return distinctWords;
+    }
+
+    @Override
+    public long errorBound() {
+        return 0;
+    }
+
+    /**
+     * @return the number of runs written to disk.
+     */
+    public int spilledRuns() {
+        synchronized (runs) {
+            return runs.size();
+        }
+    }
+
+    /**
+     * Delete every run.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (runs) {
+            for (Path run : runs) {
+                Files.deleteIfExists(run);
+            }
+            runs.clear();
+            if (directory != null) {
+                Files.deleteIfExists(directory);
+                directory = null;
+            }
+        }
+    }
+
+    /**
+     * Streaming k-way merge of every run and table.
+     *
+     * @param topN how many words to return.
+     * @param writer receives every merged entry, or null.
+     */
+    private List<Map.Entry<String, Long>> merge(int topN, CountFile.Writer writer) throws IOException {
+        List<Source> sources = new ArrayList<>();
+        try {
+            synchronized (workers) {
+                for (Worker worker : workers) {
+                    synchronized (worker) {
+                        sources.add(new TableSource(worker.counts));
+                    }
+                }
+            }
+            synchronized (runs) {
+                for (Path run : runs) {
+                    sources.add(new RunSource(run));
+                }
+            }
+            return merge(sources, topN, writer);
+        } finally {
+            for (Source source : sources) {
+                source.close();
+            }
+        }
+    }
+
+    private List<Map.Entry<String, Long>> merge(List<Source> sources, int topN, CountFile.Writer writer)
+            throws IOException {
+        PriorityQueue<Source> heads = new PriorityQueue<>(Math.max(1, sources.size()), new Comparator<Source>() {
+            @Override
+            public int compare(Source o1, Source o2) {
+                return CountFile.compare(o1.word, o1.length, o2.word, o2.length);
+            }
+        });
+        for (Source source : sources) {
+            if (source.next()) {
+                heads.add(source);
+            }
+        }
+
+        TopN selector = new TopN(topN);
+        long distinct = 0;
+        byte[] word = new byte[64];
+        while (!heads.isEmpty()) {
+            Source source = heads.poll();
+            int length = source.length;
+            if (word.length < length) {
+                word = new byte[Math.max(length, word.length * 2)];
+            }
+            System.arraycopy(source.word, 0, word, 0, length);
+            long count = source.count;
+            if (source.next()) {
+                heads.add(source);
+            }
+            // equal words from other sources are at the head of the queue
+            while (!heads.isEmpty() && CountFile.compare(heads.peek().word, heads.peek().length, word, length) == 0) {
+                Source same = heads.poll();
+                count += same.count;
+                if (same.next()) {
+                    heads.add(same);
+                }
+            }
+            if (count > 0) {
+                distinct++;
+                if (selector.accepts(count)) {
+                    selector.offer(new String(word, 0, length, StandardCharsets.UTF_8), count);
+                }
+                if (writer != null) {
+                    writer.add(word, 0, length, count);
+                }
+            }
+        }
+        synchronized (this) {
+            distinctWords = distinct;
+        }
+        return selector.result();
+    }
+
+    /**
+     * Write a table as a run of (length, UTF-8 bytes, count) sorted by code point.
+     */
+    private void spill(WordCountMap counts) {
+        int[] order = WordOrder.sortedIds(counts);
+        byte[] arena = counts.arena();
+        try {
+            Path run = newRun();
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run)))) {
+                for (int id : order) {
+                    Varint.write(out, counts.length(id));
+                    out.write(arena, counts.offset(id), counts.length(id));
+                    Varint.write(out, counts.count(id));
+                }
+            }
+        } catch (IOException ex) {
+            throw new IllegalStateException("cannot spill counts", ex);
+        }
+    }
+
+    private Path newRun() throws IOException {
+        synchronized (runs) {
+            if (directory == null) {
+                directory = Files.createTempDirectory("pdchallenge-runs");
+                directory.toFile().deleteOnExit();
+            }
+            Path run = directory.resolve("run-" + runs.size());
+            run.toFile().deleteOnExit();
+            runs.add(run);
+            return run;
+        }
+    }
+
+    /**
+     * The table a worker is currently merging into.
+     */
+    private static class Worker {
+        private WordCountMap counts = new WordCountMap();
+        /**
+         * The footprint of the counts once a file has been merged, zero for a new table.
+         */
+        private volatile long footprint;
+    }
+
+    /**
+     * Entries in ascending word order. The current word is held as bytes,
+     * valid until the next call to {@link #next()}.
+     */
+    @NotThreadSafe
+    private abstract static class Source {
+        byte[] word = new byte[64];
+        int length;
+        long count;
+
+        /**
+         * Advance to the next entry.
+         *
+         * @return false when there are no more entries.
+         */
+        abstract boolean next() throws IOException;
+
+        void close() {
+        }
+
+        void ensure(int length) {
+            if (word.length < length) {
+                word = new byte[Math.max(length, word.length * 2)];
+            }
+            this.length = length;
+        }
+    }
+
+    private static class TableSource extends Source {
+        private final WordCountMap counts;
+        private final int[] order;
+        private int position;
+
+        TableSource(WordCountMap counts) {
+            this.counts = counts;
+            this.order = WordOrder.sortedIds(counts);
+        }
+
+        @Override
+        boolean next() {
+            if (position == order.length) {
+                return false;
+            }
+            int id = order[position++];
+            ensure(counts.length(id));
+            counts.copyWord(id, word);
+            count = counts.count(id);
+            return true;
+        }
+    }
+
+    private static class RunSource extends Source {
+        private final DataInputStream in;
+
+        RunSource(Path run) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run)));
+        }
+
+        @Override
+        boolean next() throws IOException {
+            int length;
+            try {
+                length = (int) Varint.read(in);
+            } catch (EOFException ex) {
+                return false;
+            }
+            ensure(length);
+            in.readFully(word, 0, length);
+            count = Varint.read(in);
+            return true;
+        }
+
+        @Override
+        void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                // nothing more to read
+            }
+        }
+    }
+}
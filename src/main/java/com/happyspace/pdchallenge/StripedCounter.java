@@ -0,0 +1,55 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.ThreadSafe;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter spread over several cache lines so that threads updating it
+ * rarely contend. Each thread picks a stripe from its id, and reads sum every stripe.
+ */
+@ThreadSafe
+public class StripedCounter {
+
+    /**
+     * Longs per stripe, eight longs fill a 64 byte cache line.
+     */
+    private static final int PAD = 8;
+
+    static final int STRIPES = Integer.highestOneBit(Runtime.getRuntime().availableProcessors() * 2 - 1) * 2;
+
+    private final AtomicLongArray cells = new AtomicLongArray(STRIPES * PAD);
+
+    public void add(long delta) {
+        cells.getAndAdd(stripe() * PAD, delta);
+    }
+
+    public void increment() {
+        add(1);
+    }
+
+    public long sum() {
+        long sum = 0;
+        for (int i = 0; i < STRIPES; i++) {
+            sum += cells.get(i * PAD);
+        }
+        return sum;
+    }
+
+    /**
+     * Set every stripe to zero. Adds racing with the reset may survive it.
+     */
+    public void reset() {
+        for (int i = 0; i < STRIPES; i++) {
+            cells.set(i * PAD, 0);
+        }
+    }
+
+    /**
+     * @return the stripe of the current thread.
+     */
+    static int stripe() {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 7)) & (STRIPES - 1));
+    }
+}
@@ -0,0 +1,453 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.*;
+
+import static java.nio.file.StandardWatchEventKinds.*;
+
+/**
+ * Follows files as they grow and reports the top words over a sliding time window.
+ *
+ * Directories under the start paths are watched with a {@link WatchService}. For every
+ * created or modified file only the bytes appended since the last read are counted,
+ * on a fork/join pool like {@link FileProcessor}, and added to a {@link SlidingWindow}.
+ * Files present at start are followed from their current end. The top words of the
+ * window are printed once per slide.
+ *
+ * Each file is sniffed once, when it is first read: binary files are skipped and text that
+ * is not UTF-8 is decoded as the batch paths do. A truncated or replaced file is sniffed again.
+ */
+@NotThreadSafe
+public class TailProcessor {
+
+    /**
+     * Most bytes read from one file per pass, the rest is read on the next pass.
+     */
+    static final int MAX_APPEND = 16 * 1024 * 1024;
+
+    /**
+     * The number of words to report.
+     */
+    private final int topN;
+
+    /**
+     * The max depth to watch.
+     */
+    private final int maxDepth;
+
+    /**
+     * Milliseconds between reports, and the granularity of the window.
+     */
+    private final long slide;
+
+    /**
+     * Where reports are written.
+     */
+    private final PrintStream out;
+
+    /**
+     * How words are split.
+     */
+    private final TokenizerConfig tokenizer;
+
+    /**
+     * Bytes of each followed file that have been counted.
+     */
+    private final ConcurrentMap<Path, Long> offsets = new ConcurrentHashMap<>();
+
+    /**
+     * How each followed file is read, once it has been sniffed.
+     */
+    private final ConcurrentMap<Path, ContentSniffer.Content> contents = new ConcurrentHashMap<>();
+
+    /**
+     * Files with bytes that have not been counted.
+     */
+    private final Set<Path> pending = new LinkedHashSet<>();
+
+    /**
+     * Watched directories and their depth below a start path.
+     */
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Map<Path, Integer> depths = new HashMap<>();
+
+    /**
+     * Start paths that name a single file.
+     */
+    private final Set<Path> singles = new HashSet<>();
+
+    private final SlidingWindow window;
+    private final WatchService watcher;
+    private final ForkJoinPool pool;
+
+    /**
+     *
+     * @param numberOfWorkers the number of workers.
+     * @param start list of valid paths.
+     * @param topN how many items to report.
+     * @param maxDepth traversal limit for directories
+     * @param window milliseconds of history the report covers.
+     * @param slide milliseconds between reports. Equal to 'window' for tumbling windows.
+     * @param out where reports are written.
+     */
+    public TailProcessor(int numberOfWorkers, List<Path> start, int topN, int maxDepth, long window, long slide,
+                         PrintStream out) throws IOException {
+        this(numberOfWorkers, start, topN, maxDepth, window, slide, out, TokenizerConfig.DEFAULT);
+    }
+
+    /**
+     *
+     * @param numberOfWorkers the number of workers.
+     * @param start list of valid paths.
+     * @param topN how many items to report.
+     * @param maxDepth traversal limit for directories
+     * @param window milliseconds of history the report covers.
+     * @param slide milliseconds between reports. Equal to 'window' for tumbling windows.
+     * @param out where reports are written.
+     * @param tokenizer how words are split. An n-gram is not counted across two reads of a file.
+     */
+    public TailProcessor(int numberOfWorkers, List<Path> start, int topN, int maxDepth, long window, long slide,
+                         PrintStream out, TokenizerConfig tokenizer) throws IOException {
+        this.tokenizer = tokenizer;
+        this.topN = topN;
+        this.maxDepth = maxDepth;
+        this.slide = Math.max(1, slide);
+        this.out = out;
+        this.window = new SlidingWindow(window, this.slide, System.currentTimeMillis());
+        this.watcher = FileSystems.getDefault().newWatchService();
+        this.pool = new ForkJoinPool(numberOfWorkers);
+        for (Path path : start) {
+            if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                watchTree(path, 0, false);
+            }
+            else {
+                // a single file, watch its directory but follow only the file
+                Path file = path.toAbsolutePath();
+                singles.add(file);
+                follow(file, false);
+                watch(file.getParent(), maxDepth);
+            }
+        }
+    }
+
+    /**
+     * Report until interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+        try {
+            long next = System.currentTimeMillis() + slide;
+            while (!Thread.currentThread().isInterrupted()) {
+                poll(Math.max(1, next - System.currentTimeMillis()));
+                long now = System.currentTimeMillis();
+                if (now >= next) {
+                    report(now);
+                    next = now + slide;
+                }
+            }
+            throw new InterruptedException();
+        } finally {
+            close();
+        }
+    }
+
+    /**
+     * Wait up to 'timeout' milliseconds for changes and count every appended range.
+     */
+    void poll(long timeout) throws InterruptedException {
+        WatchKey key = watcher.poll(timeout, TimeUnit.MILLISECONDS);
+        while (key != null) {
+            handle(key);
+            key = watcher.poll();
+        }
+        countPending();
+    }
+
+    /**
+     * Print the top words of the window as of 'now'.
+     */
+    void report(long now) {
+        List<Map.Entry<String, Long>> entries = top(now);
+        out.format(Messages.WINDOW_HEADER_FORMAT, new Date(now), entries.size());
+        for (Map.Entry<String, Long> entry : entries) {
+            out.format(Messages.WORDS_ITEM_FORMAT, entry.getKey(), entry.getValue());
+        }
+        out.flush();
+    }
+
+    /**
+     * @return the top words of the window as of 'now'.
+     */
+    List<Map.Entry<String, Long>> top(long now) {
+        window.advance(now);
+        return window.top(topN);
+    }
+
+    void close() throws IOException {
+        pool.shutdownNow();
+        watcher.close();
+    }
+
+    private void handle(WatchKey key) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                // events were lost, look at everything that is followed
+                pending.addAll(offsets.keySet());
+                continue;
+            }
+            if (directory == null) {
+                continue;
+            }
+            Path path = directory.resolve((Path) event.context());
+            if (event.kind() == ENTRY_DELETE) {
+                offsets.remove(path);
+                contents.remove(path);
+                pending.remove(path);
+            }
+            else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                if (event.kind() == ENTRY_CREATE && depths.get(directory) < maxDepth) {
+                    try {
+                        watchTree(path, depths.get(directory) + 1, true);
+                    } catch (IOException ex) {
+                        Metrics.INSTANCE.walkErrors.increment();
+                    }
+                }
+            }
+            else if (offsets.containsKey(path)) {
+                pending.add(path);
+            }
+            else if (depths.get(directory) < maxDepth || singles.contains(path)) {
+                // new, or rotated back in after a delete
+                follow(path, true);
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    /**
+     * Register a directory and those below it. Files found are followed from
+     * the start if the directory is new, from their end otherwise.
+     */
+    private void watchTree(Path root, final int depth, final boolean fromStart) throws IOException {
+        Files.walkFileTree(root, EnumSet.noneOf(FileVisitOption.class), maxDepth - depth,
+                new SimpleFileVisitor<Path>() {
+            private int level = depth - 1;
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                level++;
+                watch(dir, level);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    follow(file, fromStart);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                Metrics.INSTANCE.walkErrors.increment();
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) {
+                level--;
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     *
+     * @param depth below a start path. A directory only watched for single files has
+     *              the max depth so that new entries in it are not followed.
+     */
+    private void watch(Path directory, int depth) throws IOException {
+        WatchKey key = directory.register(watcher, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE);
+        if (!directories.containsKey(key)) {
+            directories.put(key, directory);
+            depths.put(directory, depth);
+        }
+        else {
+            depths.put(directory, Math.min(depth, depths.get(directory)));
+        }
+    }
+
+    private void follow(Path file, boolean fromStart) {
+        long offset = 0;
+        if (!fromStart) {
+            try {
+                offset = Files.size(file);
+            } catch (IOException ex) {
+                Metrics.INSTANCE.filesFailed.increment();
+                return;
+            }
+        }
+        if (offsets.putIfAbsent(file, offset) == null) {
+            Metrics.INSTANCE.filesDiscovered.increment();
+            if (fromStart) {
+                pending.add(file);
+            }
+        }
+    }
+
+    /**
+     * Count the appended range of every pending file in parallel and add the counts to the window.
+     */
+    private void countPending() throws InterruptedException {
+        if (pending.isEmpty()) {
+            return;
+        }
+        final List<Path> files = new ArrayList<>(pending);
+        pending.clear();
+        List<Callable<WordCountMap>> tasks = new ArrayList<>();
+        for (final Path file : files) {
+            tasks.add(new Callable<WordCountMap>() {
+                @Override
+                public WordCountMap call() throws IOException {
+                    return readAppended(file);
+                }
+            });
+        }
+        List<Future<WordCountMap>> results = pool.invokeAll(tasks);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < results.size(); i++) {
+            Path file = files.get(i);
+            try {
+                WordCountMap counts = results.get(i).get();
+                if (counts != null) {
+                    window.add(counts, now);
+                    Metrics.INSTANCE.tokens.add(counts.tokens());
+                }
+                if (more(file)) {
+                    pending.add(file);
+                }
+            } catch (ExecutionException ex) {
+                // deleted or unreadable, follow again if it reappears
+                offsets.remove(file);
+                contents.remove(file);
+                Metrics.INSTANCE.filesFailed.increment();
+            }
+        }
+    }
+
+    private boolean more(Path file) {
+        Long offset = offsets.get(file);
+        try {
+            return offset != null && Files.size(file) > offset;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * Count the bytes appended to a file since it was last read. A trailing partial
+     * token is left for the next read. A file that shrank was truncated or
+     * replaced and is read again from the start. The appended bytes of a binary file are skipped.
+     *
+     * @return the counts, or null if there was nothing to count.
+     */
+    WordCountMap readAppended(Path file) throws IOException {
+        Long offset = offsets.get(file);
+        if (offset == null) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                offset = 0L;
+                contents.remove(file);
+            }
+            if (size == offset) {
+                offsets.put(file, offset);
+                return null;
+            }
+            ContentSniffer.Content content = contents.get(file);
+            if (content == null) {
+                content = ContentSniffer.sniff(channel);
+                contents.put(file, content);
+                if (content.isBinary()) {
+                    Metrics.INSTANCE.filesSkipped.increment();
+                }
+            }
+            if (content.isBinary()) {
+                offsets.put(file, size);
+                return null;
+            }
+            // UTF-16 is cut between code units, the byte holding ASCII comes first in little endian
+            int unit = content.charset == StandardCharsets.UTF_16LE
+                    || content.charset == StandardCharsets.UTF_16BE ? 2 : 1;
+            int low = content.charset == StandardCharsets.UTF_16BE ? 1 : 0;
+            int length = (int) Math.min(size - offset, MAX_APPEND);
+            length -= length % unit;
+            if (length == 0) {
+                offsets.put(file, offset);
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            byte[] bytes = buffer.array();
+            int end = buffer.position() - buffer.position() % unit;
+            // stop after the last whitespace unless a whole pass holds a single token
+            int complete = end;
+            while (complete > 0 && !whitespace(bytes, complete - unit, unit, low)) {
+                complete -= unit;
+            }
+            if (complete == 0 && end < MAX_APPEND) {
+                offsets.put(file, offset);
+                return null;
+            }
+            if (complete == 0) {
+                complete = end;
+            }
+            offsets.put(file, offset + complete);
+            // a byte order mark is only at the start of the file
+            int from = (int) Math.min(complete, Math.max(0, content.bomLength - offset));
+            WordCountMap counts = new WordCountMap();
+            Tokenizer words = tokenizer.newTokenizer(counts);
+            if (content.isUtf8()) {
+                words.feed(bytes, from, complete - from);
+                words.finish();
+            }
+            else {
+                ContentSniffer.transcode(new ByteArrayInputStream(bytes, from, complete - from), content.charset,
+                        words);
+            }
+            Metrics.INSTANCE.bytesRead.add(complete - from);
+            return counts;
+        }
+    }
+
+    /**
+     * @param unit bytes per code unit, one or two.
+     * @param low the index within the unit of the byte holding an ASCII character.
+     * @return true if the code unit at 'index' is ASCII whitespace.
+     */
+    private static boolean whitespace(byte[] bytes, int index, int unit, int low) {
+        if (unit == 1) {
+            return Tokenizer.isWhitespace(bytes[index]);
+        }
+        return bytes[index + 1 - low] == 0 && Tokenizer.isWhitespace(bytes[index + low]);
+    }
+}
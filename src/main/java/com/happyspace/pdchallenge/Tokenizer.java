@@ -0,0 +1,221 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits UTF-8 bytes into whitespace separated tokens without decoding them.
+ *
+ * Whitespace is the set matched by the regex {@code \s}: space, tab, line feed,
+ * vertical tab, form feed and carriage return. All of these are single bytes in UTF-8
+ * and never occur inside a multi-byte sequence, so boundaries can be found on raw bytes.
+ *
+ * Input may arrive in any number of blocks. A token cut by the end of a block is carried
+ * over and completed by the next block, or emitted by {@link #finish()}.
+ */
+@NotThreadSafe
+public class Tokenizer {
+
+    /**
+     * Receives each token. The bytes are only valid for the duration of the call.
+     */
+    public interface TokenSink {
+        void token(byte[] bytes, int offset, int length);
+    }
+
+    /**
+     * Told where lines and inputs end, for a sink that looks at more than one token.
+     */
+    public interface Boundaries {
+        /**
+         * A line feed follows the last token.
+         */
+        void lineBreak();
+
+        /**
+         * The input has ended, called by {@link #finish()} after the last token.
+         */
+        void end();
+
+        /**
+         * The tokens from here on only complete what started before, see {@link Tokenizer#overlap()}.
+         */
+        void overlap();
+
+        /**
+         * @return true once the overlap has completed everything that started before it.
+         */
+        boolean overlapDone();
+    }
+
+    /**
+     * Default size of read buffers.
+     */
+    public static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final boolean[] WHITESPACE = new boolean[256];
+
+    static {
+        WHITESPACE[' '] = true;
+        WHITESPACE['\t'] = true;
+        WHITESPACE['\n'] = true;
+        WHITESPACE[0x0B] = true;
+        WHITESPACE['\f'] = true;
+        WHITESPACE['\r'] = true;
+    }
+
+    private final TokenSink sink;
+    private final boolean[] separators;
+    private final Boundaries boundaries;
+
+    /**
+     * The start of a token cut by the end of the previous block.
+     */
+    private byte[] partial = new byte[64];
+    private int partialLength;
+
+    private long bytes;
+
+    /**
+     *
+     * @param sink receives every token.
+     */
+    public Tokenizer(TokenSink sink) {
+        this(sink, WHITESPACE);
+    }
+
+    /**
+     *
+     * @param sink receives every token.
+     * @param separators the bytes that separate tokens, indexed by unsigned value. Must include whitespace.
+     */
+    Tokenizer(TokenSink sink, boolean[] separators) {
+        this(sink, separators, null);
+    }
+
+    /**
+     *
+     * @param sink receives every token.
+     * @param separators the bytes that separate tokens, indexed by unsigned value. Must include whitespace.
+     * @param boundaries told where lines and inputs end, or null.
+     */
+    Tokenizer(TokenSink sink, boolean[] separators, Boundaries boundaries) {
+        this.sink = sink;
+        this.separators = separators;
+        this.boundaries = boundaries;
+    }
+
+    /**
+     * @return a copy of the table of whitespace bytes.
+     */
+    static boolean[] whitespace() {
+        return WHITESPACE.clone();
+    }
+
+    /**
+     * @return true if the byte separates tokens.
+     */
+    public static boolean isWhitespace(byte b) {
+        return WHITESPACE[b & 0xFF];
+    }
+
+    /**
+     * Tokenize a block of bytes.
+     */
+    public void feed(byte[] bytes, int offset, int length) {
+        this.bytes += length;
+        int end = offset + length;
+        int start = offset;
+        for (int i = offset; i < end; i++) {
+            if (separators[bytes[i] & 0xFF]) {
+                if (partialLength > 0) {
+                    append(bytes, start, i - start);
+                    sink.token(partial, 0, partialLength);
+                    partialLength = 0;
+                }
+                else if (i > start) {
+                    sink.token(bytes, start, i - start);
+                }
+                if (boundaries != null && bytes[i] == '\n') {
+                    boundaries.lineBreak();
+                }
+                start = i + 1;
+            }
+        }
+        if (start < end) {
+            append(bytes, start, end - start);
+        }
+    }
+
+    /**
+     * Emit the token left at the end of the input, if any, and mark the end of the input.
+     */
+    public void finish() {
+        if (partialLength > 0) {
+            sink.token(partial, 0, partialLength);
+            partialLength = 0;
+        }
+        if (boundaries != null) {
+            boundaries.end();
+        }
+    }
+
+    /**
+     * Count what is fed from here on only as the end of n-grams that started before it. A range
+     * of the input, fed up to and including the whitespace that ends it and continued until
+     * {@link #overlapDone()}, then counts exactly the n-grams that start in the range.
+     * Without n-grams nothing that follows the range is needed.
+     */
+    public void overlap() {
+        if (boundaries != null) {
+            boundaries.overlap();
+        }
+    }
+
+    /**
+     * @return true once nothing more is needed after {@link #overlap()}.
+     */
+    public boolean overlapDone() {
+        return boundaries == null || boundaries.overlapDone();
+    }
+
+    /**
+     * Take the token left at the end of the input without emitting it.
+     *
+     * @return the bytes of the token, empty if the input ended with whitespace.
+     */
+    public byte[] remainder() {
+        byte[] remainder = Arrays.copyOf(partial, partialLength);
+        partialLength = 0;
+        return remainder;
+    }
+
+    /**
+     * @return the number of bytes fed so far.
+     */
+    public long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Tokenize a whole stream using the given buffer.
+     */
+    public void tokenize(InputStream in, byte[] buffer) throws IOException {
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            feed(buffer, 0, read);
+        }
+        finish();
+    }
+
+    private void append(byte[] bytes, int offset, int length) {
+        if (partialLength + length > partial.length) {
+            partial = Arrays.copyOf(partial, Math.max(partial.length * 2, partialLength + length));
+        }
+        System.arraycopy(bytes, offset, partial, partialLength, length);
+        partialLength += length;
+    }
+}
@@ -0,0 +1,167 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.Immutable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+
+/**
+ * How text is split into words.
+ *
+ * Whitespace always separates words. Further ASCII separators, such as punctuation,
+ * may be added; they are single bytes in UTF-8 as well, so input is still split
+ * without decoding it. Files are cut into chunks at whitespace, which remains a
+ * valid boundary whatever else separates words.
+ *
+ * Tokens may then be normalized, see {@link Normalizer}. Normalization is off by default.
+ * Runs of n tokens may be counted instead of single tokens, see {@link NGramSink}.
+ */
+@Immutable
+public final class TokenizerConfig {
+
+    /**
+     * Words separated by whitespace only.
+     */
+    public static final TokenizerConfig DEFAULT = new TokenizerConfig("");
+
+    private final boolean[] separators;
+    private final String extraSeparators;
+    private final Normalizer normalizer;
+    private final int ngrams;
+    private final boolean crossLines;
+
+    /**
+     *
+     * @param extraSeparators ASCII characters that separate words in addition to whitespace.
+     * @throws IllegalArgumentException if a separator is not ASCII.
+     */
+    public TokenizerConfig(String extraSeparators) {
+        this(extraSeparators, Normalizer.NONE);
+    }
+
+    /**
+     *
+     * @param extraSeparators ASCII characters that separate words in addition to whitespace.
+     * @param normalizer applied to every token before it is counted.
+     * @throws IllegalArgumentException if a separator is not ASCII.
+     */
+    public TokenizerConfig(String extraSeparators, Normalizer normalizer) {
+        this(extraSeparators, normalizer, 1, false);
+    }
+
+    /**
+     *
+     * @param extraSeparators ASCII characters that separate words in addition to whitespace.
+     * @param normalizer applied to every token before it is counted.
+     * @param ngrams tokens per counted n-gram, 1 to count single tokens.
+     * @param crossLines whether an n-gram may continue on the next line.
+     * @throws IllegalArgumentException if a separator is not ASCII or n is out of range.
+     */
+    public TokenizerConfig(String extraSeparators, Normalizer normalizer, int ngrams, boolean crossLines) {
+        if (ngrams < 1 || ngrams > NGramSink.MAX_N) {
+            throw new IllegalArgumentException("n-grams must be from 1 to " + NGramSink.MAX_N + ": " + ngrams);
+        }
+        this.separators = Tokenizer.whitespace();
+        for (int i = 0; i < extraSeparators.length(); i++) {
+            char c = extraSeparators.charAt(i);
+            if (c >= 0x80) {
+                throw new IllegalArgumentException("separators must be ASCII: " + c);
+            }
+            separators[c] = true;
+        }
+        this.extraSeparators = extraSeparators;
+        this.normalizer = normalizer;
+        this.ngrams = ngrams;
+        this.crossLines = crossLines;
+    }
+
+    /**
+     * @return the separators added to whitespace.
+     */
+    public String extraSeparators() {
+        return extraSeparators;
+    }
+
+    /**
+     * @return how tokens are normalized.
+     */
+    public Normalizer normalizer() {
+        return normalizer;
+    }
+
+    /**
+     * @return tokens per counted n-gram, 1 when single tokens are counted.
+     */
+    public int ngrams() {
+        return ngrams;
+    }
+
+    /**
+     * @return whether an n-gram may continue on the next line.
+     */
+    public boolean crossLines() {
+        return crossLines;
+    }
+
+    /**
+     * Write the configuration, so that a worker or a later run can split words the same way.
+     */
+    void writeTo(DataOutput out) throws IOException {
+        out.writeUTF(extraSeparators);
+        normalizer.writeTo(out);
+        out.writeByte(ngrams);
+        out.writeBoolean(crossLines);
+    }
+
+    /**
+     * Read a configuration written by {@link #writeTo(DataOutput)}.
+     *
+     * @throws IOException if the configuration is not valid.
+     */
+    static TokenizerConfig readFrom(DataInput in) throws IOException {
+        String extraSeparators = in.readUTF();
+        Normalizer normalizer = Normalizer.readFrom(in);
+        int ngrams = in.readByte();
+        boolean crossLines = in.readBoolean();
+        try {
+            return new TokenizerConfig(extraSeparators, normalizer, ngrams, crossLines);
+        } catch (IllegalArgumentException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    /**
+     * @return a CRC32 of the written configuration, equal for equal configurations.
+     */
+    long fingerprint() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            writeTo(new DataOutputStream(bytes));
+        } catch (IOException ex) {
+            throw new IllegalStateException(ex);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(bytes.toByteArray());
+        return crc.getValue();
+    }
+
+    /**
+     * @return a tokenizer with this configuration.
+     */
+    public Tokenizer newTokenizer(Tokenizer.TokenSink sink) {
+        Tokenizer.TokenSink target = sink;
+        NGramSink phrases = null;
+        if (ngrams > 1) {
+            phrases = new NGramSink(ngrams, crossLines, sink);
+            target = phrases;
+        }
+        if (normalizer.enabled()) {
+            target = normalizer.newSink(target);
+        }
+        return new Tokenizer(target, separators, phrases);
+    }
+}
@@ -0,0 +1,74 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Selects the N largest entries from a stream of (word, count) pairs.
+ *
+ * Keeps a min-heap of at most N entries, so selection is O(n log N) and needs
+ * O(N) memory instead of sorting every entry. Ties are broken by word using
+ * {@link EntryComparator}, which makes the result independent of input order.
+ */
+@NotThreadSafe
+public class TopN {
+
+    private final int n;
+    private final Comparator<Map.Entry<String, Long>> order = new EntryComparator();
+    private final PriorityQueue<Map.Entry<String, Long>> heap;
+
+    /**
+     *
+     * @param n how many entries to keep.
+     */
+    public TopN(int n) {
+        this.n = Math.max(0, n);
+        // the head of the heap is the entry that would be dropped first
+        this.heap = new PriorityQueue<>(Math.max(1, this.n), Collections.reverseOrder(order));
+    }
+
+    /**
+     * A cheap check made before creating a word, for entries that are certain to be rejected.
+     *
+     * @return false if an entry with this count cannot enter the result.
+     */
+    public boolean accepts(long count) {
+        if (heap.size() < n) {
+            return true;
+        }
+        return n > 0 && count >= heap.peek().getValue();
+    }
+
+    /**
+     * Offer an entry.
+     */
+    public void offer(String word, long count) {
+        if (!accepts(count)) {
+            return;
+        }
+        Map.Entry<String, Long> entry = new AbstractMap.SimpleImmutableEntry<>(word, count);
+        if (heap.size() < n) {
+            heap.add(entry);
+        }
+        else if (order.compare(entry, heap.peek()) < 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    /**
+     * @return the selected entries in descending order of count, then ascending word.
+     */
+    public List<Map.Entry<String, Long>> result() {
+        List<Map.Entry<String, Long>> results = new ArrayList<>(heap);
+        Collections.sort(results, order);
+        return results;
+    }
+}
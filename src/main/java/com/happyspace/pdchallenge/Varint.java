@@ -0,0 +1,64 @@
+package com.happyspace.pdchallenge;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Variable length encoding of non-negative integers, seven bits per byte,
+ * least significant group first. Small counts and lengths take a single byte.
+ */
+public final class Varint {
+
+    private Varint() {
+    }
+
+    public static void write(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    public static long read(DataInput in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("malformed varint");
+            }
+        }
+    }
+
+    public static void write(ByteBuffer out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    public static long read(ByteBuffer in) throws IOException {
+        long value = 0;
+        int shift = 0;
+        while (true) {
+            byte b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+            shift += 7;
+            if (shift > 63) {
+                throw new IOException("malformed varint");
+            }
+        }
+    }
+}
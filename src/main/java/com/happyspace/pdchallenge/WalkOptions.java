@@ -0,0 +1,207 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Which files a directory walk passes on to be counted, and how it walks.
+ *
+ * Globs use the syntax of {@link java.nio.file.FileSystem#getPathMatcher(String)}. A glob
+ * containing '/' is matched against the path relative to the start path, any other glob
+ * against the file name alone, so "*.log" matches at any depth and ".git" prunes every
+ * directory of that name. Excludes apply to files and directories, includes to files only.
+ * A file must match an include, when there are any, and no exclude.
+ */
+@Immutable
+public final class WalkOptions {
+
+    /**
+     * Every regular file, links not followed.
+     */
+    public static final WalkOptions DEFAULT = new Builder().build();
+
+    /**
+     * Threads listing directories when files are collected before counting. Metadata reads on
+     * a cold cache or a network file system are mostly waiting, so this exceeds the core count.
+     */
+    static final int THREADS_DEFAULT = 16;
+
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+    private final List<Boolean> includeRelative;
+    private final List<Boolean> excludeRelative;
+    private final long minSize;
+    private final long maxSize;
+    private final long modifiedAfter;
+    private final boolean followLinks;
+    private final int threads;
+
+    private WalkOptions(Builder builder) {
+        this.includes = matchers(builder.includes);
+        this.includeRelative = relative(builder.includes);
+        this.excludes = matchers(builder.excludes);
+        this.excludeRelative = relative(builder.excludes);
+        this.minSize = builder.minSize;
+        this.maxSize = builder.maxSize;
+        this.modifiedAfter = builder.modifiedAfter;
+        this.followLinks = builder.followLinks;
+        this.threads = builder.threads;
+    }
+
+    /**
+     * @return true if symbolic links are followed.
+     */
+    public boolean followLinks() {
+        return followLinks;
+    }
+
+    /**
+     * @return threads listing directories when files are collected before counting.
+     */
+    public int threads() {
+        return threads;
+    }
+
+    /**
+     * @param relative the directory relative to the start path.
+     * @return false if the directory and everything under it is excluded.
+     */
+    boolean acceptDirectory(Path relative) {
+        return !matches(excludes, excludeRelative, relative);
+    }
+
+    /**
+     * @param relative the file relative to the start path, empty if the start path is the file.
+     * @param attrs the attributes of the file.
+     * @return true if the file should be counted.
+     */
+    boolean acceptFile(Path relative, BasicFileAttributes attrs) {
+        long size = attrs.size();
+        if (size < minSize || size > maxSize) {
+            return false;
+        }
+        if (modifiedAfter > 0 && attrs.lastModifiedTime().toMillis() <= modifiedAfter) {
+            return false;
+        }
+        if (!includes.isEmpty() && !matches(includes, includeRelative, relative)) {
+            return false;
+        }
+        return !matches(excludes, excludeRelative, relative);
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, List<Boolean> relative, Path path) {
+        Path name = path.getFileName();
+        for (int i = 0; i < matchers.size(); i++) {
+            Path target = relative.get(i) ? path : name;
+            if (target != null && matchers.get(i).matches(target)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<PathMatcher> matchers(List<String> globs) {
+        List<PathMatcher> matchers = new ArrayList<>(globs.size());
+        for (String glob : globs) {
+            matchers.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+        }
+        return Collections.unmodifiableList(matchers);
+    }
+
+    private static List<Boolean> relative(List<String> globs) {
+        List<Boolean> relative = new ArrayList<>(globs.size());
+        for (String glob : globs) {
+            relative.add(glob.indexOf('/') >= 0);
+        }
+        return Collections.unmodifiableList(relative);
+    }
+
+    /**
+     * Builds walk options. By default every regular file is accepted.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+        private final List<String> includes = new ArrayList<>();
+        private final List<String> excludes = new ArrayList<>();
+        private long minSize;
+        private long maxSize = Long.MAX_VALUE;
+        private long modifiedAfter;
+        private boolean followLinks;
+        private int threads = THREADS_DEFAULT;
+
+        /**
+         * @param glob files to count. When any are given only matching files are counted.
+         * @throws IllegalArgumentException if the glob is invalid.
+         */
+        public Builder include(String glob) {
+            FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            includes.add(glob);
+            return this;
+        }
+
+        /**
+         * @param glob files and directories to skip.
+         * @throws IllegalArgumentException if the glob is invalid.
+         */
+        public Builder exclude(String glob) {
+            FileSystems.getDefault().getPathMatcher("glob:" + glob);
+            excludes.add(glob);
+            return this;
+        }
+
+        /**
+         * @param minSize the smallest file counted, in bytes.
+         */
+        public Builder minSize(long minSize) {
+            this.minSize = minSize;
+            return this;
+        }
+
+        /**
+         * @param maxSize the largest file counted, in bytes.
+         */
+        public Builder maxSize(long maxSize) {
+            this.maxSize = maxSize;
+            return this;
+        }
+
+        /**
+         * @param modifiedAfter milliseconds since the epoch, only files modified later are counted. Zero for all.
+         */
+        public Builder modifiedAfter(long modifiedAfter) {
+            this.modifiedAfter = modifiedAfter;
+            return this;
+        }
+
+        /**
+         * @param followLinks follow symbolic links. Directories reached twice, as through a link loop, are walked once.
+         */
+        public Builder followLinks(boolean followLinks) {
+            this.followLinks = followLinks;
+            return this;
+        }
+
+        /**
+         * @param threads threads listing directories when files are collected before counting.
+         */
+        public Builder threads(int threads) {
+            if (threads <= 0) {
+                throw new IllegalArgumentException("threads must be positive");
+            }
+            this.threads = threads;
+            return this;
+        }
+
+        public WalkOptions build() {
+            return new WalkOptions(this);
+        }
+    }
+}
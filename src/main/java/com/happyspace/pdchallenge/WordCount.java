@@ -0,0 +1,45 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * A word and the number of times it occurred.
+ */
+@Immutable
+public final class WordCount {
+
+    private final String word;
+    private final long count;
+
+    public WordCount(String word, long count) {
+        this.word = word;
+        this.count = count;
+    }
+
+    public String word() {
+        return word;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof WordCount)) {
+            return false;
+        }
+        WordCount other = (WordCount) o;
+        return count == other.count && word.equals(other.word);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * word.hashCode() + (int) (count ^ (count >>> 32));
+    }
+
+    @Override
+    public String toString() {
+        return word + "=" + count;
+    }
+}
@@ -0,0 +1,442 @@
+package com.happyspace.pdchallenge;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * An open addressing map from words to long counts.
+ *
+ * Words are kept as UTF-8 bytes in a single arena and each distinct word gets a dense id.
+ * Per-word data lives in parallel primitive arrays indexed by id, and the hash table
+ * holds only ids, so there is no boxing and no per-entry object. Incrementing a word
+ * is a single probe sequence.
+ *
+ * Strings are only created when a caller asks for {@link #word(int)}.
+ *
+ * Counts are kept as ints, which is enough for every per-file map. A map in which a
+ * count leaves the int range moves all of its counts to longs once, so only the few
+ * maps that need it pay for the wider array.
+ *
+ * The distinct words of one map are limited to about 2 GB of UTF-8, the largest byte array.
+ * Past that {@link FullException} is thrown. Counting treats it as a failure of the file whose
+ * words no longer fit, so a single file, counted whole, can hold at most that much vocabulary.
+ */
+@NotThreadSafe
+public class WordCountMap implements Tokenizer.TokenSink, CountTable {
+
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The largest array the VM reliably allocates.
+     */
+    private static final int MAX_ARENA = Integer.MAX_VALUE - 8;
+
+    /**
+     * The most words one table can index.
+     */
+    private static final int MAX_ENTRIES = 1 << 29;
+
+    /**
+     * Ids plus one, zero marks a free slot. Length is a power of two.
+     */
+    private int[] table;
+    private int mask;
+
+    private int[] hashes;
+    private int[] offsets;
+    private int[] lengths;
+    /**
+     * Null once the counts have been widened.
+     */
+    private int[] counts;
+    private long[] wideCounts;
+    private int size;
+
+    private byte[] arena;
+    private int arenaLength;
+
+    private long tokens;
+
+    /**
+     * Thrown when the words of a map would no longer fit its arena. The map is left as it was.
+     */
+    public static final class FullException extends IllegalStateException {
+        FullException() {
+            super("words of one map exceed " + MAX_ARENA + " bytes");
+        }
+    }
+
+    public WordCountMap() {
+        this(INITIAL_CAPACITY);
+    }
+
+    /**
+     *
+     * @param expected the number of distinct words expected.
+     */
+    public WordCountMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected) * 2 - 1) * 2;
+        table = new int[capacity];
+        mask = capacity - 1;
+        hashes = new int[capacity / 2];
+        offsets = new int[capacity / 2];
+        lengths = new int[capacity / 2];
+        counts = new int[capacity / 2];
+        arena = new byte[capacity * 8];
+    }
+
+    /**
+     * Count one occurrence of a token.
+     */
+    @Override
+    public void token(byte[] bytes, int offset, int length) {
+        tokens++;
+        add(bytes, offset, length, 1);
+    }
+
+    /**
+     * @return the number of tokens counted through {@link #token(byte[], int, int)}.
+     */
+    public long tokens() {
+        return tokens;
+    }
+
+    /**
+     * Record tokens counted through {@link #add(byte[], int, int, long)} on behalf of a sink
+     * that counts something other than single tokens.
+     */
+    void addTokens(long count) {
+        tokens += count;
+    }
+
+    /**
+     * Add 'delta' to the count of a word, inserting it if it is new.
+     *
+     * @return the id of the word.
+     */
+    public int add(byte[] bytes, int offset, int length, long delta) {
+        return add(bytes, offset, length, hash(bytes, offset, length), delta);
+    }
+
+    /**
+     * Remove every word and reset the token count, keeping the arrays for reuse.
+     */
+    public void clear() {
+        if (size == 0 && tokens == 0) {
+            return;
+        }
+        Arrays.fill(table, 0);
+        if (counts == null) {
+            counts = new int[wideCounts.length];
+            wideCounts = null;
+        }
+        size = 0;
+        arenaLength = 0;
+        tokens = 0;
+    }
+
+    /**
+     * Add every count of another map to this one.
+     */
+    public void addAll(WordCountMap other) {
+        for (int id = 0; id < other.size; id++) {
+            add(other.arena, other.offsets[id], other.lengths[id], other.hashes[id], other.count(id));
+        }
+    }
+
+    /**
+     * @return whether every word of another map is sure to fit in this one.
+     */
+    boolean fits(WordCountMap other) {
+        return (long) arenaLength + other.arenaLength <= MAX_ARENA;
+    }
+
+    /**
+     * Add one entry of another map to this one, reusing its stored hash.
+     */
+    @Override
+    public void addEntry(WordCountMap other, int id) {
+        add(other.arena, other.offsets[id], other.lengths[id], other.hashes[id], other.count(id));
+    }
+
+    /**
+     * @return the hash of the word with the given id.
+     */
+    int hash(int id) {
+        return hashes[id];
+    }
+
+    /**
+     * @return the array holding the bytes of every word, see {@link #offset(int)} and {@link #length(int)}.
+     */
+    byte[] arena() {
+        return arena;
+    }
+
+    /**
+     * @return where the word with the given id starts in the arena.
+     */
+    int offset(int id) {
+        return offsets[id];
+    }
+
+    /**
+     * @return the length in bytes of the word with the given id.
+     */
+    @Override
+    public int length(int id) {
+        return lengths[id];
+    }
+
+    @Override
+    public void copyWord(int id, byte[] into) {
+        System.arraycopy(arena, offsets[id], into, 0, lengths[id]);
+    }
+
+    @Override
+    public int compareWords(int id1, int id2) {
+        int start1 = offsets[id1];
+        int start2 = offsets[id2];
+        int n = Math.min(lengths[id1], lengths[id2]);
+        for (int i = 0; i < n; i++) {
+            byte b1 = arena[start1 + i];
+            byte b2 = arena[start2 + i];
+            if (b1 != b2) {
+                return (b1 & 0xFF) - (b2 & 0xFF);
+            }
+        }
+        return lengths[id1] - lengths[id2];
+    }
+
+    /**
+     * @return an estimate of the bytes held by this map.
+     */
+    long footprint() {
+        return table.length * 4L + hashes.length * (counts != null ? 16L : 20L) + arena.length;
+    }
+
+    /**
+     * Subtract every count of another map from this one.
+     * Words whose count drops to zero stay in the map and are skipped when written.
+     */
+    public void subtractAll(WordCountMap other) {
+        for (int id = 0; id < other.size; id++) {
+            add(other.arena, other.offsets[id], other.lengths[id], other.hashes[id], -other.count(id));
+        }
+    }
+
+    /**
+     * Write the words with a positive count as varint length, UTF-8 bytes, varint count.
+     */
+    public void writeTo(DataOutput out) throws IOException {
+        int live = 0;
+        for (int id = 0; id < size; id++) {
+            if (count(id) > 0) {
+                live++;
+            }
+        }
+        Varint.write(out, live);
+        for (int id = 0; id < size; id++) {
+            long count = count(id);
+            if (count > 0) {
+                Varint.write(out, lengths[id]);
+                out.write(arena, offsets[id], lengths[id]);
+                Varint.write(out, count);
+            }
+        }
+    }
+
+    /**
+     * Read a map written by {@link #writeTo(DataOutput)}. The map is sized as it is read, not
+     * from the entry count, so a bad count fails on the data rather than on allocation.
+     *
+     * @throws IOException if the entry count or a word length is negative or larger than a map holds.
+     */
+    public static WordCountMap readFrom(DataInput in) throws IOException {
+        long entries = Varint.read(in);
+        if (entries < 0 || entries > MAX_ENTRIES) {
+            throw new IOException("entry count out of range: " + entries);
+        }
+        WordCountMap map = new WordCountMap((int) Math.min(entries, 1 << 16));
+        byte[] buffer = new byte[64];
+        for (long i = 0; i < entries; i++) {
+            long read = Varint.read(in);
+            if (read < 0 || read > MAX_ARENA) {
+                throw new IOException("word length out of range: " + read);
+            }
+            int length = (int) read;
+            if (length > buffer.length) {
+                buffer = new byte[Math.max(length, buffer.length * 2)];
+            }
+            in.readFully(buffer, 0, length);
+            map.add(buffer, 0, length, Varint.read(in));
+        }
+        return map;
+    }
+
+    /**
+     * @return the number of distinct words.
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the word with the given id.
+     */
+    @Override
+    public String word(int id) {
+        return new String(arena, offsets[id], lengths[id], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return the count of the word with the given id.
+     */
+    @Override
+    public long count(int id) {
+        return counts != null ? counts[id] : wideCounts[id];
+    }
+
+    /**
+     * @return the count of a word, zero if it has not been seen.
+     */
+    public long count(String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        int id = find(bytes, 0, bytes.length, hash(bytes, 0, bytes.length));
+        return id < 0 ? 0 : count(id);
+    }
+
+    private int add(byte[] bytes, int offset, int length, int hash, long delta) {
+        int slot = hash & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                int id = insert(bytes, offset, length, hash, delta);
+                table[slot] = id + 1;
+                if (size * 2 > table.length) {
+                    rehash();
+                }
+                return id;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && equals(id, bytes, offset, length)) {
+                setCount(id, count(id) + delta);
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int find(byte[] bytes, int offset, int length, int hash) {
+        int slot = hash & mask;
+        while (true) {
+            int entry = table[slot];
+            if (entry == 0) {
+                return -1;
+            }
+            int id = entry - 1;
+            if (hashes[id] == hash && equals(id, bytes, offset, length)) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private int insert(byte[] bytes, int offset, int length, int hash, long delta) {
+        if (size == hashes.length) {
+            int capacity = size * 2;
+            hashes = Arrays.copyOf(hashes, capacity);
+            offsets = Arrays.copyOf(offsets, capacity);
+            lengths = Arrays.copyOf(lengths, capacity);
+            if (counts != null) {
+                counts = Arrays.copyOf(counts, capacity);
+            }
+            else {
+                wideCounts = Arrays.copyOf(wideCounts, capacity);
+            }
+        }
+        long needed = (long) arenaLength + length;
+        if (needed > arena.length) {
+            if (needed > MAX_ARENA) {
+                throw new FullException();
+            }
+            arena = Arrays.copyOf(arena, (int) Math.min(MAX_ARENA, Math.max(arena.length * 2L, needed)));
+        }
+        System.arraycopy(bytes, offset, arena, arenaLength, length);
+
+        int id = size++;
+        hashes[id] = hash;
+        offsets[id] = arenaLength;
+        lengths[id] = length;
+        setCount(id, delta);
+        arenaLength += length;
+        return id;
+    }
+
+    private void setCount(int id, long count) {
+        if (counts != null) {
+            if ((int) count == count) {
+                counts[id] = (int) count;
+                return;
+            }
+            widen();
+        }
+        wideCounts[id] = count;
+    }
+
+    /**
+     * Move every count to longs, once a count no longer fits an int.
+     */
+    private void widen() {
+        wideCounts = new long[counts.length];
+        for (int id = 0; id < size; id++) {
+            wideCounts[id] = counts[id];
+        }
+        counts = null;
+    }
+
+    private boolean equals(int id, byte[] bytes, int offset, int length) {
+        if (lengths[id] != length) {
+            return false;
+        }
+        int start = offsets[id];
+        for (int i = 0; i < length; i++) {
+            if (arena[start + i] != bytes[offset + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void rehash() {
+        table = new int[table.length * 2];
+        mask = table.length - 1;
+        for (int id = 0; id < size; id++) {
+            int slot = hashes[id] & mask;
+            while (table[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            table[slot] = id + 1;
+        }
+    }
+
+    /**
+     * A polynomial hash with a final mix so that the low bits used by the table are well spread.
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int h = 1;
+        for (int i = offset; i < offset + length; i++) {
+            h = 31 * h + bytes[i];
+        }
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return h;
+    }
+}
@@ -1,76 +1,348 @@
 package com.happyspace.pdchallenge;
 
-import java.io.BufferedReader;
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.*;
-import java.util.concurrent.Callable;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.RecursiveAction;
 
 /**
  * A task for counting word occurrences in text.
- * Uses the Callable interface to return results.
+ * Runs as a fork/join leaf so it can be forked as soon as its file is discovered.
  *
- * Basically a simple reducer in a map reduce.
+ * Basically a simple mapper in a map reduce. The complete counts for the file
+ * are handed to an {@link Aggregator} which performs the reduce.
  */
-public class WordCountTask implements Callable<List<Map.Entry<String , Integer>>> {
+public class WordCountTask extends RecursiveAction {
+
+    /**
+     * Read buffer reused by every task run on the same worker thread.
+     */
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[Tokenizer.BUFFER_SIZE];
+        }
+    };
 
     private final Path filePath;
-    private final int topN;
+    private final Aggregator aggregator;
+    private final FileChunker.Chunk chunk;
+    private final TokenizerConfig tokenizer;
+
+    /**
+     * Collects the counts of every chunk of one file, in place of the aggregator.
+     */
+    private final WordCountMap staging;
+
+    /**
+     *
+     * @param filePath A path to a file.
+     * @param aggregator Receives the counts for the file.
+     */
+    public WordCountTask(Path filePath, Aggregator aggregator) {
+        this(filePath, aggregator, null);
+    }
+
+    /**
+     *
+     * @param filePath A path to a file.
+     * @param aggregator Receives the counts for the chunk.
+     * @param chunk A whitespace aligned range of the file, which is memory mapped.
+     *              Null to stream the whole file.
+     */
+    public WordCountTask(Path filePath, Aggregator aggregator, FileChunker.Chunk chunk) {
+        this(filePath, aggregator, chunk, TokenizerConfig.DEFAULT);
+    }
 
     /**
      *
      * @param filePath A path to a file.
-     * @param topN How many words to return.
+     * @param aggregator Receives the counts for the chunk.
+     * @param chunk A whitespace aligned range of the file, which is memory mapped.
+     *              Null to stream the whole file.
+     * @param tokenizer How words are separated.
      */
-    public WordCountTask(Path filePath, int topN) {
+    public WordCountTask(Path filePath, Aggregator aggregator, FileChunker.Chunk chunk, TokenizerConfig tokenizer) {
         this.filePath = filePath;
-        this.topN = topN;
+        this.aggregator = aggregator;
+        this.chunk = chunk;
+        this.tokenizer = tokenizer;
+        this.staging = null;
     }
 
     /**
+     * A task that merges the counts of its chunk into a table shared by the chunks of one file
+     * as soon as it is done, so that a chunk's own table does not outlive the task.
      *
-     * @return a list of words in descending order
-     * limited to the 'topN' values
-     * @throws Exception
+     * @param filePath A path to a file.
+     * @param chunk A whitespace aligned range of the file, which is memory mapped.
+     * @param tokenizer How words are separated.
+     * @param staging Receives the counts for the chunk. Locked while they are merged.
+     */
+    WordCountTask(Path filePath, FileChunker.Chunk chunk, TokenizerConfig tokenizer, WordCountMap staging) {
+        this.filePath = filePath;
+        this.aggregator = null;
+        this.chunk = chunk;
+        this.tokenizer = tokenizer;
+        this.staging = staging;
+    }
+
+    /**
+     * Count the file, or chunk, and pass the counts to the aggregator.
+     * @throws FailedToCountFile if the file cannot be read.
      */
     @Override
-    public List<Map.Entry<String , Integer>> call() throws Exception {
-        return countWords();
+    protected void compute() {
+        long started = System.nanoTime();
+        try {
+            WordCountMap counts = countWords(filePath, chunk, tokenizer);
+            if (staging != null) {
+                synchronized (staging) {
+                    try {
+                        staging.addAll(counts);
+                    } catch (WordCountMap.FullException ex) {
+                        // the file is dropped with its staging table
+                        throw new IOException(ex.getMessage(), ex);
+                    }
+                    staging.addTokens(counts.tokens());
+                }
+                return;
+            }
+            long merging = System.nanoTime();
+            aggregator.accept(counts);
+            Metrics.INSTANCE.merged(counts.tokens(), started, merging);
+            if (chunk == null) {
+                Metrics.INSTANCE.filesDone.increment();
+            }
+        } catch (IOException ex) {
+            Metrics.INSTANCE.filesFailed.increment();
+            throw new FailedToCountFile(filePath, ex);
+        }
     }
 
     /**
+     * Count a whole file, or a chunk of it, on the calling thread.
      *
-     * @return a list of words in descending order
-     * limited to the 'topN' values
+     * @param filePath A path to a file.
+     * @param chunk A range of the file, or null for the whole file.
+     * @return the count of every word in the file or chunk.
      * @throws IOException
      */
-    private List<Map.Entry<String , Integer>> countWords() throws IOException {
-        List<Map.Entry<String, Integer>> results;
-        Map<String, Integer> counts = new HashMap<>();
-        // try with resources.
-        try (BufferedReader reader = Files.newBufferedReader(filePath, StandardCharsets.UTF_8)) {
-
-            String line;
-            while ((line = reader.readLine()) != null) {
-                String[] strings = line.split(App.WHITE_SPACE_REGEX);
-                for (String word : strings) {
-                    if (counts.containsKey(word)) {
-                        Integer count = counts.get(word) + 1;
-                        counts.put(word, count);
-                    } else {
-                        counts.put(word, 1);
-                    }
-                }
+    static WordCountMap countWords(Path filePath, FileChunker.Chunk chunk) throws IOException {
+        return countWords(filePath, chunk, TokenizerConfig.DEFAULT);
+    }
+
+    /**
+     * Count a whole file, or a chunk of it, on the calling thread.
+     *
+     * @param filePath A path to a file.
+     * @param chunk A range of the file, or null for the whole file.
+     * @param config How words are separated.
+     * @return the count of every word in the file or chunk.
+     * @throws IOException if the file cannot be read, or its words do not fit one map.
+     */
+    static WordCountMap countWords(Path filePath, FileChunker.Chunk chunk, TokenizerConfig config)
+            throws IOException {
+        try {
+            return read(filePath, chunk, config);
+        } catch (WordCountMap.FullException ex) {
+            throw new IOException(ex.getMessage(), ex);
+        }
+    }
+
+    private static WordCountMap read(Path filePath, FileChunker.Chunk chunk, TokenizerConfig config)
+            throws IOException {
+        if (chunk == null) {
+            // try with resources.
+            try (InputStream in = Files.newInputStream(filePath)) {
+                return countWords(in, config);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            ByteBuffer range = channel.map(FileChannel.MapMode.READ_ONLY, chunk.offset, chunk.length);
+            if (config.ngrams() > 1) {
+                return countPhrases(channel, range, chunk.offset + chunk.length, config);
             }
+            return countWords(range, config);
+        }
+    }
 
-            results = new ArrayList<>(counts.entrySet());
-            Collections.sort(results, new EntryComparator());
-            if(results.size() > topN){
-                results = results.subList(0, topN);
+    /**
+     * Count the n-grams that start in a range of a file, reading on past the range until the
+     * last of them is complete, see {@link Tokenizer#overlap()}.
+     *
+     * @param range the mapped range, which ends before whitespace or at the end of the file.
+     * @param end the position in the file where the range ends.
+     */
+    private static WordCountMap countPhrases(FileChannel channel, ByteBuffer range, long end,
+                                             TokenizerConfig config) throws IOException {
+        WordCountMap counter = new WordCountMap();
+        Tokenizer tokenizer = config.newTokenizer(counter);
+        skipByteOrderMark(range);
+        feed(range, tokenizer);
+        long bytes = tokenizer.bytes();
+        byte[] buffer = BUFFER.get();
+        ByteBuffer next = ByteBuffer.wrap(buffer);
+        boolean first = true;
+        int read;
+        while ((read = channel.read(next, end)) > 0) {
+            int from = 0;
+            if (first) {
+                // the whitespace after the range ends its last token and perhaps its line
+                tokenizer.feed(buffer, 0, 1);
+                tokenizer.overlap();
+                first = false;
+                from = 1;
             }
+            if (tokenizer.overlapDone()) {
+                break;
+            }
+            tokenizer.feed(buffer, from, read - from);
+            if (tokenizer.overlapDone()) {
+                break;
+            }
+            end += read;
+            next.clear();
+        }
+        tokenizer.finish();
+        Metrics.INSTANCE.bytesRead.add(bytes);
+        return counter;
+    }
+
+    /**
+     * Count the remaining bytes of a buffer on the calling thread. The buffer's position is advanced.
+     *
+     * @param bytes the content, not compressed.
+     * @param config How words are separated.
+     * @return the count of every word.
+     */
+    static WordCountMap countWords(ByteBuffer bytes, TokenizerConfig config) {
+        WordCountMap counter = new WordCountMap();
+        Tokenizer tokenizer = config.newTokenizer(counter);
+        skipByteOrderMark(bytes);
+        feed(bytes, tokenizer);
+        tokenizer.finish();
+        Metrics.INSTANCE.bytesRead.add(tokenizer.bytes());
+        return counter;
+    }
+
+    /**
+     * The start of a file may carry a UTF-8 byte order mark, which is skipped.
+     */
+    private static void skipByteOrderMark(ByteBuffer bytes) {
+        if (bytes.remaining() >= 3 && (bytes.get(bytes.position()) & 0xFF) == 0xEF
+                && (bytes.get(bytes.position() + 1) & 0xFF) == 0xBB
+                && (bytes.get(bytes.position() + 2) & 0xFF) == 0xBF) {
+            bytes.position(bytes.position() + 3);
+        }
+    }
+
+    /**
+     * Feed the remaining bytes of a buffer to a tokenizer through the read buffer of the
+     * calling thread. The buffer's position is advanced and the last token is not emitted.
+     *
+     * @param bytes the content, not compressed.
+     * @param tokenizer receives the content.
+     */
+    static void feed(ByteBuffer bytes, Tokenizer tokenizer) {
+        byte[] buffer = BUFFER.get();
+        while (bytes.hasRemaining()) {
+            int length = Math.min(buffer.length, bytes.remaining());
+            bytes.get(buffer, 0, length);
+            tokenizer.feed(buffer, 0, length);
+        }
+    }
+
+    /**
+     * Count a stream on the calling thread. A stream that starts with the magic bytes of
+     * a {@link Codec} is decompressed on a separate thread while it is counted.
+     * The stream is not closed.
+     *
+     * @param in the content.
+     * @param config How words are separated.
+     * @return the count of every word.
+     */
+    static WordCountMap countWords(InputStream in, TokenizerConfig config) throws IOException {
+        WordCountMap counter = new WordCountMap();
+        Tokenizer tokenizer = config.newTokenizer(counter);
+        tokenize(in, tokenizer);
+        Metrics.INSTANCE.bytesRead.add(tokenizer.bytes());
+        return counter;
+    }
+
+    /**
+     * Feed a whole stream to a tokenizer on the calling thread, decompressing it if it starts
+     * with the magic bytes of a {@link Codec}. Uncompressed content is sniffed first: binary
+     * content is skipped and text that is not UTF-8 is decoded leniently. The last token is
+     * emitted, so the tokenizer may be fed further streams. The stream is not closed.
+     *
+     * @param in the content.
+     * @param tokenizer receives the content.
+     */
+    static void tokenize(InputStream in, Tokenizer tokenizer) throws IOException {
+        byte[] buffer = BUFFER.get();
+        int head = 0;
+        int read;
+        while (head < ContentSniffer.SAMPLE_BYTES
+                && (read = in.read(buffer, head, ContentSniffer.SAMPLE_BYTES - head)) != -1) {
+            head += read;
+        }
+        Codec codec = Codec.detect(buffer, head);
+        if (codec != Codec.NONE) {
+            InputStream whole = new SequenceInputStream(new ByteArrayInputStream(Arrays.copyOf(buffer, head)), in);
+            CompressedInput.tokenize(codec, whole, tokenizer);
+            tokenizer.finish();
+            return;
+        }
+        ContentSniffer.Content content = ContentSniffer.sniff(buffer, 0, head);
+        if (content.isBinary()) {
+            Metrics.INSTANCE.filesSkipped.increment();
+        }
+        else if (content.isUtf8()) {
+            tokenizer.feed(buffer, content.bomLength, head - content.bomLength);
+            tokenizer.tokenize(in, buffer);
         }
-        return results;
+        else {
+            InputStream whole = new SequenceInputStream(new ByteArrayInputStream(
+                    Arrays.copyOfRange(buffer, content.bomLength, head)), in);
+            ContentSniffer.transcode(whole, content.charset, tokenizer);
+        }
+    }
+
+    /**
+     * Count a file that has already been read into memory.
+     *
+     * @param bytes the content of the file.
+     * @param length how many bytes are valid.
+     * @return the count of every word.
+     */
+    static WordCountMap countWords(byte[] bytes, int length) {
+        return countWords(bytes, length, TokenizerConfig.DEFAULT);
+    }
+
+    /**
+     * Count a file that has already been read into memory.
+     *
+     * @param bytes the content of the file.
+     * @param length how many bytes are valid.
+     * @param config How words are separated.
+     * @return the count of every word.
+     */
+    static WordCountMap countWords(byte[] bytes, int length, TokenizerConfig config) {
+        WordCountMap counter = new WordCountMap();
+        Tokenizer tokenizer = config.newTokenizer(counter);
+        tokenizer.feed(bytes, 0, length);
+        tokenizer.finish();
+        Metrics.INSTANCE.bytesRead.add(length);
+        return counter;
     }
 }
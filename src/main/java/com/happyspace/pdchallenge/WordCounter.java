@@ -0,0 +1,449 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+import com.happyspace.pdchallenge.exceptions.FailedToCreateFileList;
+import net.jcip.annotations.NotThreadSafe;
+import net.jcip.annotations.ThreadSafe;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Counts words for programs that embed the counter.
+ *
+ * A counter owns, or is given, a fork/join pool that every call runs on, so repeated
+ * calls reuse warmed up threads and their read buffers. Each call reduces into its own
+ * aggregator; calls may be made from several threads at once.
+ *
+ * <pre>
+ * try (WordCounter counter = WordCounter.builder().topN(20).engine(AggregationMode.APPROXIMATE).build()) {
+ *     CountResult result = counter.count(Paths.get("/var/log"));
+ * }
+ * </pre>
+ */
+@ThreadSafe
+public class WordCounter implements Closeable {
+
+    /**
+     * Bytes of text collected from an iterable before they are counted as one task.
+     */
+    private static final int TEXT_BATCH = 1024 * 1024;
+
+    private final int workers;
+    private final int topN;
+    private final int maxDepth;
+    private final AggregationMode engine;
+    private final int sketchCapacity;
+    private final long memoryBudget;
+    private final long chunkThreshold;
+    private final int ioThreads;
+    private final int pipelineBuffers;
+    private final TokenizerConfig tokenizer;
+    private final WalkOptions walk;
+    private final ForkJoinPool pool;
+    private final boolean ownsPool;
+
+    private WordCounter(Builder builder) {
+        this.topN = builder.topN;
+        this.maxDepth = builder.maxDepth;
+        this.engine = builder.engine;
+        this.sketchCapacity = builder.sketchCapacity;
+        this.memoryBudget = builder.memoryBudget;
+        this.chunkThreshold = builder.chunkThreshold;
+        this.ioThreads = builder.ioThreads;
+        this.pipelineBuffers = builder.pipelineBuffers;
+        this.tokenizer = builder.tokenizer;
+        this.walk = builder.walk;
+        this.ownsPool = builder.pool == null;
+        this.pool = ownsPool ? new ForkJoinPool(builder.workers) : builder.pool;
+        this.workers = pool.getParallelism();
+    }
+
+    /**
+     * @return a builder with the defaults of the command line program.
+     */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Count every file under the given files and directories. Binary files are skipped
+     * and files that cannot be read are listed in {@link CountResult#failedFiles()}.
+     *
+     * @throws IOException if a path cannot be walked.
+     */
+    public CountResult count(Path... paths) throws IOException {
+        Aggregator aggregator = newAggregator();
+        FileProcessor processor = new FileProcessor(workers, new ArrayList<>(Arrays.asList(paths)), topN, maxDepth,
+                new FileProcessor.Options().aggregator(aggregator).chunkThreshold(chunkThreshold)
+                        .ioThreads(ioThreads).tokenizer(tokenizer).pool(pool).walk(walk)
+                        .pipelineBuffers(pipelineBuffers));
+        try {
+            processor.processFiles();
+            List<Path> failed = new ArrayList<>();
+            for (FailedToCountFile failure : processor.failures()) {
+                failed.add(failure.getPath());
+            }
+            return result(aggregator, failed);
+        } catch (FailedToCreateFileList ex) {
+            throw new IOException("cannot walk " + Arrays.toString(paths));
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } catch (InterruptedException ex) {
+            throw interrupted();
+        } finally {
+            aggregator.close();
+        }
+    }
+
+    /**
+     * Count a stream, decompressing it if it starts with the magic bytes of a {@link Codec}.
+     * The stream is read to its end and not closed.
+     */
+    public CountResult count(final InputStream in) throws IOException {
+        Metrics.INSTANCE.reset();
+        Aggregator aggregator = newAggregator();
+        try {
+            aggregator.accept(pool.submit(new Callable<WordCountMap>() {
+                @Override
+                public WordCountMap call() throws IOException {
+                    return WordCountTask.countWords(in, tokenizer);
+                }
+            }).get());
+            return result(aggregator);
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } catch (InterruptedException ex) {
+            throw interrupted();
+        } finally {
+            aggregator.close();
+        }
+    }
+
+    /**
+     * Count the remaining bytes of a buffer of UTF-8 text, or of compressed text.
+     * Text is cut at whitespace into a range per worker, unless n-grams are counted, which
+     * a cut would split. The buffer itself is not modified.
+     */
+    public CountResult count(ByteBuffer buffer) throws IOException {
+        final ByteBuffer source = buffer.duplicate();
+        byte[] head = new byte[Math.min(Codec.MAGIC_BYTES, source.remaining())];
+        source.duplicate().get(head);
+        if (Codec.detect(head, head.length) != Codec.NONE) {
+            return count(new ByteBufferInputStream(source));
+        }
+
+        Metrics.INSTANCE.reset();
+        final Aggregator aggregator = newAggregator();
+        final List<RecursiveAction> tasks = new ArrayList<>();
+        int end = source.limit();
+        int size = tokenizer.ngrams() > 1 ? source.remaining()
+                : Math.max(Tokenizer.BUFFER_SIZE, (source.remaining() + workers - 1) / workers);
+        int position = source.position();
+        while (position < end) {
+            int next = (int) Math.min(end, (long) position + size);
+            while (next < end && !Tokenizer.isWhitespace(source.get(next))) {
+                next++;
+            }
+            final ByteBuffer range = source.duplicate();
+            range.limit(next);
+            range.position(position);
+            tasks.add(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    aggregator.accept(WordCountTask.countWords(range, tokenizer));
+                }
+            });
+            position = next;
+        }
+        try {
+            pool.submit(new RecursiveAction() {
+                @Override
+                protected void compute() {
+                    try {
+                        invokeAll(tasks);
+                    } finally {
+                        // a failed range cancels only the ranges not yet started
+                        for (RecursiveAction task : tasks) {
+                            task.quietlyJoin();
+                        }
+                    }
+                }
+            }).get();
+            return result(aggregator);
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } catch (InterruptedException ex) {
+            throw interrupted();
+        } finally {
+            aggregator.close();
+        }
+    }
+
+    /**
+     * Count text given as a sequence of character sequences, such as lines.
+     * Each sequence ends a word. Sequences are encoded as UTF-8 on the calling thread
+     * and counted in batches on the pool while the rest are being encoded. N-grams that
+     * cross lines may span batches, so they are counted in order on the calling thread.
+     */
+    public CountResult count(Iterable<? extends CharSequence> text) throws IOException {
+        Metrics.INSTANCE.reset();
+        final Aggregator aggregator = newAggregator();
+        final Semaphore inFlight = new Semaphore(workers * 2);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>();
+        WordCountMap phrases = null;
+        Tokenizer inOrder = null;
+        if (tokenizer.ngrams() > 1 && tokenizer.crossLines()) {
+            phrases = new WordCountMap();
+            inOrder = tokenizer.newTokenizer(phrases);
+        }
+        byte[] batch = new byte[TEXT_BATCH];
+        int length = 0;
+        try {
+            for (CharSequence sequence : text) {
+                ByteBuffer encoded = StandardCharsets.UTF_8.encode(CharBuffer.wrap(sequence));
+                int needed = encoded.remaining() + 1;
+                if (length + needed > batch.length) {
+                    if (inOrder != null) {
+                        inOrder.feed(batch, 0, length);
+                    }
+                    else if (length > 0) {
+                        tasks.add(submit(batch, length, aggregator, inFlight));
+                        batch = new byte[TEXT_BATCH];
+                    }
+                    if (batch.length < needed) {
+                        batch = new byte[needed];
+                    }
+                    length = 0;
+                }
+                encoded.get(batch, length, needed - 1);
+                length += needed;
+                batch[length - 1] = '\n';
+            }
+            if (inOrder != null) {
+                inOrder.feed(batch, 0, length);
+                inOrder.finish();
+                Metrics.INSTANCE.bytesRead.add(inOrder.bytes());
+                aggregator.accept(phrases);
+            }
+            else if (length > 0) {
+                tasks.add(submit(batch, length, aggregator, inFlight));
+            }
+            for (ForkJoinTask<?> task : tasks) {
+                task.get();
+            }
+            return result(aggregator);
+        } catch (ExecutionException ex) {
+            throw unwrap(ex);
+        } catch (InterruptedException ex) {
+            throw interrupted();
+        } finally {
+            // batches still running would otherwise reach a closed aggregator
+            for (ForkJoinTask<?> task : tasks) {
+                task.quietlyJoin();
+            }
+            aggregator.close();
+        }
+    }
+
+    /**
+     * Shut down the pool if this counter created it.
+     */
+    @Override
+    public void close() {
+        if (ownsPool) {
+            pool.shutdown();
+        }
+    }
+
+    private ForkJoinTask<?> submit(final byte[] batch, final int length, final Aggregator aggregator,
+                                   final Semaphore inFlight) throws InterruptedException {
+        inFlight.acquire();
+        return pool.submit(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                try {
+                    aggregator.accept(WordCountTask.countWords(batch, length, tokenizer));
+                } finally {
+                    inFlight.release();
+                }
+            }
+        });
+    }
+
+    private Aggregator newAggregator() {
+        return engine.newAggregator(Math.max(topN, sketchCapacity), memoryBudget, workers);
+    }
+
+    private CountResult result(Aggregator aggregator) {
+        return result(aggregator, Collections.<Path>emptyList());
+    }
+
+    private CountResult result(Aggregator aggregator, List<Path> failedFiles) {
+        return new CountResult(aggregator.top(topN), aggregator.distinctWords(), aggregator.errorBound(),
+                failedFiles);
+    }
+
+    private static IOException unwrap(ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        if (cause != null && cause.getCause() instanceof IOException) {
+            // FailedToCountFile carries the path in its message
+            return new IOException(cause.getMessage(), cause.getCause());
+        }
+        return new IOException(cause);
+    }
+
+    private static IOException interrupted() {
+        Thread.currentThread().interrupt();
+        return new InterruptedIOException();
+    }
+
+    /**
+     * Configures a {@link WordCounter}. Every setting has the default of the command line program.
+     */
+    @NotThreadSafe
+    public static final class Builder {
+        private int workers = Runtime.getRuntime().availableProcessors();
+        private int topN = 10;
+        private int maxDepth = App.MAX_FILE_WALK;
+        private AggregationMode engine = AggregationMode.EXACT;
+        private int sketchCapacity = App.SKETCH_CAPACITY_DEFAULT;
+        private long memoryBudget = App.MEMORY_BUDGET_DEFAULT;
+        private long chunkThreshold = App.CHUNK_THRESHOLD_DEFAULT;
+        private int ioThreads;
+        private int pipelineBuffers;
+        private TokenizerConfig tokenizer = TokenizerConfig.DEFAULT;
+        private WalkOptions walk = WalkOptions.DEFAULT;
+        private ForkJoinPool pool;
+
+        private Builder() {
+        }
+
+        /**
+         * @param workers threads of the pool the counter creates. Ignored when a pool is given.
+         */
+        public Builder workers(int workers) {
+            this.workers = positive(workers, "workers");
+            return this;
+        }
+
+        /**
+         * @param topN how many words each result holds.
+         */
+        public Builder topN(int topN) {
+            if (topN < 0) {
+                throw new IllegalArgumentException("topN must not be negative");
+            }
+            this.topN = topN;
+            return this;
+        }
+
+        /**
+         * @param maxDepth how deep directories are walked.
+         */
+        public Builder maxDepth(int maxDepth) {
+            this.maxDepth = positive(maxDepth, "maxDepth");
+            return this;
+        }
+
+        public Builder engine(AggregationMode engine) {
+            this.engine = engine;
+            return this;
+        }
+
+        /**
+         * @param sketchCapacity counters per sketch of the approximate engine.
+         */
+        public Builder sketchCapacity(int sketchCapacity) {
+            this.sketchCapacity = positive(sketchCapacity, "sketchCapacity");
+            return this;
+        }
+
+        /**
+         * @param memoryBudget bytes the off-heap and spill engines hold in memory.
+         */
+        public Builder memoryBudget(long memoryBudget) {
+            this.memoryBudget = memoryBudget;
+            return this;
+        }
+
+        /**
+         * @param chunkThreshold size in bytes above which a file is split into chunks.
+         */
+        public Builder chunkThreshold(long chunkThreshold) {
+            this.chunkThreshold = chunkThreshold;
+            return this;
+        }
+
+        /**
+         * @param ioThreads threads that read small files, zero to read them on the workers.
+         */
+        public Builder ioThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * @param pipelineBuffers blocks of {@link ReadPipeline#BLOCK_SIZE} bytes in flight between the reader
+         *                        threads and the workers, zero to read on the workers.
+         */
+        public Builder pipelineBuffers(int pipelineBuffers) {
+            if (pipelineBuffers < 0) {
+                throw new IllegalArgumentException("pipelineBuffers must not be negative");
+            }
+            this.pipelineBuffers = pipelineBuffers;
+            return this;
+        }
+
+        public Builder tokenizer(TokenizerConfig tokenizer) {
+            this.tokenizer = tokenizer;
+            return this;
+        }
+
+        /**
+         * @param walk which files under the counted paths are read.
+         */
+        public Builder walk(WalkOptions walk) {
+            this.walk = walk;
+            return this;
+        }
+
+        /**
+         * @param pool a pool to run on, shared with other counters and not shut down by this one.
+         */
+        public Builder pool(ForkJoinPool pool) {
+            this.pool = pool;
+            return this;
+        }
+
+        public WordCounter build() {
+            return new WordCounter(this);
+        }
+
+        private static int positive(int value, String name) {
+            if (value < 1) {
+                throw new IllegalArgumentException(name + " must be positive");
+            }
+            return value;
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.happyspace.pdchallenge;
+
+/**
+ * Sorts the ids of a {@link CountTable} by word, comparing the bytes the table holds.
+ * Words are neither decoded nor copied, and the ids stay primitive, but the sort needs two
+ * int arrays as long as the table on the heap.
+ */
+final class WordOrder {
+
+    /**
+     * Runs this short are sorted by insertion before they are merged.
+     */
+    private static final int INSERTION_RUN = 16;
+
+    private WordOrder() {
+    }
+
+    /**
+     * @return every id of the table in ascending word order, see {@link CountTable#compareWords(int, int)}.
+     */
+    static int[] sortedIds(CountTable table) {
+        int size = table.size();
+        int[] ids = new int[size];
+        for (int id = 0; id < size; id++) {
+            ids[id] = id;
+        }
+        int[] spare = new int[size];
+        for (int start = 0; start < size; start += INSERTION_RUN) {
+            insertionSort(table, ids, start, Math.min(size, start + INSERTION_RUN));
+        }
+        // merge runs of doubling width back and forth between the two arrays
+        for (int width = INSERTION_RUN; width < size; width *= 2) {
+            for (int start = 0; start < size; start += 2 * width) {
+                int middle = Math.min(size, start + width);
+                int end = Math.min(size, start + 2 * width);
+                merge(table, ids, spare, start, middle, end);
+            }
+            int[] swap = ids;
+            ids = spare;
+            spare = swap;
+        }
+        return ids;
+    }
+
+    private static void insertionSort(CountTable table, int[] ids, int start, int end) {
+        for (int i = start + 1; i < end; i++) {
+            int id = ids[i];
+            int j = i - 1;
+            while (j >= start && table.compareWords(ids[j], id) > 0) {
+                ids[j + 1] = ids[j];
+                j--;
+            }
+            ids[j + 1] = id;
+        }
+    }
+
+    private static void merge(CountTable table, int[] from, int[] to, int start, int middle, int end) {
+        int left = start;
+        int right = middle;
+        for (int i = start; i < end; i++) {
+            if (right == end || (left < middle && table.compareWords(from[left], from[right]) <= 0)) {
+                to[i] = from[left++];
+            }
+            else {
+                to[i] = from[right++];
+            }
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.happyspace.pdchallenge.exceptions;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Thrown by a counting task when its file cannot be read.
+ * Unchecked so that it can cross fork/join task boundaries.
+ */
+public class FailedToCountFile extends RuntimeException {
+
+    private final Path path;
+
+    public FailedToCountFile(Path path, IOException cause) {
+        super(String.valueOf(path), cause);
+        this.path = path;
+    }
+
+    /**
+     * @return the file that could not be counted.
+     */
+    public Path getPath() {
+        return path;
+    }
+}
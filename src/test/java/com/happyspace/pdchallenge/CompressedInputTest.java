@@ -0,0 +1,123 @@
+package com.happyspace.pdchallenge;
+
+import com.github.luben.zstd.ZstdOutputStream;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test counting compressed files.
+ */
+public class CompressedInputTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that a gzip file is detected and counted as a stream.
+     */
+    @Test
+    public void testGzipStream() throws IOException {
+        Path file = folder.newFile("words.gz").toPath();
+        try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(file))) {
+            out.write("alpha beta alpha\ngamma alpha".getBytes(StandardCharsets.UTF_8));
+        }
+        WordCountMap counts = WordCountTask.countWords(file, null);
+        assertEquals(counts.count("alpha"), 3);
+        assertEquals(counts.count("gamma"), 1);
+    }
+
+    /**
+     * Test that zstd frames are found and counted in parallel, joining a token cut between frames.
+     */
+    @Test
+    public void testZstdFrames() throws IOException {
+        Path file = folder.newFile("words.zst").toPath();
+        String[] parts = {"one two thr", "ee one ", "two", "one\nthree one"};
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (String part : parts) {
+                ByteArrayOutputStream frame = new ByteArrayOutputStream();
+                try (ZstdOutputStream zstd = new ZstdOutputStream(frame)) {
+                    zstd.write(part.getBytes(StandardCharsets.UTF_8));
+                }
+                out.write(frame.toByteArray());
+            }
+        }
+        assertFrames(file, Codec.ZSTD, parts.length);
+    }
+
+    /**
+     * Test that gzip members carrying their size are counted in parallel.
+     */
+    @Test
+    public void testBgzfMembers() throws IOException {
+        Path file = folder.newFile("words.bgz").toPath();
+        String[] parts = {"one two thr", "ee one ", "two", "one\nthree one"};
+        try (OutputStream out = Files.newOutputStream(file)) {
+            for (String part : parts) {
+                out.write(bgzfMember(part.getBytes(StandardCharsets.UTF_8)));
+            }
+        }
+        assertFrames(file, Codec.GZIP, parts.length);
+    }
+
+    private static void assertFrames(Path file, Codec codec, int frames) throws IOException {
+        long[] boundaries;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            assertEquals(Codec.detect(channel), codec);
+            boundaries = codec.frames(channel);
+        }
+        assertEquals(boundaries.length, frames + 1);
+
+        ExactAggregator aggregator = new ExactAggregator();
+        new ForkJoinPool(4).invoke(new CompressedCountTask(file, codec, boundaries, aggregator, 4, TokenizerConfig.DEFAULT));
+        List<Map.Entry<String, Long>> top = aggregator.top(10);
+        // the content is "one two three one twoone three one"
+        assertEquals(aggregator.distinctWords(), 4L);
+        assertEquals(top.get(0).getKey(), "one");
+        assertEquals(top.get(0).getValue().intValue(), 3);
+        assertEquals(top.get(1).getKey(), "three");
+        assertEquals(top.get(1).getValue().intValue(), 2);
+    }
+
+    /**
+     * A gzip member with the BGZF 'BC' extra field holding its size.
+     */
+    private static byte[] bgzfMember(byte[] content) {
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        deflater.setInput(content);
+        deflater.finish();
+        byte[] deflated = new byte[content.length + 64];
+        int length = deflater.deflate(deflated);
+        deflater.end();
+        CRC32 crc = new CRC32();
+        crc.update(content);
+
+        ByteBuffer member = ByteBuffer.allocate(18 + length + 8).order(ByteOrder.LITTLE_ENDIAN);
+        member.put((byte) 0x1F).put((byte) 0x8B).put((byte) 8).put((byte) 4).putInt(0).put((byte) 0).put((byte) 0xFF);
+        member.putShort((short) 6).put((byte) 'B').put((byte) 'C').putShort((short) 2);
+        member.putShort((short) (member.capacity() - 1));
+        member.put(deflated, 0, length);
+        member.putInt((int) crc.getValue()).putInt(content.length);
+        return member.array();
+    }
+}
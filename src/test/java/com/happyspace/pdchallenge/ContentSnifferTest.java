@@ -0,0 +1,81 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test binary and encoding detection ahead of tokenizing, and isolation of failed files.
+ */
+public class ContentSnifferTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that every text encoding is counted as the same words and binaries are skipped.
+     */
+    @Test
+    public void testEncodings() throws IOException {
+        Path root = folder.newFolder("root").toPath();
+        String text = "café straße café\n";
+        write(root.resolve("utf8.txt"), new byte[0], text, StandardCharsets.UTF_8);
+        write(root.resolve("bom.txt"), new byte[]{(byte) 0xEF, (byte) 0xBB, (byte) 0xBF}, text, StandardCharsets.UTF_8);
+        write(root.resolve("utf16.txt"), new byte[]{(byte) 0xFF, (byte) 0xFE}, text, StandardCharsets.UTF_16LE);
+        write(root.resolve("utf16be.txt"), new byte[0], text, StandardCharsets.UTF_16BE);
+        write(root.resolve("latin1.txt"), new byte[0], text, StandardCharsets.ISO_8859_1);
+        byte[] binary = new byte[1000];
+        binary[10] = 'c';
+        Files.write(root.resolve("image.bin"), binary);
+
+        try (WordCounter counter = WordCounter.builder().workers(2).build()) {
+            CountResult result = counter.count(root);
+            assertEquals(result.top(), Arrays.asList(new WordCount("café", 10), new WordCount("straße", 5)));
+            assertEquals(result.failedFiles().size(), 0);
+        }
+    }
+
+    /**
+     * Test that a file that cannot be read is reported and the others are still counted.
+     */
+    @Test
+    public void testFailedFileIsolated() throws IOException, ExecutionException, InterruptedException {
+        Path root = folder.newFolder("root").toPath();
+        Path missing = root.resolve("missing.txt");
+        List<Path> files = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Path file = root.resolve("file" + i + ".txt");
+            Files.write(file, "one two".getBytes(StandardCharsets.UTF_8));
+            files.add(file);
+        }
+        files.add(1, missing);
+
+        FileProcessor processor = new FileProcessor(2, new ArrayList<Path>(), 10, 0);
+        processor.paths.addAll(files);
+        List<Map.Entry<String, Long>> entries = processor.process();
+
+        assertEquals(entries.get(0).getValue().longValue(), 3L);
+        assertEquals(processor.failures().size(), 1);
+        assertEquals(processor.failures().get(0).getPath(), missing);
+    }
+
+    private static void write(Path path, byte[] bom, String text, Charset charset) throws IOException {
+        byte[] body = text.getBytes(charset);
+        byte[] bytes = Arrays.copyOf(bom, bom.length + body.length);
+        System.arraycopy(body, 0, bytes, bom.length, body.length);
+        Files.write(path, bytes);
+    }
+}
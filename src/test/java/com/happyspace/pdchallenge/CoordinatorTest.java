@@ -0,0 +1,161 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test counting on several workers listening on localhost.
+ */
+public class CoordinatorTest {
+
+    private final List<CountWorker> workers = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        for (int i = 0; i < 3; i++) {
+            final CountWorker worker = new CountWorker(InetAddress.getLoopbackAddress(), 0, 2,
+                    App.CHUNK_THRESHOLD_DEFAULT, Arrays.asList(Paths.get("src/test/resources")));
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        worker.serve();
+                    } catch (IOException ex) {
+                        // closed
+                    }
+                }
+            });
+            thread.setDaemon(true);
+            thread.start();
+            workers.add(worker);
+        }
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        for (CountWorker worker : workers) {
+            worker.close();
+        }
+    }
+
+    /**
+     * Test that counts reduced from the workers match a local run, one file per batch.
+     */
+    @Test
+    public void testMatchesLocal() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (CountWorker worker : workers) {
+            addresses.add(new InetSocketAddress("localhost", worker.port()));
+        }
+        assertEquals(distributed(addresses), local());
+    }
+
+    /**
+     * Test that batches go to the remaining workers when one cannot be reached.
+     */
+    @Test
+    public void testWorkerDown() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (CountWorker worker : workers) {
+            addresses.add(new InetSocketAddress("localhost", worker.port()));
+        }
+        workers.get(0).close();
+        assertEquals(distributed(addresses), local());
+    }
+
+    /**
+     * Test that the workers split words with the coordinator's configuration.
+     */
+    @Test
+    public void testTokenizerSent() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        for (CountWorker worker : workers) {
+            addresses.add(new InetSocketAddress("localhost", worker.port()));
+        }
+        TokenizerConfig tokenizer = new TokenizerConfig(",", new Normalizer.Builder().foldCase(true).build(), 2, false);
+        FileProcessor remote = new FileProcessor(1, start(), 10, App.MAX_FILE_WALK);
+        FileProcessor local = new FileProcessor(2, start(), 10, App.MAX_FILE_WALK,
+                new FileProcessor.Options().tokenizer(tokenizer));
+        assertEquals(remote.processDistributed(new Coordinator(addresses, 1, tokenizer)), local.processFiles());
+    }
+
+    /**
+     * Test that a file a worker cannot read, or may not read, is reported and the rest of its
+     * batch is counted.
+     */
+    @Test
+    public void testUnreadableFileReported() throws Exception {
+        List<InetSocketAddress> addresses = new ArrayList<>();
+        addresses.add(new InetSocketAddress("localhost", workers.get(0).port()));
+        Path file = Paths.get("src/test/resources/three_files/a_file.txt");
+        Path missing = Paths.get("src/test/resources/three_files/missing.txt");
+        Path outside = Paths.get("pom.xml");
+        Queue<FailedToCountFile> failures = new ConcurrentLinkedQueue<>();
+        ExactAggregator counts = new ExactAggregator();
+        new Coordinator(addresses, 3).count(Arrays.asList(file, missing, outside), counts, failures);
+
+        assertEquals(failures.size(), 2);
+        assertEquals(failures.poll().getPath(), missing.toAbsolutePath());
+        assertEquals(failures.poll().getPath(), outside.toAbsolutePath());
+        ExactAggregator expected = new ExactAggregator();
+        expected.accept(WordCountTask.countWords(file, null));
+        assertEquals(counts.top(10), expected.top(10));
+    }
+
+    /**
+     * Test that a string length read from a peer above any path is rejected before allocating.
+     */
+    @Test(expected = IOException.class)
+    public void testStringLengthChecked() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Varint.write(new DataOutputStream(bytes), CountWorker.MAX_STRING + 1);
+        CountWorker.readString(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    /**
+     * Test that an entry count read from a peer above what a map holds is rejected before allocating.
+     */
+    @Test(expected = IOException.class)
+    public void testEntryCountChecked() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Varint.write(new DataOutputStream(bytes), Integer.MAX_VALUE);
+        WordCountMap.readFrom(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    }
+
+    private static List<Map.Entry<String, Long>> distributed(List<InetSocketAddress> addresses) throws Exception {
+        FileProcessor processor = new FileProcessor(1, start(), 10, App.MAX_FILE_WALK);
+        return processor.processDistributed(new Coordinator(addresses, 1));
+    }
+
+    private static List<Map.Entry<String, Long>> local() throws Exception {
+        FileProcessor processor = new FileProcessor(2, start(), 10, App.MAX_FILE_WALK);
+        return processor.processFiles();
+    }
+
+    private static ArrayList<Path> start() {
+        ArrayList<Path> start = new ArrayList<>();
+        start.add(Paths.get("src/test/resources/hadoop"));
+        start.add(Paths.get("src/test/resources/three_files"));
+        return start;
+    }
+}
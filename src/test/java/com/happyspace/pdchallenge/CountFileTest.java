@@ -0,0 +1,229 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Test writing, reading and merging count files.
+ */
+public class CountFileTest {
+
+    /**
+     * Orders strings by code point, which is the order of their UTF-8 bytes.
+     * {@link String#compareTo} orders by UTF-16 unit, which differs for supplementary characters.
+     */
+    private static final Comparator<String> CODE_POINT_ORDER = new Comparator<String>() {
+        @Override
+        public int compare(String o1, String o2) {
+            int n = Math.min(o1.length(), o2.length());
+            for (int i = 0; i < n; i++) {
+                char c1 = o1.charAt(i);
+                char c2 = o2.charAt(i);
+                if (c1 != c2) {
+                    if (c1 >= 0xD800 && c2 >= 0xD800) {
+                        // move surrogates above the rest of the BMP
+                        c1 += c1 >= 0xE000 ? -0x800 : 0x2000;
+                        c2 += c2 >= 0xE000 ? -0x800 : 0x2000;
+                    }
+                    return c1 - c2;
+                }
+            }
+            return o1.length() - o2.length();
+        }
+    };
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that entries read back as written, with and without prefix compression,
+     * and that prefix compression makes the file smaller.
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        List<String> words = Arrays.asList("apple", "applesauce", "apply", "b", "café", "cafés", "😀");
+        Path full = folder.getRoot().toPath().resolve("full.pdc");
+        Path compressed = folder.getRoot().toPath().resolve("compressed.pdc");
+        write(full, false, words);
+        write(compressed, true, words);
+
+        assertEquals(read(full), entries(words));
+        assertEquals(read(compressed), entries(words));
+        assertEquals(Files.size(compressed) < Files.size(full), true);
+    }
+
+    /**
+     * Test that merging adds the counts of equal words, keeps the order and returns the top N.
+     */
+    @Test
+    public void testMerge() throws IOException {
+        Path root = folder.getRoot().toPath();
+        Path first = root.resolve("first.pdc");
+        Path second = root.resolve("second.pdc");
+        Path merged = root.resolve("merged.pdc");
+        try (CountFile.Writer writer = new CountFile.Writer(first, true)) {
+            writer.add("a", 1);
+            writer.add("b", 5);
+            writer.add("d", 2);
+        }
+        try (CountFile.Writer writer = new CountFile.Writer(second, false)) {
+            writer.add("b", 3);
+            writer.add("c", 7);
+            writer.add("d", 2);
+        }
+
+        List<Map.Entry<String, Long>> top = CountFile.merge(Arrays.asList(first, second), merged, true, 2);
+
+        assertEquals(top, Arrays.asList(entry("b", 8), entry("c", 7)));
+        assertEquals(read(merged), Arrays.asList(entry("a", 1), entry("b", 8), entry("c", 7), entry("d", 4)));
+    }
+
+    /**
+     * Test that an output reached through a link may be one of the inputs, and that a failed
+     * merge leaves the output as it was and no temporary file behind.
+     */
+    @Test
+    public void testMergeReplacesOutput() throws IOException {
+        Path root = folder.getRoot().toPath();
+        Path total = root.resolve("total.pdc");
+        Path link = Files.createSymbolicLink(root.resolve("link.pdc"), total);
+        Path today = root.resolve("today.pdc");
+        try (CountFile.Writer writer = new CountFile.Writer(total, true)) {
+            writer.add("a", 1);
+        }
+        try (CountFile.Writer writer = new CountFile.Writer(today, true)) {
+            writer.add("a", 2);
+        }
+
+        CountFile.merge(Arrays.asList(total, today), link, true, 1);
+        assertEquals(read(total), Collections.singletonList(entry("a", 3)));
+        assertEquals(Files.isSymbolicLink(link), true);
+
+        Path broken = Files.write(root.resolve("broken.pdc"), "not a count file".getBytes(StandardCharsets.UTF_8));
+        try {
+            CountFile.merge(Arrays.asList(total, broken), total, true, 1);
+            fail();
+        } catch (IOException ex) {
+            // not a count file
+        }
+        assertEquals(read(total), Collections.singletonList(entry("a", 3)));
+        assertEquals(root.toFile().list().length, 4);
+    }
+
+    /**
+     * Test that words sorted in code point order are in UTF-8 byte order, which
+     * {@link String#compareTo} is not for supplementary characters, and that the
+     * writer rejects words out of order.
+     */
+    @Test
+    public void testOrder() throws IOException {
+        List<String> words = new ArrayList<>(Arrays.asList("Ａ", "😀", "z", "é", "ab", "a"));
+        Collections.sort(words, CODE_POINT_ORDER);
+        assertEquals(words, Arrays.asList("a", "ab", "z", "é", "Ａ", "😀"));
+        for (int i = 1; i < words.size(); i++) {
+            byte[] previous = words.get(i - 1).getBytes(StandardCharsets.UTF_8);
+            byte[] word = words.get(i).getBytes(StandardCharsets.UTF_8);
+            assertEquals(CountFile.compare(previous, previous.length, word, word.length) < 0, true);
+        }
+
+        Path path = folder.getRoot().toPath().resolve("order.pdc");
+        try (CountFile.Writer writer = new CountFile.Writer(path, true)) {
+            writer.add("b", 1);
+            try {
+                writer.add("a", 1);
+                fail("accepted a word out of order");
+            } catch (IllegalArgumentException expected) {
+                // the entry is not written
+            }
+        }
+        assertEquals(read(path), Arrays.asList(entry("b", 1)));
+    }
+
+    /**
+     * Test that the exact and spilling engines export the same file.
+     */
+    @Test
+    public void testExport() throws IOException {
+        WordCountMap counts = new WordCountMap();
+        add(counts, "😀");
+        add(counts, "Ａ");
+        add(counts, "beta");
+        add(counts, "alpha");
+        add(counts, "alpha");
+
+        ExactAggregator exact = new ExactAggregator();
+        exact.accept(counts);
+        Path exactFile = folder.getRoot().toPath().resolve("exact.pdc");
+        try (CountFile.Writer writer = new CountFile.Writer(exactFile, true)) {
+            exact.export(writer);
+        }
+
+        Path spillFile = folder.getRoot().toPath().resolve("spill.pdc");
+        try (SpillingAggregator spilling = new SpillingAggregator(1);
+             CountFile.Writer writer = new CountFile.Writer(spillFile, true)) {
+            spilling.accept(counts);
+            spilling.accept(counts);
+            spilling.export(writer);
+        }
+
+        List<Map.Entry<String, Long>> expected = Arrays.asList(entry("alpha", 2), entry("beta", 1),
+                entry("Ａ", 1), entry("😀", 1));
+        assertEquals(read(exactFile), expected);
+        List<Map.Entry<String, Long>> doubled = new ArrayList<>();
+        for (Map.Entry<String, Long> e : expected) {
+            doubled.add(entry(e.getKey(), e.getValue() * 2));
+        }
+        assertEquals(read(spillFile), doubled);
+    }
+
+    private static void write(Path path, boolean prefixCompressed, List<String> words) throws IOException {
+        try (CountFile.Writer writer = new CountFile.Writer(path, prefixCompressed)) {
+            for (int i = 0; i < words.size(); i++) {
+                writer.add(words.get(i), i + 1);
+            }
+        }
+    }
+
+    private static void add(WordCountMap counts, String word) {
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        counts.add(bytes, 0, bytes.length, 1);
+    }
+
+    private static List<Map.Entry<String, Long>> read(Path path) throws IOException {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        try (CountFile.Reader reader = new CountFile.Reader(path)) {
+            while (reader.next()) {
+                entries.add(entry(reader.word(), reader.count()));
+            }
+        }
+        return entries;
+    }
+
+    private static List<Map.Entry<String, Long>> entries(List<String> words) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>();
+        for (int i = 0; i < words.size(); i++) {
+            entries.add(entry(words.get(i), i + 1));
+        }
+        return entries;
+    }
+
+    private static Map.Entry<String, Long> entry(String word, long count) {
+        return new AbstractMap.SimpleImmutableEntry<>(word, count);
+    }
+}
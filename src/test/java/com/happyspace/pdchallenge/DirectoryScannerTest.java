@@ -0,0 +1,102 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the parallel directory scanner and its filters.
+ */
+public class DirectoryScannerTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test include and exclude globs, size and modification time filters.
+     */
+    @Test
+    public void testFilters() throws IOException {
+        Path root = folder.newFolder("root").toPath();
+        write(root.resolve("a.log"), "a");
+        write(root.resolve("b.txt"), "b");
+        Files.createDirectories(root.resolve(".git"));
+        write(root.resolve(".git/c.log"), "c");
+        Files.createDirectories(root.resolve("sub"));
+        write(root.resolve("sub/d.log"), "d");
+        write(root.resolve("sub/big.log"), "too large to count");
+        Path old = write(root.resolve("sub/old.log"), "o");
+        Files.setLastModifiedTime(old, FileTime.fromMillis(1000));
+
+        WalkOptions options = new WalkOptions.Builder()
+                .include("*.log").exclude(".git").maxSize(4).modifiedAfter(2000).build();
+
+        assertEquals(scan(root, options), names(root, "a.log", "sub/d.log"));
+        assertEquals(scan(root, new WalkOptions.Builder().include("sub/*.log").build()),
+                names(root, "sub/big.log", "sub/d.log", "sub/old.log"));
+    }
+
+    /**
+     * Test that a link loop ends and a file reached through a link is counted once.
+     */
+    @Test
+    public void testFollowLinks() throws IOException {
+        Path root = folder.newFolder("root").toPath();
+        Files.createDirectories(root.resolve("sub"));
+        write(root.resolve("sub/a.txt"), "a");
+        Files.createSymbolicLink(root.resolve("sub/loop"), root);
+        Files.createSymbolicLink(root.resolve("alias.txt"), root.resolve("sub/a.txt"));
+        Files.createSymbolicLink(root.resolve("broken.txt"), root.resolve("missing.txt"));
+
+        WalkOptions follow = new WalkOptions.Builder().followLinks(true).build();
+        List<Path> found = scan(root, follow);
+        assertEquals(found.size(), 1);
+        assertEquals(Files.isSameFile(found.get(0), root.resolve("sub/a.txt")), true);
+
+        assertEquals(scan(root, WalkOptions.DEFAULT), names(root, "sub/a.txt"));
+    }
+
+    private static List<Path> scan(Path root, WalkOptions options) {
+        final List<Path> found = Collections.synchronizedList(new ArrayList<Path>());
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            pool.invoke(new DirectoryScanner(options, App.MAX_FILE_WALK).scan(root, new DirectoryScanner.Visitor() {
+                @Override
+                public void file(Path file, BasicFileAttributes attrs) {
+                    found.add(file);
+                }
+            }));
+        } finally {
+            pool.shutdown();
+        }
+        List<Path> sorted = new ArrayList<>(found);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    private static List<Path> names(Path root, String... names) {
+        List<Path> paths = new ArrayList<>();
+        for (String name : names) {
+            paths.add(root.resolve(name));
+        }
+        Collections.sort(paths);
+        return paths;
+    }
+
+    private static Path write(Path path, String content) throws IOException {
+        return Files.write(path, content.getBytes(StandardCharsets.UTF_8));
+    }
+}
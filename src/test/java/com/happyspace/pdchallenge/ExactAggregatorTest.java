@@ -0,0 +1,96 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test concurrent merging into the exact aggregator.
+ */
+public class ExactAggregatorTest {
+
+    /**
+     * Test that tables merged from several threads at once add up exactly.
+     */
+    @Test
+    public void testConcurrentMerge() throws InterruptedException {
+        final ExactAggregator aggregator = new ExactAggregator();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int file = 0; file < 50; file++) {
+                        WordCountMap counts = new WordCountMap();
+                        for (int w = 0; w < 1000; w++) {
+                            byte[] word = ("w" + w).getBytes(StandardCharsets.UTF_8);
+                            counts.add(word, 0, word.length, w < 10 ? 2 : 1);
+                        }
+                        aggregator.accept(counts);
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(aggregator.distinctWords(), 1000L);
+        List<Map.Entry<String, Long>> top = aggregator.top(11);
+        assertEquals(top.get(0).getKey(), "w0");
+        assertEquals(top.get(0).getValue().intValue(), 800);
+        assertEquals(top.get(10).getValue().intValue(), 400);
+    }
+
+    /**
+     * Test the off-heap tables with a budget small enough that most of them spill to disk.
+     */
+    @Test
+    public void testOffHeapSpill() throws IOException {
+        try (OffHeapMemory memory = new OffHeapMemory(64 * 1024)) {
+            ExactAggregator aggregator = new ExactAggregator(memory);
+            for (int file = 0; file < 3; file++) {
+                WordCountMap counts = new WordCountMap();
+                for (int w = 0; w < 20000; w++) {
+                    byte[] word = ("word" + w).getBytes(StandardCharsets.UTF_8);
+                    counts.add(word, 0, word.length, w == 12345 ? 5 : 1);
+                }
+                aggregator.accept(counts);
+            }
+
+            assertEquals(aggregator.distinctWords(), 20000L);
+            assertEquals(memory.spilled() > 0, true);
+            List<Map.Entry<String, Long>> top = aggregator.top(2);
+            assertEquals(top.get(0).getKey(), "word12345");
+            assertEquals(top.get(0).getValue().intValue(), 15);
+            assertEquals(top.get(1).getValue().intValue(), 3);
+        }
+    }
+
+    /**
+     * Test that counts past the int range are merged without wrapping.
+     */
+    @Test
+    public void testLongCounts() {
+        ExactAggregator aggregator = new ExactAggregator();
+        byte[] word = "the".getBytes(StandardCharsets.UTF_8);
+        for (int file = 0; file < 3; file++) {
+            WordCountMap counts = new WordCountMap();
+            counts.add(word, 0, word.length, Integer.MAX_VALUE - 1);
+            counts.add(word, 0, word.length, 2);
+            assertEquals(counts.count("the"), Integer.MAX_VALUE + 1L);
+            aggregator.accept(counts);
+        }
+
+        List<Map.Entry<String, Long>> top = aggregator.top(1);
+        assertEquals(top.get(0).getValue().longValue(), 3 * (Integer.MAX_VALUE + 1L));
+    }
+}
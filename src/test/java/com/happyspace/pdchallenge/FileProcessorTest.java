@@ -11,6 +11,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
@@ -100,7 +101,7 @@ public class FileProcessorTest {
 
         fileProcessor = new FileProcessor(processors, paths, TOP_N, App.MAX_FILE_WALK);
 
-        List<Map.Entry<String, Integer>> entries = fileProcessor.processFiles();
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
 
         assertEquals(entries.size(), 10);
     }
@@ -123,7 +124,7 @@ public class FileProcessorTest {
         int TOP_2 = 2;
         fileProcessor = new FileProcessor(processors, paths, TOP_2, App.MAX_FILE_WALK);
 
-        List<Map.Entry<String, Integer>> entries = fileProcessor.processFiles();
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
 
         assertEquals(entries.size(), 2);
     }
@@ -145,7 +146,7 @@ public class FileProcessorTest {
 
         fileProcessor = new FileProcessor(processors, paths, TOP_N, App.MAX_FILE_WALK);
 
-        List<Map.Entry<String, Integer>> entries = fileProcessor.processFiles();
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
         assertEquals(entries.get(0).getValue().longValue(), 30L);
     }
 
@@ -167,7 +168,7 @@ public class FileProcessorTest {
 
         fileProcessor = new FileProcessor(processors, paths, TOP_N, App.MAX_FILE_WALK);
 
-        List<Map.Entry<String, Integer>> entries = fileProcessor.processFiles();
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
         assertEquals(entries.get(0).getValue().longValue(), 10L);
     }
 
@@ -189,9 +190,225 @@ public class FileProcessorTest {
 
         fileProcessor = new FileProcessor(processors, paths, TOP_N, App.MAX_FILE_WALK);
 
-        List<Map.Entry<String, Integer>> entries = fileProcessor.processFiles();
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
         assertEquals(entries.get(0).getValue().longValue(), 5L);
     }
 
+    /**
+     * Test that a word below the top N of every file still wins globally
+     * when its combined count is the highest.
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws FailedToCreateFileList
+     */
+    @Test
+    public void testWordBelowTopNOfEachFile()
+            throws InterruptedException, ExecutionException, FailedToCreateFileList {
+        Path path = Paths.get("src/test/resources/rank_below_top_n");
+        ArrayList<Path> paths = new ArrayList<>();
+        paths.add(path);
+
+        fileProcessor = new FileProcessor(processors, paths, 1, App.MAX_FILE_WALK);
+
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
+        assertEquals(entries.get(0).getKey(), "beta");
+        assertEquals(entries.get(0).getValue().longValue(), 4L);
+        assertEquals(fileProcessor.errorBound(), 0L);
+    }
 
+    /**
+     * Test the approximate engine on the same input, where the sketch is large enough to be exact.
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws FailedToCreateFileList
+     */
+    @Test
+    public void testApproximateEngine()
+            throws InterruptedException, ExecutionException, FailedToCreateFileList {
+        Path path = Paths.get("src/test/resources/rank_below_top_n");
+        ArrayList<Path> paths = new ArrayList<>();
+        paths.add(path);
+
+        fileProcessor = new FileProcessor(processors, paths, 1, App.MAX_FILE_WALK,
+                new FileProcessor.Options().aggregator(AggregationMode.APPROXIMATE.newAggregator(10)));
+
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
+        assertEquals(entries.get(0).getKey(), "beta");
+        assertEquals(entries.get(0).getValue().longValue(), 4L);
+    }
+
+    /**
+     * Test that a file above the chunk threshold is counted in chunks
+     * without splitting any word.
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws FailedToCreateFileList
+     */
+    @Test
+    public void testChunkedFile()
+            throws InterruptedException, ExecutionException, FailedToCreateFileList {
+        Path path = Paths.get("src/test/resources/numbers_one_file/numbers.txt");
+        ArrayList<Path> paths = new ArrayList<>();
+        paths.add(path);
+
+        fileProcessor = new FileProcessor(processors, paths, TOP_N, App.MAX_FILE_WALK,
+                new FileProcessor.Options().chunkThreshold(16));
+
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
+        assertEquals(entries.size(), 10);
+        for (Map.Entry<String, Long> entry : entries) {
+            assertEquals(entry.getValue().longValue(), 10L);
+        }
+    }
+
+    /**
+     * Test that each chunk is merged into the file's staging table as soon as it is counted,
+     * so no chunk keeps its own table until the others are done.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testChunksMergedAsTheyFinish() throws IOException {
+        Path path = Paths.get("src/test/resources/numbers_one_file/numbers.txt");
+        List<FileChunker.Chunk> chunks = FileChunker.split(path, 16);
+        assertTrue(chunks.size() > 2);
+
+        WordCountMap staging = new WordCountMap();
+        long tokens = 0;
+        for (FileChunker.Chunk chunk : chunks) {
+            new WordCountTask(path, chunk, TokenizerConfig.DEFAULT, staging).invoke();
+            assertTrue(staging.tokens() > tokens);
+            tokens = staging.tokens();
+        }
+        assertEquals(tokens, 100L);
+        assertEquals(staging.count("one"), 10L);
+    }
+
+    /**
+     * Test that chunks shorter than a line count each phrase that starts in them once, with and
+     * without phrases crossing lines, the same as the whole file.
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testPhrasesInOverlappingChunks() throws IOException {
+        Path path = Paths.get("src/test/resources/numbers_one_file/numbers.txt");
+        List<FileChunker.Chunk> chunks = FileChunker.split(path, 16);
+        assertTrue(chunks.size() > 10);
+
+        for (boolean crossLines : new boolean[] {false, true}) {
+            TokenizerConfig triples = new TokenizerConfig("", Normalizer.NONE, 3, crossLines);
+            WordCountMap whole = WordCountTask.countWords(path, null, triples);
+            WordCountMap staging = new WordCountMap();
+            for (FileChunker.Chunk chunk : chunks) {
+                new WordCountTask(path, chunk, triples, staging).invoke();
+            }
+            assertEquals(staging.tokens(), whole.tokens());
+            assertEquals(staging.size(), whole.size());
+            assertEquals(staging.count("one two three"), 10L);
+            assertEquals(staging.count("ten one two"), crossLines ? 9L : 0L);
+            assertEquals(staging.count("eight nine ten"), whole.count("eight nine ten"));
+        }
+    }
+
+    /**
+     * Test that an unwalkable start path fails the walk.
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws FailedToCreateFileList
+     */
+    @Test(expected = FailedToCreateFileList.class)
+    public void testMissingPath()
+            throws InterruptedException, ExecutionException, FailedToCreateFileList {
+        ArrayList<Path> paths = new ArrayList<>();
+        paths.add(Paths.get("src/test/resources/no_such_directory"));
+
+        fileProcessor = new FileProcessor(processors, paths, TOP_N, App.MAX_FILE_WALK);
+        fileProcessor.processFiles();
+    }
+
+    /**
+     * Test that files below the depth limit are not counted.
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws FailedToCreateFileList
+     */
+    @Test
+    public void testDepthLimit()
+            throws InterruptedException, ExecutionException, FailedToCreateFileList {
+        ArrayList<Path> paths = new ArrayList<>();
+        paths.add(Paths.get("src/test/resources"));
+
+        fileProcessor = new FileProcessor(processors, paths, TOP_N, 1);
+
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
+        assertEquals(entries.size(), 0);
+    }
+
+    /**
+     * Test reading small files on a separate I/O pool.
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     * @throws FailedToCreateFileList
+     */
+    @Test
+    public void testIoThreads()
+            throws InterruptedException, ExecutionException, FailedToCreateFileList {
+        Path path = Paths.get("src/test/resources/numbers_ascending_by_count_by_file");
+        ArrayList<Path> paths = new ArrayList<>();
+        paths.add(path);
+
+        fileProcessor = new FileProcessor(processors, paths, TOP_N, App.MAX_FILE_WALK,
+                new FileProcessor.Options().ioThreads(8));
+
+        List<Map.Entry<String, Long>> entries = fileProcessor.processFiles();
+        assertEquals(entries.size(), 5);
+        assertEquals(entries.get(0).getValue().longValue(), 5L);
+    }
+
+    /**
+     * Test that the walked files are counted in batches, largest first, with the same result.
+     *
+     * @throws InterruptedException
+     * @throws ExecutionException
+     */
+    @Test
+    public void testScheduledFiles()
+            throws InterruptedException, ExecutionException {
+        Path path = Paths.get("src/test/resources/numbers_ascending_by_count_by_file");
+        ArrayList<Path> paths = new ArrayList<>();
+        paths.add(path);
+
+        fileProcessor = new FileProcessor(processors, paths, TOP_N, App.MAX_FILE_WALK);
+        assertTrue(fileProcessor.createFileList(path));
+
+        List<Map.Entry<String, Long>> entries = fileProcessor.process();
+        assertEquals(entries.size(), 5);
+        assertEquals(entries.get(0).getValue().longValue(), 5L);
+    }
+
+    /**
+     * Test the plan: large files first and alone, small files packed into batches.
+     */
+    @Test
+    public void testSchedulerPlan() {
+        List<Path> files = Arrays.asList(Paths.get("small1"), Paths.get("large"), Paths.get("small2"),
+                Paths.get("medium"));
+        List<Long> sizes = Arrays.asList(10L, 8L * 1024 * 1024, 20L, 512L * 1024);
+
+        FileScheduler schedule = new FileScheduler(files, sizes, 4, App.CHUNK_THRESHOLD_DEFAULT);
+        List<FileScheduler.Unit> units = schedule.units();
+        assertEquals(units.size(), 3);
+        assertEquals(units.get(0).paths, Arrays.asList(Paths.get("large")));
+        assertEquals(units.get(1).paths, Arrays.asList(Paths.get("medium")));
+        assertEquals(units.get(2).paths, Arrays.asList(Paths.get("small2"), Paths.get("small1")));
+        assertEquals(units.get(2).bytes, 30L);
+        assertEquals(schedule.splitBytes(), FileScheduler.MIN_SPLIT_BYTES);
+    }
 }
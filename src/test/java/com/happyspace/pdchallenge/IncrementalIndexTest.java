@@ -0,0 +1,152 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the incremental index across runs.
+ */
+public class IncrementalIndexTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that a rerun reads only changed and new files and drops deleted ones.
+     */
+    @Test
+    public void testRerunReadsOnlyChanges() throws IOException, InterruptedException, ExecutionException {
+        Path corpus = folder.newFolder("corpus").toPath();
+        Path indexDir = folder.newFolder("index").toPath();
+        Path a = write(corpus.resolve("a.txt"), "red red blue");
+        Path b = write(corpus.resolve("b.txt"), "blue green");
+        Path c = write(corpus.resolve("c.txt"), "green");
+
+        IncrementalIndex index = new IncrementalIndex(indexDir, false);
+        Path aggregate = index.update(Arrays.asList(a, b, c), 2);
+        WordCountMap counts = read(aggregate);
+        assertEquals(index.recounted(), 3);
+        assertEquals(counts.count("blue"), 2);
+        assertEquals(counts.count("green"), 2);
+
+        // unchanged rerun with a fresh instance reads nothing and keeps the aggregate
+        index = new IncrementalIndex(indexDir, false);
+        assertEquals(index.update(Arrays.asList(a, b, c), 2), aggregate);
+        assertEquals(index.recounted(), 0);
+        assertEquals(read(aggregate).count("red"), 2);
+
+        // change a, delete c, add d
+        write(a, "red");
+        Files.setLastModifiedTime(a, FileTime.fromMillis(Files.getLastModifiedTime(a).toMillis() + 2000));
+        Files.delete(c);
+        Path d = write(corpus.resolve("d.txt"), "yellow");
+        List<Path> files = new ArrayList<>(Arrays.asList(a, b, d));
+
+        index = new IncrementalIndex(indexDir, false);
+        counts = read(index.update(files, 2));
+        assertEquals(index.recounted(), 2);
+        assertEquals(counts.count("red"), 1);
+        assertEquals(counts.count("blue"), 1);
+        assertEquals(counts.count("green"), 1);
+        assertEquals(counts.count("yellow"), 1);
+    }
+
+    /**
+     * Test that with hashing a touched but unchanged file is not recounted.
+     */
+    @Test
+    public void testHashSkipsTouchedFile() throws IOException, InterruptedException, ExecutionException {
+        Path indexDir = folder.newFolder("index").toPath();
+        Path a = write(folder.newFile("a.txt").toPath(), "one two");
+
+        new IncrementalIndex(indexDir, true).update(Arrays.asList(a), 1);
+        Files.setLastModifiedTime(a, FileTime.fromMillis(Files.getLastModifiedTime(a).toMillis() + 2000));
+
+        IncrementalIndex index = new IncrementalIndex(indexDir, true);
+        WordCountMap counts = read(index.update(Arrays.asList(a), 1));
+        assertEquals(index.recounted(), 0);
+        assertEquals(counts.count("two"), 1);
+    }
+
+    /**
+     * Test that counts made with another tokenizer configuration are recounted.
+     */
+    @Test
+    public void testConfigChangeRecounts() throws IOException, InterruptedException, ExecutionException {
+        Path indexDir = folder.newFolder("index").toPath();
+        Path a = write(folder.newFile("a.txt").toPath(), "Red red");
+        new IncrementalIndex(indexDir, false).update(Arrays.asList(a), 1);
+
+        TokenizerConfig folded = new TokenizerConfig("", new Normalizer.Builder().foldCase(true).build());
+        IncrementalIndex index = new IncrementalIndex(indexDir, false, folded);
+        WordCountMap counts = read(index.update(Arrays.asList(a), 1));
+        assertEquals(index.recounted(), 1);
+        assertEquals(counts.count("red"), 2);
+        assertEquals(counts.count("Red"), 0);
+
+        index = new IncrementalIndex(indexDir, false, folded);
+        counts = read(index.update(Arrays.asList(a), 1));
+        assertEquals(index.recounted(), 0);
+        assertEquals(counts.count("red"), 2);
+        // the file's block and the aggregate
+        assertEquals(indexDir.resolve("blocks").toFile().list().length, 2);
+    }
+
+    /**
+     * Test that files that cannot be read are reported and left out of the counts,
+     * and are counted again once they can be read.
+     */
+    @Test
+    public void testUnreadableFileLeftOut() throws IOException, InterruptedException, ExecutionException {
+        Path corpus = folder.newFolder("corpus").toPath();
+        Path indexDir = folder.newFolder("index").toPath();
+        Path a = write(corpus.resolve("a.txt"), "red blue");
+        Path b = write(corpus.resolve("b.txt"), "blue green");
+        Path missing = corpus.resolve("missing.txt");
+        new IncrementalIndex(indexDir, false).update(Arrays.asList(a, b), 1);
+
+        // b is replaced by a directory, which cannot be counted
+        Files.delete(b);
+        Files.createDirectory(b);
+        IncrementalIndex index = new IncrementalIndex(indexDir, false);
+        WordCountMap counts = read(index.update(Arrays.asList(a, b, missing), 2));
+        assertEquals(index.failures().size(), 2);
+        assertEquals(counts.count("blue"), 1);
+        assertEquals(counts.count("green"), 0);
+
+        Files.delete(b);
+        write(b, "green");
+        index = new IncrementalIndex(indexDir, false);
+        counts = read(index.update(Arrays.asList(a, b), 2));
+        assertEquals(index.failures().size(), 0);
+        assertEquals(index.recounted(), 1);
+        assertEquals(counts.count("green"), 1);
+    }
+
+    private static WordCountMap read(Path aggregate) throws IOException {
+        WordCountMap counts = new WordCountMap();
+        try (CountFile.Reader reader = new CountFile.Reader(aggregate)) {
+            while (reader.next()) {
+                counts.add(reader.word, 0, reader.length, reader.count());
+            }
+        }
+        return counts;
+    }
+
+    private static Path write(Path path, String text) throws IOException {
+        return Files.write(path, text.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,82 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the instrumentation primitives.
+ */
+public class MetricsTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that concurrent increments are not lost.
+     */
+    @Test
+    public void testStripedCounter() throws InterruptedException {
+        final StripedCounter counter = new StripedCounter();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < 10000; i++) {
+                        counter.increment();
+                    }
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(counter.sum(), 40000L);
+    }
+
+    /**
+     * Test that percentiles fall within a factor of two of the recorded values.
+     */
+    @Test
+    public void testLatencyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 99; i++) {
+            histogram.record(1000);
+        }
+        histogram.record(1000000);
+
+        assertEquals(histogram.count(), 100L);
+        long p50 = histogram.percentile(50);
+        assertTrue(p50 >= 1000 && p50 < 2000);
+        long p100 = histogram.percentile(100);
+        assertTrue(p100 >= 1000000 && p100 < 2000000);
+    }
+
+    /**
+     * Test that each run reports its own counters rather than totals since the process started.
+     */
+    @Test
+    public void testResetPerRun() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("words.txt");
+        Files.write(file, "one two three".getBytes(StandardCharsets.UTF_8));
+        try (WordCounter counter = WordCounter.builder().workers(1).build()) {
+            counter.count(file);
+            counter.count(file);
+        }
+        assertEquals(Metrics.INSTANCE.getFilesDone(), 1L);
+        assertEquals(Metrics.INSTANCE.getTokens(), 3L);
+    }
+}
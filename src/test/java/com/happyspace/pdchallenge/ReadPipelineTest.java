@@ -0,0 +1,69 @@
+package com.happyspace.pdchallenge;
+
+import com.happyspace.pdchallenge.exceptions.FailedToCountFile;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test reading files in pooled blocks while they are tokenized.
+ */
+public class ReadPipelineTest {
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that files cut into many blocks count the same as whole files, in a pool
+     * smaller than the files, and that an unreadable file is reported.
+     */
+    @Test
+    public void testBlocksMatchWholeFiles() throws IOException, ExecutionException, InterruptedException {
+        Path root = folder.getRoot().toPath();
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * ReadPipeline.BLOCK_SIZE; i++) {
+            text.append("word").append(i % 1000).append(i % 7 == 0 ? '\n' : ' ');
+        }
+        Path large = Files.write(root.resolve("large.txt"), text.toString().getBytes(StandardCharsets.UTF_8));
+        Path utf16 = Files.write(root.resolve("utf16.txt"), text.toString().getBytes(StandardCharsets.UTF_16));
+        Path missing = root.resolve("missing.txt");
+
+        ExactAggregator aggregator = new ExactAggregator();
+        Queue<FailedToCountFile> failures = new ConcurrentLinkedQueue<>();
+        ForkJoinPool pool = new ForkJoinPool(2);
+        ReadPipeline pipeline = new ReadPipeline(2, 4, pool, aggregator, TokenizerConfig.DEFAULT, failures);
+        try {
+            pipeline.submit(large);
+            pipeline.submit(utf16);
+            pipeline.submit(missing);
+            pipeline.await();
+        } finally {
+            pipeline.shutdown();
+            pool.shutdown();
+        }
+
+        ExactAggregator expected = new ExactAggregator();
+        WordCountMap whole = WordCountTask.countWords(large, null);
+        expected.accept(whole);
+        expected.accept(whole);
+        List<Map.Entry<String, Long>> top = aggregator.top(1000);
+        assertEquals(top, expected.top(1000));
+        assertEquals(aggregator.distinctWords(), 1000L);
+        assertEquals(pipeline.allocated() <= 4, true);
+        assertEquals(failures.size(), 1);
+        assertEquals(failures.peek().getPath(), missing);
+    }
+}
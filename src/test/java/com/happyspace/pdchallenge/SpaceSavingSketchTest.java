@@ -0,0 +1,68 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the Space-Saving sketch.
+ */
+public class SpaceSavingSketchTest {
+
+    /**
+     * Test that a sketch below capacity counts exactly.
+     */
+    @Test
+    public void testExactBelowCapacity() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(10);
+        sketch.offer("a", 3);
+        sketch.offer("b", 1);
+        sketch.offer("a", 2);
+
+        List<Map.Entry<String, Long>> top = sketch.top(1);
+        assertEquals(top.get(0).getKey(), "a");
+        assertEquals(top.get(0).getValue().intValue(), 5);
+        assertEquals(sketch.errorBound(), 0L);
+    }
+
+    /**
+     * Test that a heavy hitter survives eviction and its over-estimate is within the bound.
+     */
+    @Test
+    public void testHeavyHitterWithinBound() {
+        SpaceSavingSketch sketch = new SpaceSavingSketch(4);
+        for (int i = 0; i < 100; i++) {
+            sketch.offer("heavy", 1);
+            sketch.offer("light" + i, 1);
+        }
+
+        List<Map.Entry<String, Long>> top = sketch.top(1);
+        assertEquals(top.get(0).getKey(), "heavy");
+        long overestimate = top.get(0).getValue() - 100;
+        assertTrue(overestimate >= 0);
+        assertTrue(overestimate <= sketch.errorBound());
+    }
+
+    /**
+     * Test merging two sketches keeps the combined heavy hitter.
+     */
+    @Test
+    public void testMerge() {
+        SpaceSavingSketch first = new SpaceSavingSketch(3);
+        SpaceSavingSketch second = new SpaceSavingSketch(3);
+        first.offer("a", 10);
+        first.offer("b", 6);
+        second.offer("c", 10);
+        second.offer("b", 6);
+
+        first.merge(second);
+
+        List<Map.Entry<String, Long>> top = first.top(1);
+        assertEquals(top.get(0).getKey(), "b");
+        assertEquals(top.get(0).getValue().intValue(), 12);
+    }
+}
@@ -0,0 +1,69 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the external sort-merge aggregator.
+ */
+public class SpillingAggregatorTest {
+
+    /**
+     * Test that runs spilled before every file after the first merge to the exact counts, together
+     * with the table still in memory.
+     */
+    @Test
+    public void testMergeRuns() throws IOException {
+        try (SpillingAggregator aggregator = new SpillingAggregator(1)) {
+            for (int file = 0; file < 5; file++) {
+                WordCountMap counts = new WordCountMap();
+                for (int w = file; w < 500; w++) {
+                    byte[] word = ("w" + w).getBytes(StandardCharsets.UTF_8);
+                    counts.add(word, 0, word.length, w == 7 ? 10 : 1);
+                }
+                aggregator.accept(counts);
+            }
+            assertEquals(aggregator.spilledRuns(), 4);
+
+            List<Map.Entry<String, Long>> top = aggregator.top(3);
+            assertEquals(aggregator.distinctWords(), 500L);
+            assertEquals(top.get(0).getKey(), "w7");
+            assertEquals(top.get(0).getValue().intValue(), 50);
+            assertEquals(top.get(1).getKey(), "w10");
+            assertEquals(top.get(1).getValue().intValue(), 5);
+            assertEquals(top.get(2).getKey(), "w100");
+        }
+    }
+
+    /**
+     * Test that the table of a thread that has stopped merging counts against the shared budget
+     * and is spilled for another thread's file.
+     */
+    @Test
+    public void testIdleTableSpilled() throws Exception {
+        final WordCountMap counts = new WordCountMap();
+        byte[] word = "idle".getBytes(StandardCharsets.UTF_8);
+        counts.add(word, 0, word.length, 3);
+        try (final SpillingAggregator aggregator = new SpillingAggregator(counts.footprint() * 3 / 2)) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    aggregator.accept(counts);
+                }
+            });
+            thread.start();
+            thread.join();
+            assertEquals(aggregator.spilledRuns(), 0);
+
+            aggregator.accept(counts);
+            assertEquals(aggregator.spilledRuns(), 1);
+            assertEquals(aggregator.top(1).get(0).getValue().longValue(), 6L);
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test following appended files and the sliding window.
+ */
+public class TailProcessorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that only appended bytes are counted and a partial token waits for the rest of it.
+     */
+    @Test
+    public void testAppendedRanges() throws IOException, InterruptedException {
+        Path log = folder.newFile("app.log").toPath();
+        append(log, "old old old\n");
+        TailProcessor tail = new TailProcessor(2, new ArrayList<>(Collections.singletonList(folder.getRoot().toPath())),
+                5, 3, 60000, 60000, new PrintStream(new ByteArrayOutputStream()));
+        try {
+            append(log, "new new words par");
+            WordCountMap counts = tail.readAppended(log);
+            assertEquals(counts.count("new"), 2);
+            assertEquals(counts.count("old"), 0);
+            assertEquals(counts.count("par"), 0);
+
+            append(log, "tial\n");
+            counts = tail.readAppended(log);
+            assertEquals(counts.count("partial"), 1);
+            assertEquals(tail.readAppended(log), null);
+        } finally {
+            tail.close();
+        }
+    }
+
+    /**
+     * Test that appended ranges are read the way each file was sniffed: binary files are skipped,
+     * Latin-1 and UTF-16 are decoded, and a UTF-16 token cut by a read waits for the rest of it.
+     */
+    @Test
+    public void testAppendedContentSniffed() throws IOException, InterruptedException {
+        Path binary = folder.newFile("app.bin").toPath();
+        Files.write(binary, new byte[] {0, 1, 2, 3, 'a', ' ', 0, 0});
+        Path latin = folder.newFile("latin.log").toPath();
+        append(latin, "old\n", StandardCharsets.ISO_8859_1);
+        Path wide = folder.newFile("wide.log").toPath();
+        Files.write(wide, new byte[] {(byte) 0xFF, (byte) 0xFE});
+        append(wide, "old\n", StandardCharsets.UTF_16LE);
+        TailProcessor tail = new TailProcessor(2, new ArrayList<>(Collections.singletonList(folder.getRoot().toPath())),
+                5, 3, 60000, 60000, new PrintStream(new ByteArrayOutputStream()));
+        try {
+            Files.write(binary, new byte[] {'w', 'o', 'r', 'd', ' ', 0, 7, 0}, StandardOpenOption.APPEND);
+            assertEquals(tail.readAppended(binary), null);
+
+            append(latin, "café café\n", StandardCharsets.ISO_8859_1);
+            assertEquals(tail.readAppended(latin).count("café"), 2);
+
+            append(wide, "new wor", StandardCharsets.UTF_16LE);
+            WordCountMap counts = tail.readAppended(wide);
+            assertEquals(counts.count("new"), 1);
+            assertEquals(counts.count("wor"), 0);
+            append(wide, "d\n", StandardCharsets.UTF_16LE);
+            assertEquals(tail.readAppended(wide).count("word"), 1);
+        } finally {
+            tail.close();
+        }
+    }
+
+    /**
+     * Test that counts leave the window once their bucket expires.
+     */
+    @Test
+    public void testSlidingWindow() {
+        SlidingWindow window = new SlidingWindow(3000, 1000, 0);
+        window.add(counts("a", 3), 0);
+        window.add(counts("b", 2), 1500);
+        window.add(counts("a", 1), 2500);
+
+        List<Map.Entry<String, Long>> top = window.top(2);
+        assertEquals(top.get(0).getKey(), "a");
+        assertEquals(top.get(0).getValue().intValue(), 4);
+
+        // the first bucket has expired
+        window.advance(3000);
+        top = window.top(2);
+        assertEquals(top.get(0).getKey(), "b");
+        assertEquals(top.get(1).getValue().intValue(), 1);
+
+        window.advance(10000);
+        assertEquals(window.top(2).size(), 0);
+    }
+
+    private static WordCountMap counts(String word, int count) {
+        WordCountMap counts = new WordCountMap();
+        byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+        counts.add(bytes, 0, bytes.length, count);
+        return counts;
+    }
+
+    private static void append(Path file, String text) throws IOException {
+        append(file, text, StandardCharsets.UTF_8);
+    }
+
+    private static void append(Path file, String text, Charset charset) throws IOException {
+        Files.write(file, text.getBytes(charset), StandardOpenOption.APPEND);
+    }
+}
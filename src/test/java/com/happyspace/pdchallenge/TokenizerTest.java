@@ -0,0 +1,172 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the byte level tokenizer.
+ */
+public class TokenizerTest {
+
+    /**
+     * Collects tokens as strings.
+     */
+    private static class Collector implements Tokenizer.TokenSink {
+        final List<String> tokens = new ArrayList<>();
+
+        @Override
+        public void token(byte[] bytes, int offset, int length) {
+            tokens.add(new String(bytes, offset, length, StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Test that leading, repeated and trailing whitespace produce no empty tokens.
+     */
+    @Test
+    public void testWhitespace() throws IOException {
+        Collector collector = new Collector();
+        byte[] input = "  one\ttwo\r\n\n three\u000B\ffour ".getBytes(StandardCharsets.UTF_8);
+        new Tokenizer(collector).tokenize(new ByteArrayInputStream(input), new byte[1024]);
+
+        assertEquals(collector.tokens, Arrays.asList("one", "two", "three", "four"));
+    }
+
+    /**
+     * Test tokens cut by small buffers, including multi-byte characters.
+     */
+    @Test
+    public void testTokensAcrossBuffers() throws IOException {
+        Collector collector = new Collector();
+        byte[] input = "größe words café größe".getBytes(StandardCharsets.UTF_8);
+        new Tokenizer(collector).tokenize(new ByteArrayInputStream(input), new byte[3]);
+
+        assertEquals(collector.tokens, Arrays.asList("größe", "words", "café", "größe"));
+    }
+
+    /**
+     * Test counting tokens by their bytes.
+     */
+    @Test
+    public void testWordCountMap() throws IOException {
+        WordCountMap counts = new WordCountMap();
+        byte[] input = "größe a größe a a".getBytes(StandardCharsets.UTF_8);
+        new Tokenizer(counts).tokenize(new ByteArrayInputStream(input), new byte[4]);
+
+        assertEquals(counts.size(), 2);
+        assertEquals(counts.count("größe"), 2);
+        assertEquals(counts.count("a"), 3);
+        assertEquals(counts.count("b"), 0);
+    }
+
+    /**
+     * Test growing the map past its initial capacity and merging maps.
+     */
+    @Test
+    public void testWordCountMapGrowAndMerge() {
+        WordCountMap first = new WordCountMap();
+        WordCountMap second = new WordCountMap();
+        for (int i = 0; i < 10000; i++) {
+            byte[] word = ("w" + i).getBytes(StandardCharsets.UTF_8);
+            first.token(word, 0, word.length);
+            second.add(word, 0, word.length, i);
+        }
+        first.addAll(second);
+
+        assertEquals(first.size(), 10000);
+        assertEquals(first.count("w0"), 1);
+        assertEquals(first.count("w9999"), 10000);
+    }
+
+    /**
+     * Test case folding, punctuation stripping, stop words and stemming together.
+     */
+    @Test
+    public void testNormalization() throws IOException {
+        Collector collector = new Collector();
+        Normalizer normalizer = new Normalizer.Builder().foldCase(true).words(true)
+                .stopWords(Normalizer.ENGLISH_STOP_WORDS).stem(true).build();
+        byte[] input = "Word word, WORD. The boxes: don't (Größe), cities; 3.14 Café.".getBytes(StandardCharsets.UTF_8);
+        new TokenizerConfig("", normalizer).newTokenizer(collector)
+                .tokenize(new ByteArrayInputStream(input), new byte[5]);
+
+        assertEquals(collector.tokens,
+                Arrays.asList("word", "word", "word", "box", "don't", "größe", "city", "3.14", "café"));
+    }
+
+    /**
+     * Test that the ASCII path splits words as the Unicode path does.
+     */
+    @Test
+    public void testAsciiMatchesUnicode() {
+        Normalizer normalizer = new Normalizer.Builder().foldCase(true).words(true).build();
+        String[] tokens = {"don't", "e.g.", "3.14", "1,000", "a,b", "a-b", "foo_bar", "a.b.c", "It's.",
+                "x:y", "(quoted)", "--", "a..b", "end-", "'tis"};
+        for (String token : tokens) {
+            Collector ascii = new Collector();
+            Collector unicode = new Collector();
+            byte[] bytes = token.getBytes(StandardCharsets.UTF_8);
+            // a trailing no-break space forces the Unicode path and is not part of any word
+            byte[] wide = (token + "\u00A0").getBytes(StandardCharsets.UTF_8);
+            normalizer.newSink(ascii).token(bytes, 0, bytes.length);
+            normalizer.newSink(unicode).token(wide, 0, wide.length);
+
+            assertEquals(token, ascii.tokens, unicode.tokens);
+        }
+    }
+
+    /**
+     * Test that n-grams end at line breaks unless they cross lines, are counted after normalization,
+     * and do not run from one input into the next.
+     */
+    @Test
+    public void testNGrams() throws IOException {
+        byte[] input = "The cat sat\nthe CAT sat the cat".getBytes(StandardCharsets.UTF_8);
+        Normalizer lower = new Normalizer.Builder().foldCase(true).build();
+
+        Collector lines = new Collector();
+        Tokenizer tokenizer = new TokenizerConfig("", lower, 2, false).newTokenizer(lines);
+        tokenizer.tokenize(new ByteArrayInputStream(input), new byte[3]);
+        tokenizer.tokenize(new ByteArrayInputStream("sat down".getBytes(StandardCharsets.UTF_8)), new byte[3]);
+        Collections.sort(lines.tokens);
+        assertEquals(lines.tokens, Arrays.asList("cat sat", "cat sat", "sat down", "sat the", "the cat", "the cat",
+                "the cat"));
+
+        WordCountMap crossing = new WordCountMap();
+        new TokenizerConfig("", lower, 3, true).newTokenizer(crossing)
+                .tokenize(new ByteArrayInputStream(input), new byte[1024]);
+        assertEquals(crossing.count("the cat sat"), 2);
+        assertEquals(crossing.count("cat sat the"), 2);
+        assertEquals(crossing.count("sat the cat"), 2);
+        assertEquals(crossing.size(), 3);
+        assertEquals(crossing.tokens(), 8L);
+    }
+
+    /**
+     * Test that no n-gram is lost when an input has more distinct tokens than 16 bits can number.
+     */
+    @Test
+    public void testNGramsManyTokens() throws IOException {
+        StringBuilder text = new StringBuilder();
+        int words = 70000;
+        for (int i = 0; i < words; i++) {
+            text.append('w').append(i).append(' ');
+        }
+        WordCountMap counts = new WordCountMap();
+        new TokenizerConfig("", Normalizer.NONE, 4, false).newTokenizer(counts)
+                .tokenize(new ByteArrayInputStream(text.toString().getBytes(StandardCharsets.UTF_8)), new byte[4096]);
+
+        assertEquals(counts.size(), words - 3);
+        assertEquals(counts.count("w65533 w65534 w65535 w65536"), 1);
+        assertEquals(counts.count("w69996 w69997 w69998 w69999"), 1);
+    }
+}
@@ -0,0 +1,59 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test top N selection.
+ */
+public class TopNTest {
+
+    /**
+     * Test that the largest counts are kept in descending order.
+     */
+    @Test
+    public void testSelectsLargest() {
+        TopN selector = new TopN(3);
+        for (int i = 0; i < 100; i++) {
+            selector.offer("w" + i, i % 50);
+        }
+
+        List<Map.Entry<String, Long>> result = selector.result();
+        assertEquals(result.size(), 3);
+        assertEquals(result.get(0).getValue().intValue(), 49);
+        assertEquals(result.get(1).getValue().intValue(), 49);
+        assertEquals(result.get(2).getValue().intValue(), 48);
+    }
+
+    /**
+     * Test that ties are broken by word regardless of the order they arrive in.
+     */
+    @Test
+    public void testTiesBrokenByWord() {
+        TopN forward = new TopN(2);
+        TopN backward = new TopN(2);
+        String[] words = {"d", "b", "a", "c"};
+        for (int i = 0; i < words.length; i++) {
+            forward.offer(words[i], 7);
+            backward.offer(words[words.length - 1 - i], 7);
+        }
+
+        assertEquals(forward.result(), backward.result());
+        assertEquals(forward.result().get(0).getKey(), "a");
+        assertEquals(forward.result().get(1).getKey(), "b");
+    }
+
+    /**
+     * Test a zero sized selection.
+     */
+    @Test
+    public void testZero() {
+        TopN selector = new TopN(0);
+        selector.offer("a", 1);
+        assertEquals(selector.result().size(), 0);
+    }
+}
@@ -0,0 +1,129 @@
+package com.happyspace.pdchallenge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Test the embeddable counter on every kind of source.
+ */
+public class WordCounterTest {
+
+    private static final String TEXT = "the cat, the dog.\nthe end";
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Test that every source gives the same counts, with punctuation as extra separators.
+     */
+    @Test
+    public void testSources() throws IOException {
+        try (WordCounter counter = WordCounter.builder().topN(2).tokenizer(new TokenizerConfig(",.")).build()) {
+            byte[] bytes = TEXT.getBytes(StandardCharsets.UTF_8);
+            List<WordCount> expected = Arrays.asList(new WordCount("the", 3), new WordCount("cat", 1));
+
+            assertEquals(counter.count(new ByteArrayInputStream(bytes)).top(), expected);
+            assertEquals(counter.count(ByteBuffer.wrap(bytes)).top(), expected);
+            CountResult lines = counter.count(Arrays.asList(TEXT.split("\n")));
+            assertEquals(lines.top(), expected);
+            assertEquals(lines.distinctWords(), 4L);
+        }
+    }
+
+    /**
+     * Test that a large buffer split into ranges per worker counts every word once.
+     */
+    @Test
+    public void testBufferRanges() throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < 100000; i++) {
+            text.append("word").append(i % 7).append(i % 3 == 0 ? '\n' : ' ');
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(text.toString().getBytes(StandardCharsets.UTF_8));
+        try (WordCounter counter = WordCounter.builder().workers(4).topN(7).build()) {
+            CountResult result = counter.count(buffer);
+            long total = 0;
+            for (WordCount count : result.top()) {
+                total += count.count();
+            }
+            assertEquals(total, 100000L);
+            assertEquals(buffer.position(), 0);
+        }
+    }
+
+    /**
+     * Test that phrases crossing lines count the same from a buffer split per worker, from lines
+     * collected in batches and from a file with chunking and the read pipeline configured,
+     * as from the whole text counted at once.
+     */
+    @Test
+    public void testPhrasesNotCut() throws IOException {
+        StringBuilder text = new StringBuilder();
+        List<String> lines = new ArrayList<>();
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; text.length() < 3 * 1024 * 1024; i++) {
+            line.append("w").append((long) i * i % 13);
+            if (i % 5 == 4) {
+                lines.add(line.toString());
+                text.append(line).append('\n');
+                line.setLength(0);
+            }
+            else {
+                line.append(' ');
+            }
+        }
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        Path file = Files.write(folder.getRoot().toPath().resolve("phrases.txt"), bytes);
+        TokenizerConfig pairs = new TokenizerConfig("", Normalizer.NONE, 2, true);
+
+        ExactAggregator whole = new ExactAggregator();
+        whole.accept(WordCountTask.countWords(bytes, bytes.length, pairs));
+        List<WordCount> expected = new ArrayList<>();
+        for (Map.Entry<String, Long> entry : whole.top(200)) {
+            expected.add(new WordCount(entry.getKey(), entry.getValue()));
+        }
+
+        try (WordCounter counter = WordCounter.builder().workers(4).topN(200).tokenizer(pairs)
+                .chunkThreshold(64 * 1024).pipelineBuffers(4).build()) {
+            assertEquals(counter.count(ByteBuffer.wrap(bytes)).top(), expected);
+            assertEquals(counter.count(lines).top(), expected);
+            assertEquals(counter.count(file).top(), expected);
+        }
+    }
+
+    /**
+     * Test that counters sharing a pool match the command line result for the same files.
+     */
+    @Test
+    public void testSharedPool() throws Exception {
+        ForkJoinPool pool = new ForkJoinPool(2);
+        try (WordCounter counter = WordCounter.builder().pool(pool).topN(5).build()) {
+            ArrayList<Path> start = new ArrayList<>();
+            start.add(Paths.get("src/test/resources/hadoop"));
+            FileProcessor processor = new FileProcessor(2, start, 5, App.MAX_FILE_WALK);
+            CountResult expected = new CountResult(processor.processFiles(), -1, 0);
+
+            for (int run = 0; run < 3; run++) {
+                assertEquals(counter.count(Paths.get("src/test/resources/hadoop")).top(), expected.top());
+            }
+        }
+        assertEquals(pool.isShutdown(), false);
+        pool.shutdown();
+    }
+}